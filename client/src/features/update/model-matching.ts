@@ -12,6 +12,8 @@ export interface Match {
     right?: SModelElementSchema
     leftParentId?: string
     rightParentId?: string
+    /** The position at which the right element is inserted into its parent; it is appended if this is undefined */
+    rightIndex?: number
 }
 
 export interface MatchResult {
@@ -87,7 +89,7 @@ export function applyMatches(root: SModelRootSchema, matches: Match[]): void {
             if (parent !== undefined && parent.children !== undefined) {
                 const i = parent.children.indexOf(match.left);
                 if (i >= 0) {
-                    if (match.right !== undefined && match.leftParentId === match.rightParentId) {
+                    if (match.right !== undefined && match.leftParentId === match.rightParentId && match.rightIndex === undefined) {
                         parent.children.splice(i, 1, match.right);
                         newElementInserted = true;
                     } else {
@@ -102,7 +104,10 @@ export function applyMatches(root: SModelRootSchema, matches: Match[]): void {
             if (parent !== undefined) {
                 if (parent.children === undefined)
                     parent.children = [];
-                parent.children.push(match.right);
+                if (match.rightIndex !== undefined)
+                    parent.children.splice(match.rightIndex, 0, match.right);
+                else
+                    parent.children.push(match.right);
             }
         }
     }
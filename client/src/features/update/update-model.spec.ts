@@ -333,4 +333,57 @@ describe('UpdateModelCommand', () => {
         };
         compare(expected, newModel);
     });
+
+    it('inserts matched elements at the given index', () => {
+        context.root = graphFactory.createRoot({
+            type: 'graph',
+            id: 'model',
+            children: [
+                {
+                    type: 'node',
+                    id: 'child1'
+                },
+                {
+                    type: 'node',
+                    id: 'child2',
+                    position: { x: 100, y: 100 }
+                } as SNodeSchema,
+                {
+                    type: 'node',
+                    id: 'child3'
+                }
+            ]
+        });
+        const command2 = new TestUpdateModelCommand({
+            kind: UpdateModelCommand.KIND,
+            animate: false,
+            matches: [
+                {
+                    left: {
+                        type: 'node',
+                        id: 'child2'
+                    },
+                    leftParentId: 'model',
+                    right: {
+                        type: 'node',
+                        id: 'child2',
+                        position: { x: 150, y: 200 }
+                    } as SNodeSchema,
+                    rightParentId: 'model',
+                    rightIndex: 1
+                },
+                {
+                    right: {
+                        type: 'node',
+                        id: 'child4'
+                    },
+                    rightParentId: 'model',
+                    rightIndex: 0
+                }
+            ]
+        });
+        const newModel = command2.execute(context) as SModelRoot;
+        expect(newModel.children.map(c => c.id)).to.deep.equal(['child4', 'child1', 'child2', 'child3']);
+        expect((newModel.children[2] as any).position).to.deep.equal({ x: 150, y: 200 });
+    });
 });
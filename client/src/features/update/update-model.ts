@@ -106,7 +106,7 @@ export class UpdateModelCommand extends Command {
                 if (match.rightParentId !== undefined)
                     parent = index.getById(match.rightParentId);
                 if (parent instanceof SParentElement)
-                    parent.add(element);
+                    parent.add(element, match.rightIndex);
                 else
                     root.add(element);
             }
@@ -128,8 +128,10 @@ export * from "./lib/svg-views";
 
 // ------------------ Model Source ------------------
 
+export * from "./model-source/binary-json";
 export * from "./model-source/diagram-server";
 export * from "./model-source/diagram-state";
+export * from "./model-source/inflate";
 export * from "./model-source/local-model-source";
 export * from "./model-source/logging";
 export * from "./model-source/model-source";
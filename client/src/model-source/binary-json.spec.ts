@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2017 TypeFox and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ */
+
+import "mocha";
+import { expect } from "chai";
+import { decodeBinaryJson, isBinaryJson } from "./binary-json";
+
+function bytes(hex: string): Uint8Array {
+    const result = new Uint8Array(hex.length / 2);
+    for (let i = 0; i < result.length; i++) {
+        result[i] = parseInt(hex.substr(2 * i, 2), 16);
+    }
+    return result;
+}
+
+function text(value: string): number[] {
+    const result = [0x60 | value.length];
+    for (let i = 0; i < value.length; i++) {
+        result.push(value.charCodeAt(i));
+    }
+    return result;
+}
+
+describe('binary JSON', () => {
+    it('decodes nested containers', () => {
+        const value = decodeBinaryJson(bytes('d90100bf646c6973749f01f6ff6174f5616ea0ff'));
+        expect(value).to.deep.equal({ list: [1, null], t: true, n: {} });
+    });
+
+    it('decodes UTF-8 text', () => {
+        const value = decodeBinaryJson(bytes('d901006bc3a4c3b6e282acf09d849e'));
+        expect(value).to.equal('äö€𝄞');
+    });
+
+    it('resolves string references', () => {
+        // "ab" is too short for the string table, so the reference 0 denotes "abc"
+        const value = decodeBinaryJson(bytes('d901008362616263616263d81900'));
+        expect(value).to.deep.equal(['ab', 'abc', 'abc']);
+    });
+
+    it('resolves string references beyond the first 24 entries', () => {
+        const data = [0xd9, 0x01, 0x00, 0x9f];
+        for (let i = 0; i < 30; i++) {
+            data.push(...text('node' + i));
+        }
+        data.push(0xd8, 0x19, 0x00, 0xd8, 0x19, 0x18, 24, 0xd8, 0x19, 0x18, 29, 0xff);
+        const value: string[] = decodeBinaryJson(new Uint8Array(data));
+        expect(value.slice(30)).to.deep.equal(['node0', 'node24', 'node29']);
+    });
+
+    it('uses a separate string table for each namespace', () => {
+        const value = decodeBinaryJson(bytes('d901008363616263d90100816378797ad81900'));
+        expect(value).to.deep.equal(['abc', ['xyz'], 'abc']);
+    });
+
+    it('decodes integers outside the safe range like JSON.parse', () => {
+        expect(decodeBinaryJson(bytes('d901001b7fffffffffffffff'))).to.equal(JSON.parse('9223372036854775807'));
+        expect(decodeBinaryJson(bytes('d901003b7fffffffffffffff'))).to.equal(JSON.parse('-9223372036854775808'));
+        expect(decodeBinaryJson(bytes('d901001b0020000000000001'))).to.equal(JSON.parse('9007199254740993'));
+    });
+
+    it('decodes floating point numbers', () => {
+        expect(decodeBinaryJson(bytes('d90100fa3f000000'))).to.equal(0.5);
+        expect(decodeBinaryJson(bytes('d90100fb3fd5555555555555'))).to.equal(1 / 3);
+        expect(1 / decodeBinaryJson(bytes('d90100fa80000000'))).to.equal(-Infinity);
+        expect(decodeBinaryJson(bytes('d90100fa7fc00000'))).to.be.NaN;
+    });
+
+    it('rejects truncated data', () => {
+        expect(() => decodeBinaryJson(bytes('d90100bf6474657874'))).to.throw();
+    });
+
+    it('recognizes the binary format', () => {
+        expect(isBinaryJson(bytes('d90100f6'))).to.be.true;
+        expect(isBinaryJson(bytes('7b7d'))).to.be.false;
+    });
+});
@@ -0,0 +1,263 @@
+/*
+ * Copyright (C) 2017 TypeFox and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ */
+
+const MAJOR_UNSIGNED = 0;
+const MAJOR_NEGATIVE = 1;
+const MAJOR_TEXT = 3;
+const MAJOR_ARRAY = 4;
+const MAJOR_MAP = 5;
+const MAJOR_TAG = 6;
+const MAJOR_SIMPLE = 7;
+
+const TAG_STRINGREF = 25;
+const TAG_STRINGREF_NAMESPACE = 256;
+
+const INDEFINITE_LENGTH = 31;
+const BREAK = 0xff;
+const FALSE = 0xf4;
+const TRUE = 0xf5;
+const NULL = 0xf6;
+const UNDEFINED = 0xf7;
+const FLOAT32 = 0xfa;
+const FLOAT64 = 0xfb;
+
+/**
+ * Whether the given data start with a CBOR tag, which is how messages in the binary wire format of the
+ * diagram server begin.
+ */
+export function isBinaryJson(data: Uint8Array): boolean {
+    return data.length > 0 && (data[0] & 0xe0) === MAJOR_TAG << 5;
+}
+
+/**
+ * Decode a message in the binary wire format of the diagram server. The format is a subset of
+ * <a href="https://tools.ietf.org/html/rfc7049">CBOR</a> with the
+ * <a href="http://cbor.schmorp.de/stringref">stringref</a> extension, see `BinaryJsonWriter` on the server.
+ * The result is the same as parsing the corresponding JSON text.
+ */
+export function decodeBinaryJson(data: ArrayBuffer | Uint8Array): any {
+    const bytes = data instanceof Uint8Array ? data : new Uint8Array(data);
+    return new BinaryJsonDecoder(bytes).decode();
+}
+
+/**
+ * The minimum length of a string for being added to the string table, which must match the rule
+ * applied by the encoder.
+ */
+function minStringRefLength(tableSize: number): number {
+    if (tableSize < 24)
+        return 3;
+    else if (tableSize < 0x100)
+        return 4;
+    else if (tableSize < 0x10000)
+        return 5;
+    else
+        return 7;
+}
+
+/**
+ * Decode UTF-8 encoded text.
+ */
+export function decodeUtf8(bytes: Uint8Array, start: number = 0, end: number = bytes.length): string {
+    const codes: number[] = [];
+    let result = '';
+    let i = start;
+    while (i < end) {
+        const b = bytes[i++];
+        let code: number;
+        if (b < 0x80) {
+            code = b;
+        } else if (b < 0xe0) {
+            code = (b & 0x1f) << 6 | bytes[i++] & 0x3f;
+        } else if (b < 0xf0) {
+            code = (b & 0x0f) << 12 | (bytes[i++] & 0x3f) << 6 | bytes[i++] & 0x3f;
+        } else {
+            code = (b & 0x07) << 18 | (bytes[i++] & 0x3f) << 12 | (bytes[i++] & 0x3f) << 6 | bytes[i++] & 0x3f;
+        }
+        if (code >= 0x10000) {
+            code -= 0x10000;
+            codes.push(0xd800 | code >>> 10, 0xdc00 | code & 0x3ff);
+        } else {
+            codes.push(code);
+        }
+        if (codes.length >= 4096) {
+            result += String.fromCharCode.apply(undefined, codes);
+            codes.length = 0;
+        }
+    }
+    return result + String.fromCharCode.apply(undefined, codes);
+}
+
+class BinaryJsonDecoder {
+
+    protected readonly view: DataView;
+    protected offset = 0;
+    protected stringTable: string[] = [];
+
+    constructor(protected readonly bytes: Uint8Array) {
+        this.view = new DataView(bytes.buffer, bytes.byteOffset, bytes.byteLength);
+    }
+
+    decode(): any {
+        return this.readItem(this.readByte());
+    }
+
+    protected readItem(initial: number): any {
+        const majorType = initial >>> 5;
+        const info = initial & 0x1f;
+        switch (majorType) {
+            case MAJOR_UNSIGNED:
+                return this.readArgument(info);
+            case MAJOR_NEGATIVE:
+                return -1 - this.readArgument(info);
+            case MAJOR_TEXT:
+                return this.readText(info);
+            case MAJOR_ARRAY:
+                return this.readArray(info);
+            case MAJOR_MAP:
+                return this.readObject(info);
+            case MAJOR_TAG:
+                return this.readTagged(this.readArgument(info));
+            case MAJOR_SIMPLE:
+                return this.readSimple(initial);
+            default:
+                throw new Error('Unsupported major type: ' + majorType);
+        }
+    }
+
+    protected readText(info: number): string {
+        if (info === INDEFINITE_LENGTH)
+            throw new Error('Indefinite length strings are not supported.');
+        const length = this.readArgument(info);
+        const start = this.offset;
+        this.skip(length);
+        const result = decodeUtf8(this.bytes, start, this.offset);
+        if (length >= minStringRefLength(this.stringTable.length))
+            this.stringTable.push(result);
+        return result;
+    }
+
+    protected readArray(info: number): any[] {
+        const result: any[] = [];
+        if (info === INDEFINITE_LENGTH) {
+            let next: number;
+            while ((next = this.readByte()) !== BREAK) {
+                result.push(this.readItem(next));
+            }
+        } else {
+            const size = this.readArgument(info);
+            for (let i = 0; i < size; i++) {
+                result.push(this.readItem(this.readByte()));
+            }
+        }
+        return result;
+    }
+
+    protected readObject(info: number): any {
+        const result: any = {};
+        if (info === INDEFINITE_LENGTH) {
+            let next: number;
+            while ((next = this.readByte()) !== BREAK) {
+                const name = this.readName(next);
+                result[name] = this.readItem(this.readByte());
+            }
+        } else {
+            const size = this.readArgument(info);
+            for (let i = 0; i < size; i++) {
+                const name = this.readName(this.readByte());
+                result[name] = this.readItem(this.readByte());
+            }
+        }
+        return result;
+    }
+
+    protected readName(initial: number): string {
+        const name = this.readItem(initial);
+        if (typeof name !== 'string')
+            throw new Error('Expected a string as object key, but got ' + name);
+        return name;
+    }
+
+    protected readTagged(tag: number): any {
+        if (tag === TAG_STRINGREF_NAMESPACE) {
+            const outerTable = this.stringTable;
+            this.stringTable = [];
+            try {
+                return this.readItem(this.readByte());
+            } finally {
+                this.stringTable = outerTable;
+            }
+        } else if (tag === TAG_STRINGREF) {
+            const index = this.readItem(this.readByte());
+            if (typeof index !== 'number' || index < 0 || index >= this.stringTable.length)
+                throw new Error('Invalid string reference: ' + index);
+            return this.stringTable[index];
+        } else {
+            // Unknown tags are ignored
+            return this.readItem(this.readByte());
+        }
+    }
+
+    protected readSimple(initial: number): any {
+        switch (initial) {
+            case FALSE:
+                return false;
+            case TRUE:
+                return true;
+            case NULL:
+            case UNDEFINED:
+                return null;
+            case FLOAT32: {
+                const value = this.view.getFloat32(this.offset);
+                this.skip(4);
+                return value;
+            }
+            case FLOAT64: {
+                const value = this.view.getFloat64(this.offset);
+                this.skip(8);
+                return value;
+            }
+            default:
+                throw new Error('Unsupported simple value: ' + initial);
+        }
+    }
+
+    protected readArgument(info: number): number {
+        if (info < 24)
+            return info;
+        const start = this.offset;
+        switch (info) {
+            case 24:
+                this.skip(1);
+                return this.view.getUint8(start);
+            case 25:
+                this.skip(2);
+                return this.view.getUint16(start);
+            case 26:
+                this.skip(4);
+                return this.view.getUint32(start);
+            case 27:
+                // Integers beyond 2^53 lose precision, just like in JSON.parse
+                this.skip(8);
+                return this.view.getUint32(start) * 0x100000000 + this.view.getUint32(start + 4);
+            default:
+                throw new Error('Invalid additional information: ' + info);
+        }
+    }
+
+    protected readByte(): number {
+        if (this.offset >= this.bytes.length)
+            throw new Error('Unexpected end of binary message');
+        return this.bytes[this.offset++];
+    }
+
+    protected skip(count: number): void {
+        if (this.offset + count > this.bytes.length)
+            throw new Error('Unexpected end of binary message');
+        this.offset += count;
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2017 TypeFox and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ */
+
+import "mocha";
+import { expect } from "chai";
+import * as zlib from "zlib";
+import { inflate, isZlib } from "./inflate";
+
+function createModel(nodeCount: number): string {
+    const children: any[] = [];
+    for (let i = 0; i < nodeCount; i++) {
+        children.push({ type: 'node', id: 'node' + i, position: { x: i * 1.5, y: i % 7 } });
+    }
+    return JSON.stringify({ type: 'graph', id: 'graph', children });
+}
+
+function checkInflate(data: Buffer, level: number) {
+    const compressed = new Uint8Array(zlib.deflateSync(data, { level }));
+    expect(isZlib(compressed)).to.be.true;
+    const result = inflate(compressed);
+    expect(Buffer.from(result.buffer, result.byteOffset, result.length).equals(data)).to.be.true;
+}
+
+describe('inflate', () => {
+    it('decompresses stored blocks', () => {
+        checkInflate(Buffer.from(createModel(1000)), 0);
+    });
+
+    it('decompresses blocks with fixed Huffman codes', () => {
+        // Short input is compressed with the fixed codes
+        checkInflate(Buffer.from('hello hello hello hello'), 6);
+    });
+
+    it('decompresses blocks with dynamic Huffman codes', () => {
+        checkInflate(Buffer.from(createModel(5000)), 6);
+        checkInflate(Buffer.from(createModel(5000)), 9);
+    });
+
+    it('decompresses empty data', () => {
+        checkInflate(Buffer.alloc(0), 6);
+    });
+
+    it('rejects truncated data', () => {
+        const compressed = new Uint8Array(zlib.deflateSync(Buffer.from(createModel(1000))));
+        expect(() => inflate(compressed.subarray(0, 100))).to.throw();
+    });
+
+    it('distinguishes compressed data from other messages', () => {
+        expect(isZlib(new Uint8Array([0x78, 0x9c]))).to.be.true;
+        expect(isZlib(new Uint8Array([0xd9, 0x01, 0x00]))).to.be.false;
+        expect(isZlib(new Uint8Array([0x7b, 0x22]))).to.be.false;
+    });
+});
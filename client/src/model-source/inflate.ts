@@ -0,0 +1,229 @@
+/*
+ * Copyright (C) 2017 TypeFox and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ */
+
+const MAX_BITS = 15;
+
+const LENGTH_BASE = [3, 4, 5, 6, 7, 8, 9, 10, 11, 13, 15, 17, 19, 23, 27, 31, 35, 43, 51, 59, 67, 83, 99, 115, 131, 163, 195, 227, 258];
+const LENGTH_EXTRA = [0, 0, 0, 0, 0, 0, 0, 0, 1, 1, 1, 1, 2, 2, 2, 2, 3, 3, 3, 3, 4, 4, 4, 4, 5, 5, 5, 5, 0];
+const DISTANCE_BASE = [1, 2, 3, 4, 5, 7, 9, 13, 17, 25, 33, 49, 65, 97, 129, 193, 257, 385, 513, 769, 1025, 1537, 2049, 3073,
+    4097, 6145, 8193, 12289, 16385, 24577];
+const DISTANCE_EXTRA = [0, 0, 0, 0, 1, 1, 2, 2, 3, 3, 4, 4, 5, 5, 6, 6, 7, 7, 8, 8, 9, 9, 10, 10, 11, 11, 12, 12, 13, 13];
+const CODE_LENGTH_ORDER = [16, 17, 18, 0, 8, 7, 9, 6, 10, 5, 11, 4, 12, 3, 13, 2, 14, 1, 15];
+
+/**
+ * Whether the given data start with a zlib header, which is how compressed messages of the diagram
+ * server begin.
+ */
+export function isZlib(data: Uint8Array): boolean {
+    return data.length >= 2 && (data[0] & 0x8f) === 0x08 && (data[0] << 8 | data[1]) % 31 === 0;
+}
+
+/**
+ * Decompress data in zlib format (RFC 1950) as produced by the deflate compression of the diagram server.
+ */
+export function inflate(data: Uint8Array): Uint8Array {
+    if (!isZlib(data))
+        throw new Error('Invalid zlib header');
+    if (data[1] & 0x20)
+        throw new Error('Preset dictionaries are not supported');
+    return new Inflater(data, 2).inflate();
+}
+
+/**
+ * Canonical Huffman code given by the number of codes of each length and the symbols ordered by code.
+ */
+class Huffman {
+    readonly counts = new Uint16Array(MAX_BITS + 1);
+    readonly symbols: Uint16Array;
+
+    constructor(lengths: ArrayLike<number>) {
+        this.symbols = new Uint16Array(lengths.length);
+        for (let i = 0; i < lengths.length; i++) {
+            this.counts[lengths[i]]++;
+        }
+        this.counts[0] = 0;
+        const offsets = new Uint16Array(MAX_BITS + 1);
+        for (let len = 1; len < MAX_BITS; len++) {
+            offsets[len + 1] = offsets[len] + this.counts[len];
+        }
+        for (let i = 0; i < lengths.length; i++) {
+            if (lengths[i] !== 0)
+                this.symbols[offsets[lengths[i]]++] = i;
+        }
+    }
+}
+
+/**
+ * Decoder of the deflate format (RFC 1951).
+ */
+class Inflater {
+
+    protected bitBuffer = 0;
+    protected bitCount = 0;
+    protected output: Uint8Array;
+    protected outputLength = 0;
+
+    constructor(protected readonly input: Uint8Array, protected offset: number) {
+        this.output = new Uint8Array(Math.max(input.length * 4, 1024));
+    }
+
+    inflate(): Uint8Array {
+        let last: boolean;
+        do {
+            last = this.readBits(1) === 1;
+            const type = this.readBits(2);
+            switch (type) {
+                case 0:
+                    this.inflateStored();
+                    break;
+                case 1:
+                    this.inflateBlock(FIXED_LITERALS, FIXED_DISTANCES);
+                    break;
+                case 2:
+                    this.inflateDynamic();
+                    break;
+                default:
+                    throw new Error('Invalid block type: ' + type);
+            }
+        } while (!last);
+        return this.output.subarray(0, this.outputLength);
+    }
+
+    protected inflateStored(): void {
+        // Stored blocks start at a byte boundary
+        this.bitBuffer = 0;
+        this.bitCount = 0;
+        if (this.offset + 4 > this.input.length)
+            throw new Error('Unexpected end of compressed data');
+        const length = this.input[this.offset] | this.input[this.offset + 1] << 8;
+        const complement = this.input[this.offset + 2] | this.input[this.offset + 3] << 8;
+        if (length !== (~complement & 0xffff))
+            throw new Error('Invalid stored block length');
+        this.offset += 4;
+        if (this.offset + length > this.input.length)
+            throw new Error('Unexpected end of compressed data');
+        this.ensureCapacity(length);
+        this.output.set(this.input.subarray(this.offset, this.offset + length), this.outputLength);
+        this.outputLength += length;
+        this.offset += length;
+    }
+
+    protected inflateDynamic(): void {
+        const literalCount = this.readBits(5) + 257;
+        const distanceCount = this.readBits(5) + 1;
+        const codeLengthCount = this.readBits(4) + 4;
+        const codeLengthLengths = new Uint8Array(19);
+        for (let i = 0; i < codeLengthCount; i++) {
+            codeLengthLengths[CODE_LENGTH_ORDER[i]] = this.readBits(3);
+        }
+        const codeLengths = new Huffman(codeLengthLengths);
+        const lengths = new Uint8Array(literalCount + distanceCount);
+        let i = 0;
+        while (i < lengths.length) {
+            const symbol = this.decodeSymbol(codeLengths);
+            if (symbol < 16) {
+                lengths[i++] = symbol;
+            } else {
+                let value = 0;
+                let repeat: number;
+                if (symbol === 16) {
+                    if (i === 0)
+                        throw new Error('Invalid code length repetition');
+                    value = lengths[i - 1];
+                    repeat = 3 + this.readBits(2);
+                } else if (symbol === 17) {
+                    repeat = 3 + this.readBits(3);
+                } else {
+                    repeat = 11 + this.readBits(7);
+                }
+                if (i + repeat > lengths.length)
+                    throw new Error('Too many code lengths');
+                while (repeat-- > 0) {
+                    lengths[i++] = value;
+                }
+            }
+        }
+        this.inflateBlock(new Huffman(lengths.subarray(0, literalCount)), new Huffman(lengths.subarray(literalCount)));
+    }
+
+    protected inflateBlock(literals: Huffman, distances: Huffman): void {
+        while (true) {
+            const symbol = this.decodeSymbol(literals);
+            if (symbol < 256) {
+                this.ensureCapacity(1);
+                this.output[this.outputLength++] = symbol;
+            } else if (symbol === 256) {
+                return;
+            } else {
+                const lengthCode = symbol - 257;
+                if (lengthCode >= LENGTH_BASE.length)
+                    throw new Error('Invalid length code: ' + symbol);
+                const length = LENGTH_BASE[lengthCode] + this.readBits(LENGTH_EXTRA[lengthCode]);
+                const distanceCode = this.decodeSymbol(distances);
+                if (distanceCode >= DISTANCE_BASE.length)
+                    throw new Error('Invalid distance code: ' + distanceCode);
+                const distance = DISTANCE_BASE[distanceCode] + this.readBits(DISTANCE_EXTRA[distanceCode]);
+                if (distance > this.outputLength)
+                    throw new Error('Invalid distance: ' + distance);
+                this.ensureCapacity(length);
+                // The source may overlap with the copied bytes, so they are copied one by one
+                let source = this.outputLength - distance;
+                for (let k = 0; k < length; k++) {
+                    this.output[this.outputLength++] = this.output[source++];
+                }
+            }
+        }
+    }
+
+    protected decodeSymbol(huffman: Huffman): number {
+        let code = 0;
+        let first = 0;
+        let index = 0;
+        for (let len = 1; len <= MAX_BITS; len++) {
+            code |= this.readBits(1);
+            const count = huffman.counts[len];
+            if (code - first < count)
+                return huffman.symbols[index + code - first];
+            index += count;
+            first = (first + count) << 1;
+            code <<= 1;
+        }
+        throw new Error('Invalid Huffman code');
+    }
+
+    protected readBits(count: number): number {
+        while (this.bitCount < count) {
+            if (this.offset >= this.input.length)
+                throw new Error('Unexpected end of compressed data');
+            this.bitBuffer |= this.input[this.offset++] << this.bitCount;
+            this.bitCount += 8;
+        }
+        const result = this.bitBuffer & ((1 << count) - 1);
+        this.bitBuffer >>>= count;
+        this.bitCount -= count;
+        return result;
+    }
+
+    protected ensureCapacity(count: number): void {
+        if (this.outputLength + count > this.output.length) {
+            const newOutput = new Uint8Array(Math.max(this.output.length * 2, this.outputLength + count));
+            newOutput.set(this.output.subarray(0, this.outputLength));
+            this.output = newOutput;
+        }
+    }
+}
+
+const FIXED_LITERALS = new Huffman(fixedLengths(288, i => i < 144 ? 8 : i < 256 ? 9 : i < 280 ? 7 : 8));
+const FIXED_DISTANCES = new Huffman(fixedLengths(30, () => 5));
+
+function fixedLengths(count: number, length: (symbol: number) => number): Uint8Array {
+    const result = new Uint8Array(count);
+    for (let i = 0; i < count; i++) {
+        result[i] = length(i);
+    }
+    return result;
+}
@@ -6,20 +6,40 @@
  */
 
 import { injectable } from "inversify";
+import { RequestModelAction } from "../base/features/set-model";
 import { DiagramServer, ActionMessage } from "./diagram-server";
+import { decodeBinaryJson, decodeUtf8, isBinaryJson } from "./binary-json";
+import { inflate, isZlib } from "./inflate";
 
 /**
  * An external ModelSource that connects to the model provider using a
  * websocket.
+ *
+ * The format of the messages sent by the server is requested with the options of the
+ * RequestModelAction, see `wireFormat` and `compression`. Binary messages received from
+ * the server are always accepted.
  */
 @injectable()
 export class WebSocketDiagramServer extends DiagramServer {
 
+    /**
+     * The format of messages sent by the server: either JSON text, or the more compact binary
+     * format that is decoded with `decodeBinaryJson`. The default is 'json'.
+     */
+    wireFormat: 'json' | 'binary' = 'json';
+
+    /**
+     * Whether the server compresses large messages with the deflate algorithm, which saves bandwidth
+     * at the cost of CPU time on both sides. The default is 'none'.
+     */
+    compression: 'none' | 'deflate' = 'none';
+
     protected webSocket?: WebSocket;
 
     listen(webSocket: WebSocket): void {
+        webSocket.binaryType = 'arraybuffer';
         webSocket.addEventListener('message', event => {
-            this.messageReceived(event.data);
+            this.messageReceived(this.decodeMessage(event.data));
         });
         webSocket.addEventListener('error', event => {
             this.logger.error(this, 'error event received', event);
@@ -36,9 +56,49 @@ export class WebSocketDiagramServer extends DiagramServer {
 
     protected sendMessage(message: ActionMessage): void {
         if (this.webSocket) {
-            this.webSocket.send(JSON.stringify(message));
+            this.webSocket.send(JSON.stringify(this.addWireFormatOptions(message)));
         } else {
             throw new Error('WebSocket is not connected');
         }
     }
+
+    /**
+     * Add the options for the wire format to the given message if it requests a model.
+     */
+    protected addWireFormatOptions(message: ActionMessage): ActionMessage {
+        if (message.action.kind === RequestModelAction.KIND) {
+            const options = this.getWireFormatOptions();
+            if (Object.keys(options).length > 0) {
+                const action = message.action as RequestModelAction;
+                return {
+                    clientId: message.clientId,
+                    action: new RequestModelAction({ ...action.options, ...options })
+                };
+            }
+        }
+        return message;
+    }
+
+    protected getWireFormatOptions(): { [key: string]: string } {
+        const options: { [key: string]: string } = {};
+        if (this.wireFormat !== 'json')
+            options.wireFormat = this.wireFormat;
+        if (this.compression !== 'none')
+            options.compression = this.compression;
+        return options;
+    }
+
+    /**
+     * Decode a binary message received from the server, which is either in the binary format or
+     * compressed. Text messages are passed on as they are.
+     */
+    protected decodeMessage(data: any): any {
+        if (data instanceof ArrayBuffer) {
+            let bytes = new Uint8Array(data);
+            if (isZlib(bytes))
+                bytes = inflate(bytes);
+            return isBinaryJson(bytes) ? decodeBinaryJson(bytes) : decodeUtf8(bytes);
+        }
+        return data;
+    }
 }
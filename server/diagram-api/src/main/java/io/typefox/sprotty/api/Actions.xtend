@@ -85,6 +85,9 @@ class SetModelAction implements Action {
 /**
  * Sent from the server to the client in order to update the model. If no model is present yet, this behaves
  * the same as a {@link SetModelAction}. The transition from the old model to the new one can be animated.
+ *
+ * <p>Either {@code newRoot} or {@code matches} is set. In the latter case the client applies the given
+ * matches to its current model instead of replacing it completely (see {@link ModelMatcher}).</p>
  */
 @Accessors
 @EqualsHashCode
@@ -94,6 +97,7 @@ class UpdateModelAction implements Action {
 	String kind = KIND
 	
 	SModelRoot newRoot
+	List<Match> matches
 	Boolean animate
 	
 	new() {}
@@ -103,6 +107,32 @@ class UpdateModelAction implements Action {
 	new(SModelRoot newRoot) {
 		this.newRoot = newRoot
 	}
+	new(List<Match> matches) {
+		this.matches = matches
+	}
+}
+
+/**
+ * A change to apply to the client model as part of an {@link UpdateModelAction}. If only {@code left} is set,
+ * that element is removed. If only {@code right} is set, that element is added to the element referenced
+ * by {@code rightParentId} at the position {@code rightIndex}, or appended if no index is given. If both
+ * are set, the left element is removed and the right one is added. Left elements are referenced only via
+ * their id, while right elements are transferred with all their content.
+ */
+@Accessors
+@EqualsHashCode
+@ToString(skipNulls = true)
+class Match {
+	SModelElement left
+	SModelElement right
+	String leftParentId
+	String rightParentId
+	Integer rightIndex
+	
+	new() {}
+	new(Consumer<Match> initializer) {
+		initializer.accept(this)
+	}
 }
 
 /**
@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2017 TypeFox and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.typefox.sprotty.api;
+
+import java.awt.Font;
+import java.awt.font.FontRenderContext;
+import java.awt.font.LineMetrics;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Label measurer that uses the font metrics of AWT, which are available in headless mode. The fonts
+ * must be registered by label type with {@link #setFont(String, Font)} and should match the fonts
+ * configured in the CSS of the client; labels of other types are measured with the
+ * {@linkplain #setDefaultFont(Font) default font}, or not at all if there is none. The width of a text
+ * is the sum of the widths of its characters, which are cached per font, so kerning and ligatures are
+ * ignored. The alignment of measured labels corresponds to left-aligned text whose baseline is
+ * at the label position. This class is thread-safe.
+ *
+ * <p>This measurer is not bound by default, since the fonts depend on the client. In order to use it, bind
+ * a configured instance as {@link ILabelMeasurer} in the Guice module of the diagram language, e.g. in a
+ * {@code configureILabelMeasurer(Binder)} method that overrides the binding of the default diagram module.
+ * A single instance can be shared by all diagram servers.</p>
+ */
+public class AwtLabelMeasurer implements ILabelMeasurer {
+	
+	private static final int CACHED_RANGE = 0x100;
+	
+	private final Map<String, Font> fonts = new ConcurrentHashMap<>();
+	
+	private volatile Font defaultFont;
+	
+	private final Map<Font, GlyphWidths> glyphWidths = new ConcurrentHashMap<>();
+	
+	private final FontRenderContext renderContext = new FontRenderContext(null, true, true);
+	
+	/**
+	 * Set the font for labels of the given type, or {@code null} to use the default font.
+	 */
+	public void setFont(String labelType, Font font) {
+		if (font == null)
+			fonts.remove(labelType);
+		else
+			fonts.put(labelType, font);
+	}
+	
+	/**
+	 * Set the font for labels whose type has no registered font, or {@code null} to skip these labels.
+	 */
+	public void setDefaultFont(Font defaultFont) {
+		this.defaultFont = defaultFont;
+	}
+	
+	/**
+	 * Return the font for the given label, or {@code null} if the label cannot be measured.
+	 */
+	protected Font getFont(SLabel label) {
+		Font font = label.getType() != null ? fonts.get(label.getType()) : null;
+		return font != null ? font : defaultFont;
+	}
+	
+	@Override
+	public boolean measure(SLabel label) {
+		Font font = getFont(label);
+		if (font == null || label.getText() == null)
+			return false;
+		GlyphWidths widths = glyphWidths.computeIfAbsent(font, f -> new GlyphWidths(f, renderContext));
+		if (!widths.isAvailable())
+			return false;
+		String text = label.getText();
+		double width = 0;
+		for (int i = 0; i < text.length(); ) {
+			int codePoint = text.codePointAt(i);
+			width += widths.get(codePoint);
+			i += Character.charCount(codePoint);
+		}
+		LayoutUtil.setSize(label, width, widths.getHeight());
+		Point alignment = label.getAlignment();
+		if (alignment == null || alignment.getX() != 0 || alignment.getY() != widths.getAscent())
+			label.setAlignment(new Point(0, widths.getAscent()));
+		return true;
+	}
+	
+	/**
+	 * The metrics of a font. The widths of the first 256 characters are computed eagerly, the widths
+	 * of all other characters are computed on demand.
+	 */
+	private static class GlyphWidths {
+		
+		private final Font font;
+		
+		private final FontRenderContext renderContext;
+		
+		private final double[] cachedWidths = new double[CACHED_RANGE];
+		
+		private final Map<Integer, Double> otherWidths = new ConcurrentHashMap<>();
+		
+		private double ascent;
+		
+		private double height;
+		
+		private boolean available;
+		
+		GlyphWidths(Font font, FontRenderContext renderContext) {
+			this.font = font;
+			this.renderContext = renderContext;
+			try {
+				LineMetrics lineMetrics = font.getLineMetrics("", renderContext);
+				ascent = lineMetrics.getAscent();
+				height = lineMetrics.getAscent() + lineMetrics.getDescent();
+				for (int c = 0; c < CACHED_RANGE; c++) {
+					cachedWidths[c] = compute(c);
+				}
+				available = true;
+			} catch (RuntimeException | InternalError | LinkageError error) {
+				// The font system is not usable in this environment, e.g. due to missing native libraries
+				available = false;
+			}
+		}
+		
+		private double compute(int codePoint) {
+			return font.getStringBounds(new String(Character.toChars(codePoint)), renderContext).getWidth();
+		}
+		
+		boolean isAvailable() {
+			return available;
+		}
+		
+		double getAscent() {
+			return ascent;
+		}
+		
+		double getHeight() {
+			return height;
+		}
+		
+		double get(int codePoint) {
+			if (codePoint < CACHED_RANGE)
+				return cachedWidths[codePoint];
+			return otherWidths.computeIfAbsent(codePoint, this::compute);
+		}
+	}
+
+}
@@ -0,0 +1,262 @@
+/*
+ * Copyright (C) 2017 TypeFox and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.typefox.sprotty.api;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A cache of the bounds and alignments computed by the client, used by the {@link DefaultDiagramServer}
+ * to avoid {@link RequestBoundsAction}s for model revisions whose elements have been measured before.
+ * The entries are keyed by a content fingerprint of each element, which covers its class, type,
+ * input size, client layout, text or code, and the fingerprints of its children, but not its id.
+ * The position of an element arranged by a client layout depends on its siblings, so the key of such
+ * an element includes the fingerprint of its parent and its index.
+ *
+ * <p>The least recently used entries are evicted when the capacity is exceeded. This class is
+ * thread-safe.</p>
+ */
+public class BoundsCache {
+	
+	public static final int DEFAULT_CAPACITY = 10000;
+	
+	static final long FNV_OFFSET = 0xcbf29ce484222325L;
+	
+	private static final long FNV_PRIME = 0x100000001b3L;
+	
+	private static final int X = 0, Y = 1, WIDTH = 2, HEIGHT = 3, ALIGN_X = 4, ALIGN_Y = 5;
+	
+	private final int capacity;
+	
+	private final Map<Long, double[]> entries;
+	
+	private long hitCount;
+	
+	private long missCount;
+	
+	public BoundsCache() {
+		this(DEFAULT_CAPACITY);
+	}
+	
+	public BoundsCache(int capacity) {
+		if (capacity <= 0)
+			throw new IllegalArgumentException("capacity must be positive");
+		this.capacity = capacity;
+		this.entries = new LinkedHashMap<Long, double[]>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Long, double[]> eldest) {
+				return size() > BoundsCache.this.capacity;
+			}
+		};
+	}
+	
+	/**
+	 * Compute the cache keys of all elements of the given model except the root, indexed by element id.
+	 * The keys must be computed before any bounds are applied to the model, since the input size of
+	 * the elements is part of their fingerprint.
+	 */
+	public Map<String, Long> computeKeys(SModelRoot root) {
+		Map<String, Long> keys = new HashMap<>();
+		computeKeys(root, keys);
+		return keys;
+	}
+	
+	private long computeKeys(SModelElement element, Map<String, Long> keys) {
+		long[] childFingerprints;
+		if (element.getChildren() != null && !element.getChildren().isEmpty()) {
+			childFingerprints = new long[element.getChildren().size()];
+			for (int i = 0; i < childFingerprints.length; i++) {
+				childFingerprints[i] = computeKeys(element.getChildren().get(i), keys);
+			}
+		} else {
+			childFingerprints = new long[0];
+		}
+		long fingerprint = computeFingerprint(element, childFingerprints);
+		boolean clientLayout = isClientLayout(element);
+		for (int i = 0; i < childFingerprints.length; i++) {
+			String childId = element.getChildren().get(i).getId();
+			if (childId != null) {
+				long key = childFingerprints[i];
+				if (clientLayout)
+					key = mix(mix(key, fingerprint), i);
+				keys.put(childId, key);
+			}
+		}
+		return fingerprint;
+	}
+	
+	/**
+	 * Compute the content fingerprint of an element from its own properties and the fingerprints of its
+	 * children. Override this in order to include properties of custom model classes that influence
+	 * the bounds computed by the client.
+	 */
+	protected long computeFingerprint(SModelElement element, long[] childFingerprints) {
+		long hash = FNV_OFFSET;
+		hash = mix(hash, element.getClass().getName());
+		hash = mix(hash, element.getType());
+		if (element instanceof BoundsAware) {
+			Dimension size = ((BoundsAware) element).getSize();
+			if (size != null)
+				hash = mix(mix(hash, Double.doubleToLongBits(size.getWidth())), Double.doubleToLongBits(size.getHeight()));
+		}
+		if (element instanceof Layouting) {
+			Layouting layouting = (Layouting) element;
+			hash = mix(hash, layouting.getLayout());
+			if (layouting.getLayoutOptions() != null)
+				hash = mix(hash, layouting.getLayoutOptions().toString());
+		}
+		if (element instanceof SLabel)
+			hash = mix(hash, ((SLabel) element).getText());
+		else if (element instanceof PreRenderedElement)
+			hash = mix(hash, ((PreRenderedElement) element).getCode());
+		hash = mix(hash, childFingerprints.length);
+		for (long childFingerprint : childFingerprints) {
+			hash = mix(hash, childFingerprint);
+		}
+		return hash;
+	}
+	
+	/**
+	 * Apply the cached bounds and alignments to the elements of the given model. The position of an element
+	 * is applied only if the element is arranged by a client layout or has no position yet, since otherwise
+	 * it has been determined by the server.
+	 *
+	 * @param keys the keys computed for the model with {@link #computeKeys(SModelRoot)}
+	 * @return {@code true} if the bounds of all bounds-aware elements except the root were found in the cache
+	 */
+	public boolean apply(SModelRoot root, Map<String, Long> keys) {
+		return apply(root, keys, null);
+	}
+	
+	/**
+	 * Apply the cached bounds and alignments to the elements of the given model and add the ids of
+	 * the bounds-aware elements that were not found in the cache to {@code missingIds}, if not {@code null}.
+	 *
+	 * @return {@code true} if the bounds of all bounds-aware elements except the root were found in the cache
+	 */
+	public synchronized boolean apply(SModelRoot root, Map<String, Long> keys, Set<String> missingIds) {
+		return apply(root, keys, missingIds, true);
+	}
+	
+	private boolean apply(SModelElement parent, Map<String, Long> keys, Set<String> missingIds, boolean allFound) {
+		if (parent.getChildren() == null)
+			return allFound;
+		boolean clientLayout = isClientLayout(parent);
+		for (SModelElement child : parent.getChildren()) {
+			if (child instanceof BoundsAware) {
+				Long key = keys.get(child.getId());
+				double[] entry = key != null ? entries.get(key) : null;
+				if (entry != null) {
+					hitCount++;
+					BoundsAware boundsAware = (BoundsAware) child;
+					if (clientLayout || boundsAware.getPosition() == null)
+						LayoutUtil.setPosition(boundsAware, entry[X], entry[Y]);
+					LayoutUtil.setSize(boundsAware, entry[WIDTH], entry[HEIGHT]);
+					if (child instanceof Alignable && !Double.isNaN(entry[ALIGN_X]))
+						((Alignable) child).setAlignment(new Point(entry[ALIGN_X], entry[ALIGN_Y]));
+				} else {
+					missCount++;
+					allFound = false;
+					if (missingIds != null && child.getId() != null)
+						missingIds.add(child.getId());
+				}
+			}
+			allFound = apply(child, keys, missingIds, allFound);
+		}
+		return allFound;
+	}
+	
+	/**
+	 * Store the bounds and alignments computed by the client.
+	 *
+	 * @param keys the keys computed for the model revision of the action with {@link #computeKeys(SModelRoot)}
+	 */
+	public synchronized void put(Map<String, Long> keys, ComputedBoundsAction action) {
+		Map<String, double[]> newEntries = new HashMap<>();
+		if (action.getBounds() != null) {
+			for (ElementAndBounds elementAndBounds : action.getBounds()) {
+				Bounds bounds = elementAndBounds.getNewBounds();
+				if (bounds != null && keys.containsKey(elementAndBounds.getElementId())) {
+					double[] entry = new double[6];
+					entry[X] = bounds.getX();
+					entry[Y] = bounds.getY();
+					entry[WIDTH] = bounds.getWidth();
+					entry[HEIGHT] = bounds.getHeight();
+					entry[ALIGN_X] = entry[ALIGN_Y] = Double.NaN;
+					newEntries.put(elementAndBounds.getElementId(), entry);
+				}
+			}
+		}
+		if (action.getAlignments() != null) {
+			for (ElementAndAlignment elementAndAlignment : action.getAlignments()) {
+				double[] entry = newEntries.get(elementAndAlignment.getElementId());
+				Point alignment = elementAndAlignment.getNewAlignment();
+				if (entry != null && alignment != null) {
+					entry[ALIGN_X] = alignment.getX();
+					entry[ALIGN_Y] = alignment.getY();
+				}
+			}
+		}
+		for (Map.Entry<String, double[]> entry : newEntries.entrySet()) {
+			entries.put(keys.get(entry.getKey()), entry.getValue());
+		}
+	}
+	
+	public synchronized void clear() {
+		entries.clear();
+	}
+	
+	public synchronized int size() {
+		return entries.size();
+	}
+	
+	/**
+	 * The number of elements whose bounds were found in the cache.
+	 */
+	public synchronized long getHitCount() {
+		return hitCount;
+	}
+	
+	/**
+	 * The number of elements whose bounds were not found in the cache.
+	 */
+	public synchronized long getMissCount() {
+		return missCount;
+	}
+	
+	private static boolean isClientLayout(SModelElement element) {
+		return element instanceof Layouting && ((Layouting) element).getLayout() != null
+				&& !((Layouting) element).getLayout().isEmpty();
+	}
+	
+	static long mix(long hash, long value) {
+		for (int i = 0; i < 8; i++) {
+			hash = (hash ^ (value & 0xff)) * FNV_PRIME;
+			value >>>= 8;
+		}
+		return hash;
+	}
+	
+	static long mix(long hash, String value) {
+		if (value == null)
+			return mix(hash, -1L);
+		hash = mix(hash, value.length());
+		for (int i = 0; i < value.length(); i++) {
+			hash = (hash ^ value.charAt(i)) * FNV_PRIME;
+		}
+		return hash;
+	}
+	
+	@Override
+	public synchronized String toString() {
+		return "BoundsCache [size=" + entries.size() + ", hitCount=" + hitCount + ", missCount=" + missCount + "]";
+	}
+
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2017 TypeFox and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.typefox.sprotty.api;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Statistics on the bounds computation of a {@link DefaultDiagramServer}, i.e. the {@link RequestBoundsAction}s
+ * sent to the client and the handling of the {@link ComputedBoundsAction}s received in return.
+ */
+public class BoundsStatistics {
+	
+	private final AtomicLong requests = new AtomicLong();
+	
+	private final AtomicLong settledRevisions = new AtomicLong();
+	
+	private final AtomicLong staleMerges = new AtomicLong();
+	
+	private final AtomicLong provisionalSubmits = new AtomicLong();
+	
+	private final AtomicLong confirmedProvisionalSubmits = new AtomicLong();
+	
+	void recordRequest() {
+		requests.incrementAndGet();
+	}
+	
+	void recordSettled() {
+		settledRevisions.incrementAndGet();
+	}
+	
+	void recordStaleMerge() {
+		staleMerges.incrementAndGet();
+	}
+	
+	void recordProvisionalSubmit() {
+		provisionalSubmits.incrementAndGet();
+	}
+	
+	void recordConfirmedProvisionalSubmit() {
+		confirmedProvisionalSubmits.incrementAndGet();
+	}
+	
+	/**
+	 * The number of {@link RequestBoundsAction}s sent to the client.
+	 */
+	public long getRequests() {
+		return requests.get();
+	}
+	
+	/**
+	 * The number of model revisions for which the bounds computed by the client have been applied.
+	 */
+	public long getSettledRevisions() {
+		return settledRevisions.get();
+	}
+	
+	/**
+	 * The number of {@link ComputedBoundsAction}s for superseded revisions that have been merged into
+	 * the current model.
+	 */
+	public long getStaleMerges() {
+		return staleMerges.get();
+	}
+	
+	/**
+	 * The number of model revisions that have been submitted with bounds merged from superseded revisions,
+	 * before the bounds requested for the revision itself arrived.
+	 */
+	public long getProvisionalSubmits() {
+		return provisionalSubmits.get();
+	}
+	
+	/**
+	 * The number of provisional submits whose bounds were confirmed by the client, so the model
+	 * was not submitted again.
+	 */
+	public long getConfirmedProvisionalSubmits() {
+		return confirmedProvisionalSubmits.get();
+	}
+	
+	@Override
+	public String toString() {
+		return "BoundsStatistics [requests=" + getRequests() + ", settledRevisions=" + getSettledRevisions()
+				+ ", staleMerges=" + getStaleMerges() + ", provisionalSubmits=" + getProvisionalSubmits()
+				+ ", confirmedProvisionalSubmits=" + getConfirmedProvisionalSubmits() + "]";
+	}
+
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright (C) 2017 TypeFox and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.typefox.sprotty.api;
+
+import static io.typefox.sprotty.api.BoundsCache.FNV_OFFSET;
+import static io.typefox.sprotty.api.BoundsCache.mix;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import javax.inject.Inject;
+
+/**
+ * A layout engine that reuses the layouts computed by a delegate engine for models with identical content.
+ * This is useful when several clients view the same diagram, e.g. when the diagram generation for their
+ * servers is shared, so the layout is computed only once. Bind a single instance of this class so it is
+ * shared by all diagram servers; it is not used unless bound explicitly.
+ *
+ * <p><b>Memory:</b> each cached layout is a complete copy of the laid out model, which is not counted by
+ * {@link DiagramServerHibernator}, so choose the capacity according to the size of your models. If the
+ * delegate engine has its own layout cache, e.g. the {@code LayoutCache} of the ELK layout engine, consider
+ * disabling one of them, since they would hold the same layouts twice.</p>
+ *
+ * <p>The layouts are keyed by a fingerprint of the model, which covers the class, type, id, position, size,
+ * alignment, client layout options, and edge connections and routing points of all elements. Models that are
+ * laid out concurrently with the same fingerprint wait for a single layout computation. The least recently used
+ * layouts are evicted when the capacity is exceeded. Layouts that are cancelled by interrupting the computing
+ * thread are not stored. This class is thread-safe.</p>
+ */
+public class CachingLayoutEngine implements ILayoutEngine {
+	
+	public static final int DEFAULT_CAPACITY = 16;
+	
+	private final ILayoutEngine delegate;
+	
+	private final int capacity;
+	
+	private final Map<Long, SModelIndex> layouts;
+	
+	private final Map<Long, FutureTask<SModelIndex>> pendingLayouts = new HashMap<>();
+	
+	private long hitCount;
+	
+	private long missCount;
+	
+	@Inject
+	public CachingLayoutEngine(ILayoutEngine delegate) {
+		this(delegate, DEFAULT_CAPACITY);
+	}
+	
+	public CachingLayoutEngine(ILayoutEngine delegate, int capacity) {
+		if (delegate == null)
+			throw new NullPointerException();
+		if (capacity <= 0)
+			throw new IllegalArgumentException("capacity must be positive");
+		this.delegate = delegate;
+		this.capacity = capacity;
+		this.layouts = new LinkedHashMap<Long, SModelIndex>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Long, SModelIndex> eldest) {
+				return size() > CachingLayoutEngine.this.capacity;
+			}
+		};
+	}
+	
+	@Override
+	public void layout(SModelRoot root) {
+		layout(root, null);
+	}
+	
+	/**
+	 * The layouts are shared between all diagram keys; the key is passed to the delegate engine when
+	 * it computes a layout.
+	 */
+	@Override
+	public void layout(SModelRoot root, String diagramKey) {
+		long key = computeFingerprint(root);
+		SModelIndex layout;
+		FutureTask<SModelIndex> task;
+		boolean computeLayout = false;
+		synchronized (this) {
+			layout = layouts.get(key);
+			task = pendingLayouts.get(key);
+			if (layout != null || task != null) {
+				hitCount++;
+			} else {
+				missCount++;
+				// The layout is stored as a copy, since the given model may be modified afterwards
+				task = new FutureTask<>(() -> {
+					delegate.layout(root, diagramKey);
+					// A cancelled layout may be incomplete, since layout engines return early when interrupted
+					if (Thread.currentThread().isInterrupted())
+						return null;
+					return new SModelIndex(LayoutUtil.copyModel(root));
+				});
+				pendingLayouts.put(key, task);
+				computeLayout = true;
+			}
+		}
+		if (computeLayout) {
+			task.run();
+			synchronized (this) {
+				pendingLayouts.remove(key);
+			}
+			try {
+				layout = task.get();
+			} catch (InterruptedException exception) {
+				Thread.currentThread().interrupt();
+				return;
+			} catch (ExecutionException exception) {
+				Throwable cause = exception.getCause();
+				if (cause instanceof RuntimeException)
+					throw (RuntimeException) cause;
+				if (cause instanceof Error)
+					throw (Error) cause;
+				throw new RuntimeException(cause);
+			}
+			if (layout != null) {
+				synchronized (this) {
+					layouts.put(key, layout);
+				}
+			}
+			// The given model has been laid out by the delegate
+			return;
+		}
+		if (layout == null) {
+			try {
+				layout = task.get();
+			} catch (InterruptedException exception) {
+				Thread.currentThread().interrupt();
+				return;
+			} catch (ExecutionException exception) {
+				// The failure is reported to the thread that computed the layout; try again for this model
+				delegate.layout(root, diagramKey);
+				return;
+			}
+			if (layout == null) {
+				// The layout has been cancelled
+				delegate.layout(root, diagramKey);
+				return;
+			}
+		}
+		LayoutUtil.copyLayoutData(layout, root);
+	}
+	
+	/**
+	 * Compute the fingerprint of the given model element and its children. Override this in order to
+	 * include further properties that influence the layout computed by the delegate engine.
+	 */
+	protected long computeFingerprint(SModelElement element) {
+		long hash = FNV_OFFSET;
+		hash = mix(hash, element.getClass().getName());
+		hash = mix(hash, element.getType());
+		hash = mix(hash, element.getId());
+		if (element instanceof BoundsAware) {
+			BoundsAware boundsAware = (BoundsAware) element;
+			if (boundsAware.getPosition() != null)
+				hash = mixPoint(hash, boundsAware.getPosition());
+			if (boundsAware.getSize() != null) {
+				hash = mix(hash, Double.doubleToLongBits(boundsAware.getSize().getWidth()));
+				hash = mix(hash, Double.doubleToLongBits(boundsAware.getSize().getHeight()));
+			}
+		}
+		if (element instanceof Alignable && ((Alignable) element).getAlignment() != null)
+			hash = mixPoint(hash, ((Alignable) element).getAlignment());
+		if (element instanceof Layouting) {
+			Layouting layouting = (Layouting) element;
+			hash = mix(hash, layouting.getLayout());
+			if (layouting.getLayoutOptions() != null)
+				hash = mix(hash, layouting.getLayoutOptions().toString());
+		}
+		if (element instanceof SEdge) {
+			SEdge edge = (SEdge) element;
+			hash = mix(hash, edge.getSourceId());
+			hash = mix(hash, edge.getTargetId());
+			if (edge.getRoutingPoints() != null) {
+				hash = mix(hash, edge.getRoutingPoints().size());
+				for (Point p : edge.getRoutingPoints()) {
+					hash = mixPoint(hash, p);
+				}
+			}
+		}
+		if (element.getChildren() != null) {
+			hash = mix(hash, element.getChildren().size());
+			for (SModelElement child : element.getChildren()) {
+				hash = mix(hash, computeFingerprint(child));
+			}
+		}
+		return hash;
+	}
+	
+	private static long mixPoint(long hash, Point point) {
+		return mix(mix(hash, Double.doubleToLongBits(point.getX())), Double.doubleToLongBits(point.getY()));
+	}
+	
+	public synchronized void clear() {
+		layouts.clear();
+	}
+	
+	/**
+	 * The number of layouts that have been reused.
+	 */
+	public synchronized long getHitCount() {
+		return hitCount;
+	}
+	
+	/**
+	 * The number of layouts that have been computed by the delegate engine.
+	 */
+	public synchronized long getMissCount() {
+		return missCount;
+	}
+	
+	@Override
+	public synchronized String toString() {
+		return "CachingLayoutEngine [size=" + layouts.size() + ", hitCount=" + hitCount + ", missCount=" + missCount + "]";
+	}
+
+}
@@ -6,10 +6,27 @@
  */
 package io.typefox.sprotty.api;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
 
 import javax.inject.Inject;
@@ -17,14 +34,39 @@ import javax.inject.Inject;
 /**
  * The default diagram server implementation. It realizes the same message protocol as the
  * TypeScript class {@code LocalModelSource}.
+ * 
+ * <p>Received actions and submitted models are processed on the {@linkplain #setMessageExecutor(Executor)
+ * message executor} of the server, which runs one task at a time, so handlers are never run concurrently.
+ * The model is still guarded by a lock, since new models are usually set by other threads, e.g. by a diagram
+ * generator calling {@link #updateModel(SModelRoot)}, and server layouts are computed on the
+ * {@linkplain #setLayoutExecutor(Executor) layout executor}. The lock is held only while the model, its index
+ * and the bookkeeping of bounds and layouts are read or replaced; layouts, the computation of model differences
+ * and listeners run without holding it. The state received from the client is published
+ * as immutable snapshots (see {@link #getDiagramState()}), which can be handed to other threads, e.g. for
+ * generating diagrams. Exceptions thrown by handlers are reported to the client with
+ * {@link #handleActionError(Action, Throwable)}.</p>
  */
 public class DefaultDiagramServer implements IDiagramServer {
 	
+	private static final long ELEMENT_SIZE = 64;
+	
+	private static final long STRING_SIZE = 56;
+	
+	private static final long GEOMETRY_SIZE = 32;
+	
+	private static final long LIST_SIZE = 40;
+	
+	private static final long REFERENCE_SIZE = 8;
+	
 	private String clientId;
 	
-	private SModelRoot currentRoot;
+	private volatile SModelRoot currentRoot;
+	
+	private volatile SModelIndex currentIndex;
 	
-	private Map<String, String> options;
+	private volatile Map<String, String> options = Collections.synchronizedMap(new LinkedHashMap<>());
+	
+	private final AtomicReference<ClientState> clientState = new AtomicReference<>(ClientState.INITIAL);
 	
 	private Consumer<ActionMessage> remoteEndpoint;
 	
@@ -34,6 +76,8 @@ public class DefaultDiagramServer implements IDiagramServer {
 	
 	private IPopupModelFactory popupModelFactory;
 	
+	private ILabelMeasurer labelMeasurer;
+	
 	private IDiagramSelectionListener diagramSelectionListener;
 
 	private IDiagramExpansionListener diagramExpansionListener;
@@ -44,9 +88,6 @@ public class DefaultDiagramServer implements IDiagramServer {
 	
 	private boolean needsServerLayout = false;
 	
-	private Set<String> expandedElements = new HashSet<>();
-
-	private Set<String> selectedElements = new HashSet<>();
 	
 	private Object modelLock = new Object();
 
@@ -56,6 +97,45 @@ public class DefaultDiagramServer implements IDiagramServer {
 	
 	private String lastSubmittedModelType;
 	
+	private SModelRoot lastSubmittedModel;
+	
+	private boolean sendModelDiffs = true;
+	
+	private ModelMatcher modelMatcher = new ModelMatcher();
+	
+	private Executor layoutExecutor = DefaultLayoutExecutor.INSTANCE;
+	
+	private Future<?> pendingLayout;
+	
+	/**
+	 * The number of layout computations that may still modify each model, including cancelled layouts
+	 * that have not stopped yet. Guarded by {@code modelLock}.
+	 */
+	private final Map<SModelRoot, Integer> layoutsInProgress = new IdentityHashMap<>();
+	
+	private Executor messageExecutor = new SerialExecutor(DefaultMessageExecutor.INSTANCE);
+	
+	private volatile long lastActivityTime = System.currentTimeMillis();
+	
+	private volatile boolean hibernated;
+	
+	private volatile CompletableFuture<?> pendingRestoration;
+	
+	/** Actions received while the model is restored, confined to the message executor */
+	private final List<Action> deferredActions = new ArrayList<>();
+	
+	private long retainedSizeEstimate = -1;
+	
+	private BoundsCache boundsCache;
+	
+	private final Map<Integer, BoundsState> boundsStates = new LinkedHashMap<>();
+	
+	private int maxStaleRevisions = 0;
+	
+	private int boundsRequestCount;
+	
+	private final BoundsStatistics boundsStatistics = new BoundsStatistics();
+	
 	public DefaultDiagramServer() {
 		currentRoot = new SModelRoot();
 		currentRoot.setType("NONE");
@@ -67,9 +147,21 @@ public class DefaultDiagramServer implements IDiagramServer {
 		this.clientId = clientId;
 	}
 	
+	/**
+	 * Return an immutable snapshot of the current diagram state. The snapshot is not affected by subsequent
+	 * actions of the client, and its {@linkplain IDiagramState#getVersion() version} tells whether the state
+	 * has changed in the meantime.
+	 */
 	@Override
 	public IDiagramState getDiagramState() {
-		return new DefaultDiagramState(this);
+		Map<String, String> currentOptions = options;
+		Map<String, String> optionsCopy;
+		synchronized (currentOptions) {
+			optionsCopy = new LinkedHashMap<>(currentOptions);
+		}
+		ClientState state = clientState.get();
+		return new DefaultDiagramState(getClientId(), getModel(), Collections.unmodifiableMap(optionsCopy),
+				state.expandedElements, state.selectedElements, state.version);
 	}
 
 	@Override
@@ -118,6 +210,15 @@ public class DefaultDiagramServer implements IDiagramServer {
 		this.popupModelFactory = factory;
 	}
 	
+	protected ILabelMeasurer getLabelMeasurer() {
+		return labelMeasurer;
+	}
+	
+	@Inject
+	public void setLabelMeasurer(ILabelMeasurer measurer) {
+		this.labelMeasurer = measurer;
+	}
+	
 	protected IDiagramSelectionListener getSelectionListener() {
 		return diagramSelectionListener;
 	}
@@ -158,15 +259,39 @@ public class DefaultDiagramServer implements IDiagramServer {
 		return currentRoot;
 	}
 	
+	/**
+	 * The index of the current model. It is built once per model revision and reused until the model
+	 * is replaced or updated. Applying computed bounds does not change the model structure, so the index
+	 * remains valid in that case. Once built, the index is returned without locking.
+	 */
+	@Override
+	public SModelIndex getModelIndex() {
+		SModelIndex index = currentIndex;
+		if (index != null)
+			return index;
+		synchronized(modelLock) {
+			if (currentIndex == null) {
+				currentIndex = new SModelIndex(currentRoot);
+			}
+			return currentIndex;
+		}
+	}
+	
 	@Override
 	public void setModel(SModelRoot newRoot) {
 		if (newRoot == null)
 			throw new NullPointerException();
 		synchronized(modelLock) {
+			Map<String, Long> keys = computeBoundsCacheKeys(newRoot);
 			newRoot.setRevision(++revision);
+			resetBoundsState(keys, revision);
 			currentRoot = newRoot;
+			currentIndex = null;
+			retainedSizeEstimate = -1;
+			hibernated = false;
+			cancelPendingLayout();
 		}
-		submitModel(newRoot, false);
+		runOnMessageExecutor(() -> submitModel(newRoot, false));
 	}
 	
 	@Override
@@ -175,15 +300,136 @@ public class DefaultDiagramServer implements IDiagramServer {
 			if (newRoot == null) {
 				// Assume that the current model has been modified in-place
 				newRoot = currentRoot;
-			} else {
+			}
+			// The layout of the previous revision is obsolete, but it may keep running until it checks for interruption
+			cancelPendingLayout();
+			// The keys must be computed before layout data of the previous revision is copied
+			Map<String, Long> keys = computeBoundsCacheKeys(newRoot);
+			if (newRoot != currentRoot) {
 				if (needsServerLayout(newRoot)) {
-					LayoutUtil.copyLayoutData(currentRoot, newRoot);
+					copyLayoutData(newRoot);
 				}
 				currentRoot = newRoot;
 			}
+			currentIndex = null;
+			retainedSizeEstimate = -1;
+			hibernated = false;
 			newRoot.setRevision(++revision);
+			resetBoundsState(keys, revision);
+		}
+		SModelRoot submittedRoot = newRoot;
+		runOnMessageExecutor(() -> submitModel(submittedRoot, true));
+	}
+	
+	/**
+	 * Copy the layout data of the previous revision into the given model. If a layout may still be writing
+	 * into the current model, the data are copied from the last model sent to the client instead, which is
+	 * not modified anymore. If neither model is safe to read, nothing is copied.
+	 */
+	private void copyLayoutData(SModelRoot newRoot) {
+		if (!layoutsInProgress.containsKey(currentRoot)) {
+			LayoutUtil.copyLayoutData(getModelIndex(), newRoot);
+		} else if (lastSubmittedModel != null && !layoutsInProgress.containsKey(lastSubmittedModel)) {
+			LayoutUtil.copyLayoutData(new SModelIndex(lastSubmittedModel), newRoot);
+		}
+	}
+	
+	/**
+	 * The time in milliseconds when the last action was received from the client, or when this server was
+	 * created if no action has been received yet. Setting or updating the model does not count as activity,
+	 * so a server whose diagram is only regenerated because its source has changed still becomes idle.
+	 */
+	public long getLastActivityTime() {
+		return lastActivityTime;
+	}
+	
+	public boolean isHibernated() {
+		return hibernated;
+	}
+	
+	/**
+	 * Drop the current model in order to free memory while the client is idle. The model is replaced by
+	 * an empty placeholder of type {@code NONE}, as before the first model was set, and
+	 * {@link #restoreModel(Action)} is called when the next action is received from the client. Returns
+	 * {@code false} if the server cannot be hibernated because a layout or the restoration of the model
+	 * is pending or there are unhandled messages. Setting or updating the model also ends the hibernation,
+	 * so diagram generators should skip hibernated servers and let them regenerate the model when needed.
+	 */
+	public boolean hibernate() {
+		synchronized (modelLock) {
+			if (hibernated)
+				return true;
+			if (pendingLayout != null || pendingRestoration != null || messageExecutor instanceof SerialExecutor
+					&& ((SerialExecutor) messageExecutor).hasPendingTasks())
+				return false;
+			SModelRoot placeholder = new SModelRoot();
+			placeholder.setType("NONE");
+			placeholder.setId("ROOT");
+			currentRoot = placeholder;
+			currentIndex = null;
+			lastSubmittedModel = null;
+			boundsStates.clear();
+			retainedSizeEstimate = -1;
+			hibernated = true;
+			return true;
 		}
-		submitModel(newRoot, true);
+	}
+	
+	/**
+	 * Called on the message executor when an action is received while the server is hibernated. Override
+	 * this in order to regenerate the model, e.g. by calling {@link #updateModel(SModelRoot)}. If the model
+	 * is restored asynchronously, return a future that completes after the restored model has been set;
+	 * the given action and all further actions are then deferred until the future is completed, either
+	 * normally or exceptionally. Otherwise return {@code null}, and the action is handled after this method
+	 * returns. The default implementation does nothing and returns {@code null}, so the model remains empty
+	 * until a new model is set.
+	 */
+	protected CompletableFuture<?> restoreModel(Action action) {
+		return null;
+	}
+	
+	/**
+	 * An estimate of the memory in bytes retained by the current model. The estimate is
+	 * computed once per model revision.
+	 */
+	public long getRetainedSizeEstimate() {
+		synchronized (modelLock) {
+			if (retainedSizeEstimate < 0)
+				retainedSizeEstimate = estimateRetainedSize(currentRoot);
+			return retainedSizeEstimate;
+		}
+	}
+	
+	/**
+	 * Estimate the memory in bytes retained by the given model. The default implementation accounts for the
+	 * properties of the standard model classes with typical object sizes of a 64 bit JVM.
+	 */
+	protected long estimateRetainedSize(SModelElement element) {
+		long size = ELEMENT_SIZE + estimateSize(element.getType()) + estimateSize(element.getId());
+		if (element instanceof BoundsAware) {
+			BoundsAware boundsAware = (BoundsAware) element;
+			if (boundsAware.getPosition() != null)
+				size += GEOMETRY_SIZE;
+			if (boundsAware.getSize() != null)
+				size += GEOMETRY_SIZE;
+		}
+		if (element instanceof SLabel)
+			size += estimateSize(((SLabel) element).getText());
+		else if (element instanceof SEdge && ((SEdge) element).getRoutingPoints() != null)
+			size += LIST_SIZE + (GEOMETRY_SIZE + REFERENCE_SIZE) * ((SEdge) element).getRoutingPoints().size();
+		else if (element instanceof PreRenderedElement)
+			size += estimateSize(((PreRenderedElement) element).getCode());
+		if (element.getChildren() != null) {
+			size += LIST_SIZE + REFERENCE_SIZE * element.getChildren().size();
+			for (SModelElement child : element.getChildren()) {
+				size += estimateRetainedSize(child);
+			}
+		}
+		return size;
+	}
+	
+	private static long estimateSize(String string) {
+		return string != null ? STRING_SIZE + 2 * string.length() : 0;
 	}
 	
 	public ServerStatus getStatus() {
@@ -195,16 +441,41 @@ public class DefaultDiagramServer implements IDiagramServer {
 		dispatch(new ServerStatusAction(status));
 	}
 	
+	/**
+	 * The options received from the client with the last {@link RequestModelAction}. The returned map
+	 * may be modified; such modifications do not change the {@linkplain IDiagramState#getVersion() version}
+	 * of the diagram state. Use {@link #getDiagramState()} to obtain a copy that can be handed to other threads.
+	 */
 	@Override
 	public Map<String, String> getOptions() {
-		if (options == null) {
-			options = new LinkedHashMap<>();
-		}
 		return options;
 	}
 	
 	protected void setOptions(Map<String, String> options) {
-		this.options = new LinkedHashMap<>(options);
+		this.options = Collections.synchronizedMap(new LinkedHashMap<>(options));
+		clientState.updateAndGet(ClientState::withNextVersion);
+	}
+	
+	/**
+	 * Replace the set of selected elements with a modified copy and publish it in a new state snapshot.
+	 */
+	protected void updateSelectedElements(Consumer<Set<String>> update) {
+		clientState.updateAndGet(state -> {
+			Set<String> selectedElements = new HashSet<>(state.selectedElements);
+			update.accept(selectedElements);
+			return state.withSelectedElements(selectedElements);
+		});
+	}
+	
+	/**
+	 * Replace the set of expanded elements with a modified copy and publish it in a new state snapshot.
+	 */
+	protected void updateExpandedElements(Consumer<Set<String>> update) {
+		clientState.updateAndGet(state -> {
+			Set<String> expandedElements = new HashSet<>(state.expandedElements);
+			update.accept(expandedElements);
+			return state.withExpandedElements(expandedElements);
+		});
 	}
 	
 	/**
@@ -241,78 +512,479 @@ public class DefaultDiagramServer implements IDiagramServer {
 	}
 	
 	/**
-	 * Submit a new or updated model to the client. If client layout is required, a {@link RequestBoundsAction}
-	 * is sent, otherwise either a {@link SetModelAction} or an {@link UpdateModelAction} is sent depending on
-	 * the {@code update} parameter.
+	 * Whether model updates should be sent to the client as differences to the previously submitted model.
+	 * If this is {@code true}, the {@link UpdateModelAction} contains a list of {@link Match}es computed with
+	 * the {@link ModelMatcher} instead of the whole model, unless the differences are not smaller than
+	 * the model itself.
+	 * 
+	 * <p>The default implementation returns the value configured with {@link #setSendModelDiffs(boolean)},
+	 * but this can be overridden to determine the value depending on the given model. The initial value
+	 * is {@code true}.</p>
+	 */
+	protected boolean sendModelDiffs(SModelRoot root) {
+		return sendModelDiffs;
+	}
+	
+	public void setSendModelDiffs(boolean value) {
+		this.sendModelDiffs = value;
+	}
+	
+	protected ModelMatcher getModelMatcher() {
+		return modelMatcher;
+	}
+	
+	public void setModelMatcher(ModelMatcher modelMatcher) {
+		this.modelMatcher = modelMatcher;
+	}
+	
+	protected Executor getLayoutExecutor() {
+		return layoutExecutor;
+	}
+	
+	/**
+	 * Set the executor on which server layouts are computed. The default executor is shared by all diagram
+	 * servers and uses one daemon thread per available processor. If {@code null} is given, layouts are
+	 * computed synchronously on the thread that submits the model.
+	 */
+	public void setLayoutExecutor(Executor layoutExecutor) {
+		this.layoutExecutor = layoutExecutor;
+	}
+	
+	protected BoundsCache getBoundsCache() {
+		return boundsCache;
+	}
+	
+	/**
+	 * Set a cache for the bounds computed by the client, or {@code null} to disable caching. If a cache is
+	 * configured, the bounds and alignments received with {@link ComputedBoundsAction}s are stored in the cache
+	 * and applied to the elements of subsequent model revisions with the same content, and no
+	 * {@link RequestBoundsAction} is sent if the bounds of all elements are found in the cache. A cache can be
+	 * shared by diagram servers whose clients render the model with the same styles. The default is {@code null}.
+	 */
+	public void setBoundsCache(BoundsCache boundsCache) {
+		this.boundsCache = boundsCache;
+	}
+	
+	private Map<String, Long> computeBoundsCacheKeys(SModelRoot newRoot) {
+		BoundsCache cache = getBoundsCache();
+		if (cache != null && needsClientLayout(newRoot))
+			return cache.computeKeys(newRoot);
+		return null;
+	}
+	
+	private void resetBoundsState(Map<String, Long> keys, int revision) {
+		boundsStates.put(revision, new BoundsState(revision, keys));
+		// Keep the states of the revisions whose computed bounds may still be merged
+		Iterator<BoundsState> iterator = boundsStates.values().iterator();
+		while (boundsStates.size() > Math.max(getMaxStaleRevisions(), 0) + 1) {
+			iterator.next();
+			iterator.remove();
+		}
+	}
+	
+	private BoundsState getBoundsState(int revision) {
+		synchronized (modelLock) {
+			return boundsStates.get(revision);
+		}
+	}
+	
+	protected int getMaxStaleRevisions() {
+		return maxStaleRevisions;
+	}
+	
+	/**
+	 * Set how many revisions a {@link ComputedBoundsAction} may lag behind the current model so that its bounds
+	 * are still merged into the current model (see {@link #mergeStaleBounds(SModelRoot, ComputedBoundsAction)}).
+	 * This lets the diagram make progress while the model is updated faster than the client computes bounds.
+	 * The default is 0, which means that bounds computed for superseded revisions are discarded.
+	 */
+	public void setMaxStaleRevisions(int maxStaleRevisions) {
+		if (maxStaleRevisions < 0)
+			throw new IllegalArgumentException("maxStaleRevisions must not be negative");
+		this.maxStaleRevisions = maxStaleRevisions;
+	}
+	
+	/**
+	 * Return the statistics on the bounds computed by the client for this server.
+	 */
+	public BoundsStatistics getBoundsStatistics() {
+		return boundsStatistics;
+	}
+	
+	protected Executor getMessageExecutor() {
+		return messageExecutor;
+	}
+	
+	/**
+	 * Set the executor on which received actions are handled and submitted models are sent to the client.
+	 * The executor must run its tasks one at a time and in submission order, e.g. a {@link SerialExecutor}.
+	 * The default is a serial executor for this server on a thread pool shared by all servers. If {@code null}
+	 * is given, actions and models are processed on the calling thread, in which case concurrent calls are
+	 * not serialized.
+	 */
+	public void setMessageExecutor(Executor messageExecutor) {
+		this.messageExecutor = messageExecutor;
+	}
+	
+	private void runOnMessageExecutor(Runnable task) {
+		Executor executor = getMessageExecutor();
+		if (executor == null)
+			task.run();
+		else
+			executor.execute(task);
+	}
+	
+	/**
+	 * Submit a new or updated model to the client. If client layout is required and the bounds are neither
+	 * found in the {@linkplain #setBoundsCache(BoundsCache) bounds cache} nor computed on the server,
+	 * a {@link RequestBoundsAction} is sent, otherwise either a {@link SetModelAction}
+	 * or an {@link UpdateModelAction} is sent depending on the {@code update} parameter.
 	 */
 	protected void submitModel(SModelRoot newRoot, boolean update) {
-		if (needsClientLayout(newRoot)) {
-			dispatch(new RequestBoundsAction(newRoot));
-			IModelUpdateListener listener = getModelUpdateListener();
-			if (!needsServerLayout(newRoot) && listener != null) {
-				// In this case the client won't send us the computed bounds, so we trigger the listener immediately
-				listener.modelSubmitted(newRoot, this);
+		if (needsClientLayout(newRoot) && !applyCachedBounds(newRoot) && !computeBoundsOnServer(newRoot)) {
+			if (needsServerLayout(newRoot)) {
+				synchronized (modelLock) {
+					boundsRequestCount++;
+				}
+			}
+			boundsStatistics.recordRequest();
+			dispatch(new RequestBoundsAction(createBoundsRequestModel(newRoot)));
+			if (!needsServerLayout(newRoot)) {
+				// The client updates its model without a further message from us, so we cannot compute differences
+				synchronized (modelLock) {
+					lastSubmittedModel = null;
+				}
+				IModelUpdateListener listener = getModelUpdateListener();
+				if (listener != null) {
+					// In this case the client won't send us the computed bounds, so we trigger the listener immediately
+					listener.modelSubmitted(newRoot, this);
+				}
 			}
 		} else {
 			doSubmitModel(newRoot, update);
 		}
 	}
 	
-	private void doSubmitModel(SModelRoot newRoot, boolean update) {
-		if (needsServerLayout(newRoot)) {
-			ILayoutEngine layoutEngine = getLayoutEngine();
-			if (layoutEngine != null) {
-				layoutEngine.layout(newRoot);
-			}
+	/**
+	 * Apply the bounds found in the {@linkplain #setBoundsCache(BoundsCache) bounds cache} to the given model.
+	 * Returns {@code true} if the bounds of all elements have been found, so they need not be requested from
+	 * the client.
+	 */
+	protected boolean applyCachedBounds(SModelRoot root) {
+		BoundsCache cache = getBoundsCache();
+		if (cache == null)
+			return false;
+		BoundsState state = getBoundsState(root.getRevision());
+		if (state == null || state.cacheKeys == null)
+			return false;
+		Set<String> missingIds = new HashSet<>();
+		boolean allFound = cache.apply(root, state.cacheKeys, missingIds);
+		synchronized (modelLock) {
+			state.cacheMisses = missingIds;
 		}
+		return allFound;
+	}
+	
+	/**
+	 * Create the model to send to the client with a {@link RequestBoundsAction}. If the bounds of only some
+	 * elements are missing from the {@linkplain #setBoundsCache(BoundsCache) bounds cache}, a partial model
+	 * containing the subtrees of these elements is created with
+	 * {@link LayoutUtil#createPartialModel(SModelRoot, Set, Set)}, and the computed bounds are later merged into
+	 * the full model. This requires server layout, since otherwise the client would replace its model with
+	 * the partial one. In all other cases the whole model is returned.
+	 */
+	protected SModelRoot createBoundsRequestModel(SModelRoot root) {
+		BoundsState state = getBoundsState(root.getRevision());
+		if (state == null || state.cacheMisses == null || state.cacheMisses.isEmpty() || !needsServerLayout(root))
+			return root;
+		Set<String> includedIds = new HashSet<>();
+		SModelRoot partialRoot = LayoutUtil.createPartialModel(root, state.cacheMisses, includedIds);
 		synchronized (modelLock) {
-			if (newRoot.getRevision() == revision) {
-				String modelType = newRoot.getType();
-				if (update && modelType != null && modelType.equals(lastSubmittedModelType)) {
-					dispatch(new UpdateModelAction(newRoot));
-				} else {
-					dispatch(new SetModelAction(newRoot));
+			state.requestedElements = partialRoot != root ? includedIds : null;
+		}
+		return partialRoot;
+	}
+	
+	/**
+	 * Compute the bounds that would otherwise be requested from the client. The default implementation
+	 * measures all labels with the {@linkplain #setLabelMeasurer(ILabelMeasurer) label measurer} and returns
+	 * {@code true} if all of them could be measured, no element is arranged by a client layout (see
+	 * {@link Layouting}), and all other bounds-aware elements already have a size. Otherwise the bounds must
+	 * be computed by the client, and the model is left unchanged.
+	 */
+	protected boolean computeBoundsOnServer(SModelRoot root) {
+		ILabelMeasurer measurer = getLabelMeasurer();
+		if (measurer == null)
+			return false;
+		// Check the whole model before measuring, so labels are not modified if the client computes the bounds
+		List<SLabel> labels = new ArrayList<>();
+		if (!collectLabelsToMeasure(root, root, labels))
+			return false;
+		Dimension[] sizes = new Dimension[labels.size()];
+		Point[] alignments = new Point[labels.size()];
+		for (int i = 0; i < labels.size(); i++) {
+			SLabel label = labels.get(i);
+			sizes[i] = label.getSize();
+			alignments[i] = label.getAlignment();
+			if (!measurer.measure(label)) {
+				// Geometry instances are not modified in-place, so the previous values can be restored
+				for (int j = 0; j <= i; j++) {
+					labels.get(j).setSize(sizes[j]);
+					labels.get(j).setAlignment(alignments[j]);
 				}
-				lastSubmittedModelType = modelType;
-				IModelUpdateListener listener = getModelUpdateListener();
-				if (listener != null) {
-					listener.modelSubmitted(newRoot, this);
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	private boolean collectLabelsToMeasure(SModelElement element, SModelRoot root, List<SLabel> labels) {
+		if (element instanceof SLabel) {
+			labels.add((SLabel) element);
+		} else if (element instanceof Layouting && ((Layouting) element).getLayout() != null
+				&& !((Layouting) element).getLayout().isEmpty()) {
+			return false;
+		} else if (element instanceof BoundsAware && element != root && ((BoundsAware) element).getSize() == null) {
+			return false;
+		}
+		if (element.getChildren() != null) {
+			for (SModelElement child : element.getChildren()) {
+				if (!collectLabelsToMeasure(child, root, labels))
+					return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Compute the server layout of the given model, if required, and send it to the client. The layout is
+	 * computed on the {@linkplain #setLayoutExecutor(Executor) layout executor}, so this method returns
+	 * before the model is sent. The result is handed back to the {@linkplain #setMessageExecutor(Executor)
+	 * message executor} for sending it. A layout that is still running when a newer model revision arrives
+	 * is cancelled.
+	 */
+	private void doSubmitModel(SModelRoot newRoot, boolean update) {
+		ILayoutEngine layoutEngine = getLayoutEngine();
+		if (layoutEngine != null && needsServerLayout(newRoot)) {
+			Executor executor = getLayoutExecutor();
+			if (executor == null) {
+				layout(layoutEngine, newRoot);
+				completeSubmitModel(newRoot, update);
+			} else {
+				synchronized (modelLock) {
+					cancelPendingLayout();
+					LayoutTask task = new LayoutTask(layoutEngine, newRoot, update);
+					// The model is registered before the task is started, so it cannot be read while the task starts
+					layoutsInProgress.merge(newRoot, 1, Integer::sum);
+					pendingLayout = task;
+					try {
+						executor.execute(task);
+					} catch (RuntimeException exception) {
+						pendingLayout = null;
+						layoutFinished(newRoot);
+						throw exception;
+					}
 				}
 			}
+		} else {
+			completeSubmitModel(newRoot, update);
 		}
 	}
 	
+	/**
+	 * Send the given model to the client unless it has been superseded. This runs on the message executor,
+	 * so models are sent in order even though the differences are computed without holding the model lock.
+	 */
+	private void completeSubmitModel(SModelRoot newRoot, boolean update) {
+		SModelRoot oldRoot;
+		boolean sendUpdate;
+		synchronized (modelLock) {
+			if (newRoot.getRevision() != revision)
+				return;
+			String modelType = newRoot.getType();
+			sendUpdate = update && modelType != null && modelType.equals(lastSubmittedModelType);
+			oldRoot = lastSubmittedModel;
+			lastSubmittedModelType = modelType;
+			// The bounds of a provisionally submitted model are modified when the requested bounds arrive,
+			// so a copy is kept for computing the differences to the final model
+			BoundsState state = boundsStates.get(newRoot.getRevision());
+			lastSubmittedModel = state != null && state.provisional ? LayoutUtil.copyModel(newRoot) : newRoot;
+		}
+		if (sendUpdate) {
+			dispatch(createUpdateModelAction(oldRoot, newRoot));
+		} else {
+			dispatch(new SetModelAction(newRoot));
+		}
+		IModelUpdateListener listener = getModelUpdateListener();
+		if (listener != null) {
+			listener.modelSubmitted(newRoot, this);
+		}
+	}
+	
+	/**
+	 * Cancel the layout computation that is currently running or waiting, if any. The thread running
+	 * the layout is interrupted, and its result is discarded.
+	 */
+	protected void cancelPendingLayout() {
+		synchronized (modelLock) {
+			if (pendingLayout != null) {
+				pendingLayout.cancel(true);
+				pendingLayout = null;
+			}
+		}
+	}
+	
+	/**
+	 * Compute the layout of the given model while it is registered as being modified by a layout.
+	 */
+	private void layout(ILayoutEngine layoutEngine, SModelRoot root) {
+		synchronized (modelLock) {
+			layoutsInProgress.merge(root, 1, Integer::sum);
+		}
+		try {
+			layoutEngine.layout(root, getClientId());
+		} finally {
+			layoutFinished(root);
+		}
+	}
+	
+	private void layoutFinished(SModelRoot root) {
+		synchronized (modelLock) {
+			layoutsInProgress.computeIfPresent(root, (r, count) -> count > 1 ? count - 1 : null);
+		}
+	}
+	
+	/**
+	 * Called when the server layout of a model has failed. The default implementation reports the error
+	 * to the client with a {@link ServerStatusAction}.
+	 */
+	protected void handleLayoutError(SModelRoot root, Throwable throwable) {
+		String message = throwable.getMessage();
+		setStatus(new ServerStatus(ServerStatus.Severity.ERROR, "Layout failed: "
+				+ (message != null ? message : throwable.getClass().getSimpleName())));
+	}
+	
+	/**
+	 * Create an action to update the client model from {@code oldRoot} to {@code newRoot}. If model diffs
+	 * are enabled (see {@link #sendModelDiffs(SModelRoot)}), the action contains only the matches between
+	 * the two models. The whole new model is sent if there is no previous model, if the previous model has
+	 * been modified in-place, or if the matches would not be smaller than the new model.
+	 */
+	protected UpdateModelAction createUpdateModelAction(SModelRoot oldRoot, SModelRoot newRoot) {
+		if (oldRoot != null && oldRoot != newRoot && sendModelDiffs(newRoot)) {
+			ModelMatcher matcher = getModelMatcher();
+			if (matcher != null) {
+				List<Match> matches = matcher.match(oldRoot, newRoot);
+				if (matches != null)
+					return new UpdateModelAction(matches);
+			}
+		}
+		return new UpdateModelAction(newRoot);
+	}
+	
+	/**
+	 * Accept an action message from the client. The action is handled asynchronously on the
+	 * {@linkplain #setMessageExecutor(Executor) message executor}.
+	 */
 	@Override
 	public void accept(ActionMessage message) {
+		accept(message, null);
+	}
+	
+	/**
+	 * Accept an action message from the client and notify the given callback, if not {@code null}, after
+	 * the action has been handled on the {@linkplain #setMessageExecutor(Executor) message executor}. Actions
+	 * deferred while the model is restored are reported as handled when they are deferred. The callback
+	 * is not called for messages of other clients, which are ignored.
+	 */
+	@Override
+	public void accept(ActionMessage message, HandlingCallback callback) {
 		String clientId = getClientId();
 		if (clientId != null && clientId.equals(message.getClientId())) {
+			lastActivityTime = System.currentTimeMillis();
 			Action action = message.getAction();
-			switch (action.getKind()) {
-				case RequestModelAction.KIND:
-					handle((RequestModelAction) action);
-					break;
-				case RequestPopupModelAction.KIND:
-					handle((RequestPopupModelAction) action);
-					break;
-				case ComputedBoundsAction.KIND:
-					handle((ComputedBoundsAction) action);
-					break;
-				case SelectAction.KIND:
-					handle((SelectAction) action);
-					break;
-				case SelectAllAction.KIND:
-					handle((SelectAllAction) action);
-					break;
-				case CollapseExpandAction.KIND:
-					handle((CollapseExpandAction) action);
-					break;
-				case CollapseExpandAllAction.KIND:
-					handle((CollapseExpandAllAction) action);
-					break;
-				case OpenAction.KIND:
-					handle((OpenAction) action);
-					break;
+			runOnMessageExecutor(() -> {
+				long startTime = System.nanoTime();
+				try {
+					processAction(action);
+				} finally {
+					if (callback != null)
+						callback.handled(startTime, System.nanoTime());
+				}
+			});
+		}
+	}
+	
+	private void processAction(Action action) {
+		try {
+			if (pendingRestoration != null) {
+				deferredActions.add(action);
+			} else if (hibernated) {
+				hibernated = false;
+				CompletableFuture<?> restoration = restoreModel(action);
+				if (restoration != null && !restoration.isDone()) {
+					pendingRestoration = restoration;
+					deferredActions.add(action);
+					restoration.whenComplete((result, throwable) -> runOnMessageExecutor(this::processDeferredActions));
+				} else {
+					handleAction(action);
+				}
+			} else {
+				handleAction(action);
 			}
+		} catch (RuntimeException exception) {
+			handleActionError(action, exception);
+		}
+	}
+	
+	private void processDeferredActions() {
+		pendingRestoration = null;
+		List<Action> actions = new ArrayList<>(deferredActions);
+		deferredActions.clear();
+		for (Action action : actions) {
+			processAction(action);
+		}
+	}
+	
+	/**
+	 * Called when handling a received action has failed. The default implementation reports the error
+	 * to the client with a {@link ServerStatusAction}.
+	 */
+	protected void handleActionError(Action action, Throwable throwable) {
+		String message = throwable.getMessage();
+		setStatus(new ServerStatus(ServerStatus.Severity.ERROR, "Failed to handle " + action.getKind() + ": "
+				+ (message != null ? message : throwable.getClass().getSimpleName())));
+	}
+	
+	/**
+	 * Forward a received action to the corresponding {@code handle} method.
+	 */
+	protected void handleAction(Action action) {
+		switch (action.getKind()) {
+			case RequestModelAction.KIND:
+				handle((RequestModelAction) action);
+				break;
+			case RequestPopupModelAction.KIND:
+				handle((RequestPopupModelAction) action);
+				break;
+			case ComputedBoundsAction.KIND:
+				handle((ComputedBoundsAction) action);
+				break;
+			case SelectAction.KIND:
+				handle((SelectAction) action);
+				break;
+			case SelectAllAction.KIND:
+				handle((SelectAllAction) action);
+				break;
+			case CollapseExpandAction.KIND:
+				handle((CollapseExpandAction) action);
+				break;
+			case CollapseExpandAllAction.KIND:
+				handle((CollapseExpandAllAction) action);
+				break;
+			case OpenAction.KIND:
+				handle((OpenAction) action);
+				break;
 		}
 	}
 	
@@ -334,26 +1006,178 @@ public class DefaultDiagramServer implements IDiagramServer {
 	}
 	
 	/**
-	 * Called when a {@link ComputedBoundsAction} is received.
+	 * Called when a {@link ComputedBoundsAction} is received. The bounds are applied while holding the model
+	 * lock, so the model cannot be replaced between checking its revision and updating it through the index.
+	 * The updated model is submitted after releasing the lock.
 	 */
 	protected void handle(ComputedBoundsAction computedBounds) {
+		SModelRoot model = getModel();
+		if (model == null)
+			return;
+		if (model.getRevision() != computedBounds.getRevision()) {
+			if (computedBounds.getRevision() < model.getRevision()
+					&& model.getRevision() - computedBounds.getRevision() <= getMaxStaleRevisions()) {
+				mergeStaleBounds(model, computedBounds);
+			}
+			return;
+		}
+		boolean submit = false;
+		int requestCount;
 		synchronized(modelLock) {
-			SModelRoot model = getModel();
-			if (model != null && model.getRevision() == computedBounds.getRevision()) {
-				LayoutUtil.applyBounds(model, computedBounds);
-				doSubmitModel(model, true);
+			if (getModel() != model || model.getRevision() != computedBounds.getRevision())
+				// The model has been replaced or updated meanwhile
+				return;
+			BoundsState state = getBoundsState(computedBounds.getRevision());
+			Set<String> requestedElements = state != null ? state.requestedElements : null;
+			putCachedBounds(state, computedBounds);
+			boolean provisional = state != null && state.provisional;
+			if (state != null) {
+				state.provisional = false;
+				state.settled = true;
+			}
+			requestCount = boundsRequestCount;
+			boundsRequestCount = 0;
+			if (provisional && !boundsChanged(getModelIndex(), computedBounds, requestedElements)) {
+				// The model has already been laid out and submitted with the same bounds
+				boundsStatistics.recordConfirmedProvisionalSubmit();
+			} else {
+				// Bounds of elements outside the requested subtrees are ignored, since they were sent only as context
+				LayoutUtil.applyBounds(getModelIndex(), computedBounds, requestedElements);
+				submit = true;
+			}
+			boundsStatistics.recordSettled();
+		}
+		if (submit)
+			doSubmitModel(model, true);
+		boundsSettled(model, requestCount);
+	}
+	
+	/**
+	 * Merge the bounds computed by the client for a superseded revision into the current model. If a
+	 * {@linkplain #setBoundsCache(BoundsCache) bounds cache} is configured, the bounds are stored in the cache
+	 * and then applied to the elements of the current model whose content has not changed; otherwise they are
+	 * applied to the elements with the same id. If all bounds-aware elements of the current model have thereby
+	 * received bounds from the cache or from a client answer, the model is submitted provisionally without
+	 * waiting for the bounds requested for the current revision. When these arrive, the model is submitted
+	 * again only if their sizes or alignments differ from the provisional ones.
+	 */
+	protected void mergeStaleBounds(SModelRoot model, ComputedBoundsAction computedBounds) {
+		synchronized (modelLock) {
+			if (getModel() != model)
+				return;
+			BoundsState staleState = getBoundsState(computedBounds.getRevision());
+			BoundsState currentState = getBoundsState(model.getRevision());
+			if (currentState == null || currentState.settled)
+				return;
+			boundsStatistics.recordStaleMerge();
+			BoundsCache cache = getBoundsCache();
+			boolean complete;
+			if (cache != null && staleState != null && staleState.cacheKeys != null && currentState.cacheKeys != null) {
+				putCachedBounds(staleState, computedBounds);
+				Set<String> missingIds = new HashSet<>();
+				complete = cache.apply(model, currentState.cacheKeys, missingIds);
+				currentState.cacheMisses = missingIds;
+			} else {
+				Set<String> elementIds = staleState != null ? staleState.requestedElements : null;
+				LayoutUtil.applyBounds(getModelIndex(), computedBounds, elementIds);
+				collectBoundedElements(getModelIndex(), computedBounds, elementIds, currentState.boundedElements);
+				complete = hasBounds(model, model, currentState);
+			}
+			if (!complete || currentState.provisional)
+				return;
+			currentState.provisional = true;
+			boundsStatistics.recordProvisionalSubmit();
+		}
+		doSubmitModel(model, true);
+	}
+	
+	private void putCachedBounds(BoundsState state, ComputedBoundsAction computedBounds) {
+		BoundsCache cache = getBoundsCache();
+		if (cache != null && state != null && state.cacheKeys != null) {
+			Map<String, Long> keys = state.cacheKeys;
+			if (state.requestedElements != null) {
+				keys = new HashMap<>(keys);
+				keys.keySet().retainAll(state.requestedElements);
+			}
+			cache.put(keys, computedBounds);
+		}
+	}
+	
+	private static void collectBoundedElements(SModelIndex index, ComputedBoundsAction computedBounds,
+			Set<String> elementIds, Set<String> boundedElements) {
+		for (ElementAndBounds b : computedBounds.getBounds()) {
+			if ((elementIds == null || elementIds.contains(b.getElementId()))
+					&& index.get(b.getElementId()) instanceof BoundsAware)
+				boundedElements.add(b.getElementId());
+		}
+	}
+	
+	/**
+	 * Check whether all bounds-aware elements except the root have received bounds for the revision of the
+	 * given state. Sizes copied from previous revisions are not considered, since they may be outdated.
+	 */
+	private static boolean hasBounds(SModelElement element, SModelRoot root, BoundsState state) {
+		if (element instanceof BoundsAware && element != root && !state.hasBounds(element.getId()))
+			return false;
+		if (element.getChildren() != null) {
+			for (SModelElement child : element.getChildren()) {
+				if (!hasBounds(child, root, state))
+					return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Check whether the given action would change the size or alignment of an element. Positions are not
+	 * compared, since they are determined by the server layout, or by a client layout from the sizes.
+	 */
+	private static boolean boundsChanged(SModelIndex index, ComputedBoundsAction computedBounds, Set<String> elementIds) {
+		for (ElementAndBounds b : computedBounds.getBounds()) {
+			if (elementIds != null && !elementIds.contains(b.getElementId()))
+				continue;
+			SModelElement element = index.get(b.getElementId());
+			if (element instanceof BoundsAware) {
+				Dimension size = ((BoundsAware) element).getSize();
+				Bounds newBounds = b.getNewBounds();
+				if (size == null || size.getWidth() != newBounds.getWidth() || size.getHeight() != newBounds.getHeight())
+					return true;
+			}
+		}
+		for (ElementAndAlignment a : computedBounds.getAlignments()) {
+			if (elementIds != null && !elementIds.contains(a.getElementId()))
+				continue;
+			SModelElement element = index.get(a.getElementId());
+			if (element instanceof Alignable) {
+				Point alignment = ((Alignable) element).getAlignment();
+				Point newAlignment = a.getNewAlignment();
+				if (alignment == null || newAlignment == null ? alignment != newAlignment
+						: alignment.getX() != newAlignment.getX() || alignment.getY() != newAlignment.getY())
+					return true;
 			}
 		}
+		return false;
+	}
+	
+	/**
+	 * Called when the bounds computed by the client for the current model revision have been applied.
+	 * Override this in order to log the bounds computation; counters are available from
+	 * {@link #getBoundsStatistics()}.
+	 * 
+	 * @param requestCount the number of {@link RequestBoundsAction}s sent since the bounds were last settled,
+	 *     including those for superseded revisions
+	 */
+	protected void boundsSettled(SModelRoot root, int requestCount) {
 	}
 	
 	/**
 	 * Called when a {@link RequestPopupModelAction} is received.
 	 */
 	protected void handle(RequestPopupModelAction request) {
-		SModelRoot model = getModel();
-		SModelElement element = SModelIndex.find(model, request.getElementId());
+		SModelElement element = getModelIndex().get(request.getElementId());
 		IPopupModelFactory factory = getPopupModelFactory();
-		if (factory != null) {
+		// The element may be missing if the model has been replaced, e.g. while the server is hibernated
+		if (element != null && factory != null) {
 			SModelRoot popupModel = factory.createPopupModel(element, request, this);
 			if (popupModel != null) {
 				dispatch(new SetPopupModelAction(popupModel));
@@ -365,11 +1189,13 @@ public class DefaultDiagramServer implements IDiagramServer {
 	 * Called when a {@link SelectAction} is received.
 	 */
 	protected void handle(SelectAction action) {
+		updateSelectedElements(selectedElements -> {
 			selectedElements.clear();
-		if (action.getDeselectedElementsIDs() != null)
-			selectedElements.removeAll(action.getDeselectedElementsIDs());
-		if (action.getSelectedElementsIDs() != null)
-			selectedElements.addAll(action.getSelectedElementsIDs());
+			if (action.getDeselectedElementsIDs() != null)
+				selectedElements.removeAll(action.getDeselectedElementsIDs());
+			if (action.getSelectedElementsIDs() != null)
+				selectedElements.addAll(action.getSelectedElementsIDs());
+		});
 
 		IDiagramSelectionListener selectionListener = getSelectionListener();
 		if (selectionListener != null) {
@@ -381,10 +1207,14 @@ public class DefaultDiagramServer implements IDiagramServer {
 	 * Called when a {@link SelectAllAction} is received.
 	 */
 	protected void handle(SelectAllAction action) {
-		if (action.isSelect())
-			new SModelIndex(currentRoot).allIds().forEach(id -> selectedElements.add(id));
-		else
-			selectedElements.clear();
+		// The update may be repeated if the state is modified concurrently, so the index is obtained only once
+		SModelIndex index = action.isSelect() ? getModelIndex() : null;
+		updateSelectedElements(selectedElements -> {
+			if (index != null)
+				index.allIds().forEach(id -> selectedElements.add(id));
+			else
+				selectedElements.clear();
+		});
 		
 		IDiagramSelectionListener selectionListener = getSelectionListener();
 		if (selectionListener != null) {
@@ -396,10 +1226,12 @@ public class DefaultDiagramServer implements IDiagramServer {
 	 * Called when a {@link CollapseExpandAction} is received.
 	 */
 	protected void handle(CollapseExpandAction action) {
-		if (action.getCollapseIds() != null)
-			expandedElements.removeAll(action.getCollapseIds());
-		if (action.getExpandIds() != null)
-			expandedElements.addAll(action.getExpandIds());
+		updateExpandedElements(expandedElements -> {
+			if (action.getCollapseIds() != null)
+				expandedElements.removeAll(action.getCollapseIds());
+			if (action.getExpandIds() != null)
+				expandedElements.addAll(action.getExpandIds());
+		});
 		
 		IDiagramExpansionListener expansionListener = getExpansionListener();
 		if (expansionListener != null) {
@@ -411,10 +1243,13 @@ public class DefaultDiagramServer implements IDiagramServer {
 	 * Called when a {@link CollapseExpandAllAction} is received.
 	 */
 	protected void handle(CollapseExpandAllAction action) {
-		if (action.isExpand())
-			new SModelIndex(currentRoot).allIds().forEach(id -> expandedElements.add(id));
-		else
-			expandedElements.clear();
+		SModelIndex index = action.isExpand() ? getModelIndex() : null;
+		updateExpandedElements(expandedElements -> {
+			if (index != null)
+				index.allIds().forEach(id -> expandedElements.add(id));
+			else
+				expandedElements.clear();
+		});
 		
 		IDiagramExpansionListener expansionListener = getExpansionListener();
 		if (expansionListener != null) {
@@ -432,37 +1267,218 @@ public class DefaultDiagramServer implements IDiagramServer {
 		}
 	}
 	
+	/**
+	 * Computes the layout of a model revision and sends the result to the client, unless the task has been
+	 * cancelled in the meantime. The model remains registered as being modified until the layout engine
+	 * has returned, even if the task has been cancelled before.
+	 */
+	private class LayoutTask extends FutureTask<Void> {
+		
+		private final SModelRoot root;
+		
+		private final boolean update;
+		
+		LayoutTask(ILayoutEngine layoutEngine, SModelRoot root, boolean update) {
+			super(() -> layoutEngine.layout(root, getClientId()), null);
+			this.root = root;
+			this.update = update;
+		}
+		
+		@Override
+		public void run() {
+			try {
+				super.run();
+			} finally {
+				layoutFinished(root);
+			}
+		}
+		
+		@Override
+		protected void done() {
+			try {
+				get();
+				// The task remains pending until the model has been sent, so it can still be cancelled
+				runOnMessageExecutor(this::complete);
+			} catch (CancellationException exception) {
+				// A newer model revision has been submitted
+			} catch (InterruptedException exception) {
+				Thread.currentThread().interrupt();
+			} catch (ExecutionException exception) {
+				synchronized (modelLock) {
+					if (pendingLayout == this)
+						pendingLayout = null;
+				}
+				handleLayoutError(root, exception.getCause());
+			}
+		}
+		
+		private void complete() {
+			synchronized (modelLock) {
+				if (pendingLayout != this)
+					return;
+				pendingLayout = null;
+			}
+			completeSubmitModel(root, update);
+		}
+	}
+	
+	/**
+	 * The state of the bounds computation for a model revision.
+	 */
+	private static class BoundsState {
+		
+		final int revision;
+		
+		final Map<String, Long> cacheKeys;
+		
+		Set<String> cacheMisses;
+		
+		Set<String> requestedElements;
+		
+		/** The elements that have received bounds from a client answer for a superseded revision */
+		final Set<String> boundedElements = new HashSet<>();
+		
+		/** Whether the model has been submitted with merged bounds and the requested bounds are pending */
+		boolean provisional;
+		
+		/** Whether the requested bounds have arrived */
+		boolean settled;
+		
+		BoundsState(int revision, Map<String, Long> cacheKeys) {
+			this.revision = revision;
+			this.cacheKeys = cacheKeys;
+		}
+		
+		boolean hasBounds(String elementId) {
+			return boundedElements.contains(elementId) || cacheMisses != null && !cacheMisses.contains(elementId);
+		}
+	}
+	
+	/**
+	 * The executor used for server layouts unless another one is configured.
+	 */
+	private static class DefaultLayoutExecutor {
+		
+		static final ExecutorService INSTANCE = Executors.newFixedThreadPool(
+				Runtime.getRuntime().availableProcessors(), new DaemonThreadFactory("sprotty-layout-"));
+	}
+	
+	/**
+	 * The thread pool on which the message executors of all diagram servers run unless another executor
+	 * is configured. Threads are created on demand, since handlers may block, and discarded when idle.
+	 */
+	private static class DefaultMessageExecutor {
+		
+		static final ExecutorService INSTANCE = Executors.newCachedThreadPool(
+				new DaemonThreadFactory("sprotty-diagram-server-"));
+	}
+	
+	private static class DaemonThreadFactory implements ThreadFactory {
+		
+		private final String namePrefix;
+		
+		private final AtomicInteger threadCount = new AtomicInteger();
+		
+		DaemonThreadFactory(String namePrefix) {
+			this.namePrefix = namePrefix;
+		}
+		
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, namePrefix + threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+	
+	/**
+	 * The state received from the client. Instances are immutable; a new instance with an incremented
+	 * version is published whenever the state changes.
+	 */
+	private static class ClientState {
+		
+		static final ClientState INITIAL = new ClientState(Collections.emptySet(), Collections.emptySet(), 0);
+		
+		final Set<String> expandedElements;
+		
+		final Set<String> selectedElements;
+		
+		final long version;
+		
+		ClientState(Set<String> expandedElements, Set<String> selectedElements, long version) {
+			this.expandedElements = expandedElements;
+			this.selectedElements = selectedElements;
+			this.version = version;
+		}
+		
+		ClientState withNextVersion() {
+			return new ClientState(expandedElements, selectedElements, version + 1);
+		}
+		
+		ClientState withExpandedElements(Set<String> expandedElements) {
+			return new ClientState(Collections.unmodifiableSet(expandedElements), selectedElements, version + 1);
+		}
+		
+		ClientState withSelectedElements(Set<String> selectedElements) {
+			return new ClientState(expandedElements, Collections.unmodifiableSet(selectedElements), version + 1);
+		}
+	}
+	
+	/**
+	 * An immutable snapshot of the state of a {@link DefaultDiagramServer}.
+	 */
 	public static class DefaultDiagramState implements IDiagramState {
-
-		private DefaultDiagramServer server;
-
-		DefaultDiagramState(DefaultDiagramServer server) {
-			this.server = server;
+		
+		private final String clientId;
+		
+		private final SModelRoot currentModel;
+		
+		private final Map<String, String> options;
+		
+		private final Set<String> expandedElements;
+		
+		private final Set<String> selectedElements;
+		
+		private final long version;
+		
+		DefaultDiagramState(String clientId, SModelRoot currentModel, Map<String, String> options,
+				Set<String> expandedElements, Set<String> selectedElements, long version) {
+			this.clientId = clientId;
+			this.currentModel = currentModel;
+			this.options = options;
+			this.expandedElements = expandedElements;
+			this.selectedElements = selectedElements;
+			this.version = version;
 		}
 		
 		@Override
 		public Map<String, String> getOptions() {
-			return server.options;
+			return options;
 		}
 		
 		@Override
 		public String getClientId() {
-			return server.clientId;
+			return clientId;
 		}
 		
 		@Override
 		public SModelRoot getCurrentModel() {
-			return server.currentRoot;
+			return currentModel;
 		}
 		
 		@Override
 		public Set<String> getExpandedElements() {
-			return server.expandedElements;
+			return expandedElements;
 		}
 		
 		@Override
 		public Set<String> getSelectedElements() {
-			return server.selectedElements;
+			return selectedElements;
+		}
+		
+		@Override
+		public long getVersion() {
+			return version;
 		}
 	}
 }
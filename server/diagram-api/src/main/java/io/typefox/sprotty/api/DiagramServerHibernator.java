@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2017 TypeFox and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.typefox.sprotty.api;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Keeps the models held by a set of diagram servers within a global memory budget. When the sum of the
+ * {@linkplain DefaultDiagramServer#getRetainedSizeEstimate() retained size estimates} exceeds the budget,
+ * the servers that have been idle for at least the {@linkplain #setMinIdleTime(long) minimal idle time}
+ * are {@linkplain DefaultDiagramServer#hibernate() hibernated}, starting with the least recently active one.
+ * A hibernated server restores its model when the next action arrives from its client. Servers that are
+ * not instances of {@link DefaultDiagramServer} are ignored. This class is thread-safe.
+ */
+public class DiagramServerHibernator {
+	
+	public static final long DEFAULT_MIN_IDLE_TIME = 5 * 60 * 1000;
+	
+	private final long memoryBudget;
+	
+	private volatile long minIdleTime = DEFAULT_MIN_IDLE_TIME;
+	
+	private long hibernationCount;
+	
+	/**
+	 * @param memoryBudget the estimated memory in bytes that may be retained by the models of all servers
+	 */
+	public DiagramServerHibernator(long memoryBudget) {
+		if (memoryBudget < 0)
+			throw new IllegalArgumentException("memoryBudget must not be negative");
+		this.memoryBudget = memoryBudget;
+	}
+	
+	public long getMemoryBudget() {
+		return memoryBudget;
+	}
+	
+	public long getMinIdleTime() {
+		return minIdleTime;
+	}
+	
+	/**
+	 * Set the time in milliseconds since the last activity of a server after which it may be hibernated.
+	 */
+	public void setMinIdleTime(long minIdleTime) {
+		this.minIdleTime = minIdleTime;
+	}
+	
+	/**
+	 * Hibernate idle servers until the estimated memory retained by all given servers is within the budget,
+	 * or no further server can be hibernated.
+	 *
+	 * @return the number of servers that have been hibernated
+	 */
+	public synchronized int enforceBudget(Collection<? extends IDiagramServer> servers) {
+		long totalSize = 0;
+		List<DefaultDiagramServer> candidates = new ArrayList<>();
+		long idleSince = System.currentTimeMillis() - getMinIdleTime();
+		for (IDiagramServer server : servers) {
+			if (server instanceof DefaultDiagramServer) {
+				DefaultDiagramServer defaultServer = (DefaultDiagramServer) server;
+				if (!defaultServer.isHibernated()) {
+					totalSize += defaultServer.getRetainedSizeEstimate();
+					if (defaultServer.getLastActivityTime() <= idleSince)
+						candidates.add(defaultServer);
+				}
+			}
+		}
+		if (totalSize <= memoryBudget)
+			return 0;
+		candidates.sort(Comparator.comparingLong(DefaultDiagramServer::getLastActivityTime));
+		int count = 0;
+		for (DefaultDiagramServer server : candidates) {
+			if (totalSize <= memoryBudget)
+				break;
+			long size = server.getRetainedSizeEstimate();
+			if (server.hibernate()) {
+				totalSize -= size;
+				count++;
+			}
+		}
+		hibernationCount += count;
+		return count;
+	}
+	
+	/**
+	 * The total number of servers that have been hibernated by this instance.
+	 */
+	public synchronized long getHibernationCount() {
+		return hibernationCount;
+	}
+	
+	@Override
+	public synchronized String toString() {
+		return "DiagramServerHibernator [memoryBudget=" + memoryBudget + ", minIdleTime=" + minIdleTime
+				+ ", hibernationCount=" + hibernationCount + "]";
+	}
+
+}
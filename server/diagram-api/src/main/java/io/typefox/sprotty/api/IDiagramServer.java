@@ -56,6 +56,15 @@ public interface IDiagramServer extends Consumer<ActionMessage> {
 	 */
 	void setModel(SModelRoot root);
 	
+	/**
+	 * An index of the current model for fast element lookup by id. The default implementation builds
+	 * a new index on every call, so implementations should rather keep the index of the current model
+	 * until the model is changed.
+	 */
+	default SModelIndex getModelIndex() {
+		return new SModelIndex(getModel());
+	}
+	
 	/**
 	 * Set the current model and send an update to the client, if a remote endpoint has been configured.
 	 * The main difference to {@link #setModel(SModelRoot)} is that with this method the change will be
@@ -83,10 +92,39 @@ public interface IDiagramServer extends Consumer<ActionMessage> {
 	Map<String, String> getOptions();
 
 	/**
-	 * Current state of the diagram. 
+	 * Current state of the diagram. The returned state is a snapshot that is not affected by subsequent
+	 * changes.
 	 */
 	IDiagramState getDiagramState();
 	
+	/**
+	 * Accept an action message from the client and notify the given callback when the message has been
+	 * handled. Servers that handle messages asynchronously should override this, so the callback reports
+	 * the actual handling instead of the submission of the message. The default implementation calls
+	 * {@code accept(message)} and then the callback.
+	 */
+	default void accept(ActionMessage message, HandlingCallback callback) {
+		long startTime = System.nanoTime();
+		try {
+			accept(message);
+		} finally {
+			callback.handled(startTime, System.nanoTime());
+		}
+	}
+	
+	/**
+	 * A callback for the completion of handling a message received from the client.
+	 */
+	public interface HandlingCallback {
+		/**
+		 * Called when a message has been handled, either normally or exceptionally.
+		 * 
+		 * @param startTime the value of {@link System#nanoTime()} when handling the message started
+		 * @param endTime the value of {@link System#nanoTime()} when handling the message ended
+		 */
+		void handled(long startTime, long endTime);
+	}
+	
 	/**
 	 * A diagram server provider creates a diagram server for a given {@code clientId} or returns
 	 * an already existing one.
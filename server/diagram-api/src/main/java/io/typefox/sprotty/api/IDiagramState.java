@@ -4,7 +4,8 @@ import java.util.Map;
 import java.util.Set;
 
 /**
- * A view on the current state of the diagram.
+ * A view on the current state of the diagram. Implementations should be immutable snapshots, so they
+ * can be passed to other threads, e.g. for generating diagrams.
  * 
  * @author koehnlein
  */
@@ -36,4 +37,13 @@ public interface IDiagramState {
 	 */
 	Set<String> getSelectedElements();
 	
+	/**
+	 * @return the version of the state received from the client. It is incremented whenever the options,
+	 *     the expanded elements or the selected elements change. The default implementation returns 0,
+	 *     which means that changes are not tracked.
+	 */
+	default long getVersion() {
+		return 0;
+	}
+
 }
\ No newline at end of file
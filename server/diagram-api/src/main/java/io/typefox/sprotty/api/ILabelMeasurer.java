@@ -0,0 +1,32 @@
+/*
+ * Copyright (C) 2017 TypeFox and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.typefox.sprotty.api;
+
+/**
+ * Computes the size of labels on the server. Invoked by {@link DefaultDiagramServer} before a model is
+ * submitted, so the client does not need to compute the bounds of labels if all of them can be measured
+ * on the server.
+ */
+public interface ILabelMeasurer {
+	
+	/**
+	 * Compute the size and alignment of the given label and store them in the label. Return {@code false}
+	 * if the label cannot be measured on the server, e.g. because its font is unknown.
+	 */
+	boolean measure(SLabel label);
+	
+	/**
+	 * An implementation that does not measure any label.
+	 */
+	public static class NullImpl implements ILabelMeasurer {
+		@Override
+		public boolean measure(SLabel label) {
+			return false;
+		}
+	}
+
+}
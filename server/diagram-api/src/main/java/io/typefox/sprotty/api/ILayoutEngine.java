@@ -17,6 +17,16 @@ public interface ILayoutEngine {
 	 */
 	public void layout(SModelRoot root);
 	
+	/**
+	 * Compute a layout for the given model of the diagram identified by the given key, e.g. the client id
+	 * of the diagram server. Layout engines that retain state between layouts must keep it separate for
+	 * each key, since an engine may be shared by several diagram servers whose models have the same root id.
+	 * The default implementation ignores the key.
+	 */
+	public default void layout(SModelRoot root, String diagramKey) {
+		layout(root);
+	}
+	
 	/**
 	 * An implementation that does nothing.
 	 */
@@ -6,7 +6,12 @@
  */
 package io.typefox.sprotty.api;
 
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 import io.typefox.sprotty.api.Bounds;
 import io.typefox.sprotty.api.BoundsAware;
@@ -30,17 +35,37 @@ public final class LayoutUtil {
 	 * Apply the computed bounds from the given action to the model.
 	 */
 	public static void applyBounds(SModelRoot root, ComputedBoundsAction action) {
-		SModelIndex index = new SModelIndex(root);
+		applyBounds(new SModelIndex(root), action);
+	}
+	
+	/**
+	 * Apply the computed bounds from the given action to the model elements contained in the given index.
+	 */
+	public static void applyBounds(SModelIndex index, ComputedBoundsAction action) {
+		applyBounds(index, action, null);
+	}
+	
+	/**
+	 * Apply the computed bounds from the given action to those model elements contained in the given index
+	 * whose id is in {@code elementIds}, or to all of them if {@code elementIds} is {@code null}. This is used
+	 * to merge the answer to a partial bounds request (see {@link #createPartialModel(SModelRoot, Set, Set)})
+	 * into the full model: the bounds of ancestors that were sent only as context are ignored.
+	 */
+	public static void applyBounds(SModelIndex index, ComputedBoundsAction action, Set<String> elementIds) {
 		for (ElementAndBounds b : action.getBounds()) {
+			if (elementIds != null && !elementIds.contains(b.getElementId()))
+				continue;
 			SModelElement element = index.get(b.getElementId());
 			if (element instanceof BoundsAware) {
 				BoundsAware bae = (BoundsAware) element;
 				Bounds newBounds = b.getNewBounds();
-				bae.setPosition(new Point(newBounds.getX(), newBounds.getY()));
-				bae.setSize(new Dimension(newBounds.getWidth(), newBounds.getHeight()));
+				setPosition(bae, newBounds.getX(), newBounds.getY());
+				setSize(bae, newBounds.getWidth(), newBounds.getHeight());
 			}
 		}
 		for (ElementAndAlignment a: action.getAlignments()) {
+			if (elementIds != null && !elementIds.contains(a.getElementId()))
+				continue;
 			SModelElement element = index.get(a.getElementId());
 			if (element instanceof Alignable) {
 				Alignable alignable = (Alignable) element;
@@ -49,12 +74,158 @@ public final class LayoutUtil {
 		}
 	}
 
+	/**
+	 * Create a model for a partial {@link RequestBoundsAction} that contains only the subtrees of the elements
+	 * with the given ids. If the parent of such an element is arranged by a client layout (see {@link Layouting}),
+	 * the subtree of the parent is included instead, since the layout depends on all its children. The ancestors
+	 * of the included subtrees are shallow copies that contain only the children leading to these subtrees,
+	 * so the client can render the subtrees in their context. The elements of the subtrees are shared with
+	 * the given model, and their ids are added to {@code includedIds}. If the whole model would be included,
+	 * the given root is returned.
+	 */
+	public static SModelRoot createPartialModel(SModelRoot root, Set<String> elementIds, Set<String> includedIds) {
+		Set<SModelElement> subtreeRoots = new HashSet<>();
+		if (collectSubtreeRoots(root, elementIds, subtreeRoots)) {
+			collectIds(root, includedIds);
+			return root;
+		}
+		SModelElement partialRoot = extractSubtrees(root, subtreeRoots, includedIds);
+		if (partialRoot == null) {
+			partialRoot = copyShallow(root);
+			partialRoot.setChildren(new ArrayList<>());
+		}
+		return (SModelRoot) partialRoot;
+	}
+	
+	/**
+	 * Collect the roots of the subtrees to include in a partial model. Returns {@code true} if an element
+	 * with one of the given ids must be included together with its parent.
+	 */
+	private static boolean collectSubtreeRoots(SModelElement element, Set<String> elementIds,
+			Set<SModelElement> subtreeRoots) {
+		boolean includeElement = elementIds.contains(element.getId());
+		if (element.getChildren() != null) {
+			boolean includeChildren = element instanceof Layouting && ((Layouting) element).getLayout() != null
+					&& !((Layouting) element).getLayout().isEmpty();
+			for (SModelElement child : element.getChildren()) {
+				if (collectSubtreeRoots(child, elementIds, subtreeRoots) && includeChildren)
+					includeElement = true;
+			}
+		}
+		if (includeElement)
+			subtreeRoots.add(element);
+		return includeElement;
+	}
+	
+	private static SModelElement extractSubtrees(SModelElement element, Set<SModelElement> subtreeRoots,
+			Set<String> includedIds) {
+		if (subtreeRoots.contains(element)) {
+			collectIds(element, includedIds);
+			return element;
+		}
+		if (element.getChildren() == null)
+			return null;
+		List<SModelElement> children = null;
+		for (SModelElement child : element.getChildren()) {
+			SModelElement extracted = extractSubtrees(child, subtreeRoots, includedIds);
+			if (extracted != null) {
+				if (children == null)
+					children = new ArrayList<>();
+				children.add(extracted);
+			}
+		}
+		if (children == null)
+			return null;
+		SModelElement copy = copyShallow(element);
+		copy.setChildren(children);
+		return copy;
+	}
+	
+	private static void collectIds(SModelElement element, Set<String> ids) {
+		if (element.getId() != null)
+			ids.add(element.getId());
+		if (element.getChildren() != null) {
+			for (SModelElement child : element.getChildren()) {
+				collectIds(child, ids);
+			}
+		}
+	}
+	
+	/**
+	 * Create a copy of the given element that shares all property values with the original.
+	 */
+	private static SModelElement copyShallow(SModelElement element) {
+		try {
+			SModelElement copy = element.getClass().newInstance();
+			for (Class<?> c = element.getClass(); c != Object.class; c = c.getSuperclass()) {
+				for (Field field : c.getDeclaredFields()) {
+					if (!Modifier.isStatic(field.getModifiers())) {
+						field.setAccessible(true);
+						field.set(copy, field.get(element));
+					}
+				}
+			}
+			return copy;
+		} catch (ReflectiveOperationException exception) {
+			throw new IllegalArgumentException("Cannot copy model element " + element.getId(), exception);
+		}
+	}
+	
+	/**
+	 * Create a deep copy of the given model. The elements and their geometry instances are copied, so the
+	 * copy can be laid out and modified independently of the original. All other property values, such as
+	 * strings and layout options, are shared with the original.
+	 */
+	public static SModelRoot copyModel(SModelRoot root) {
+		return (SModelRoot) copyDeep(root);
+	}
+	
+	private static SModelElement copyDeep(SModelElement element) {
+		SModelElement copy = copyShallow(element);
+		if (copy instanceof BoundsAware) {
+			BoundsAware boundsAware = (BoundsAware) copy;
+			if (boundsAware.getPosition() != null)
+				boundsAware.setPosition(new Point(boundsAware.getPosition()));
+			if (boundsAware.getSize() != null)
+				boundsAware.setSize(new Dimension(boundsAware.getSize()));
+		}
+		if (copy instanceof Alignable && ((Alignable) copy).getAlignment() != null)
+			((Alignable) copy).setAlignment(new Point(((Alignable) copy).getAlignment()));
+		if (copy instanceof SModelRoot && ((SModelRoot) copy).getCanvasBounds() != null) {
+			Bounds canvasBounds = ((SModelRoot) copy).getCanvasBounds();
+			((SModelRoot) copy).setCanvasBounds(new Bounds(canvasBounds.getX(), canvasBounds.getY(),
+					canvasBounds.getWidth(), canvasBounds.getHeight()));
+		}
+		if (copy instanceof SEdge && ((SEdge) copy).getRoutingPoints() != null) {
+			List<Point> routingPoints = new ArrayList<>(((SEdge) copy).getRoutingPoints().size());
+			for (Point p : ((SEdge) copy).getRoutingPoints()) {
+				routingPoints.add(new Point(p));
+			}
+			((SEdge) copy).setRoutingPoints(routingPoints);
+		}
+		if (element.getChildren() != null) {
+			List<SModelElement> children = new ArrayList<>(element.getChildren().size());
+			for (SModelElement child : element.getChildren()) {
+				children.add(copyDeep(child));
+			}
+			copy.setChildren(children);
+		}
+		return copy;
+	}
+	
 	/**
 	 * Copy the layout of one model instance to another. Model elements are matched by their id.
 	 */
 	public static void copyLayoutData(SModelRoot fromRoot, SModelRoot toRoot) {
-		SModelIndex oldIndex = new SModelIndex(fromRoot);
-		copyLayoutDataRecursively(toRoot, oldIndex);
+		copyLayoutData(new SModelIndex(fromRoot), toRoot);
+	}
+	
+	/**
+	 * Copy the layout of the model elements contained in the given index to another model instance.
+	 * Model elements are matched by their id.
+	 */
+	public static void copyLayoutData(SModelIndex fromIndex, SModelRoot toRoot) {
+		copyLayoutDataRecursively(toRoot, fromIndex);
 	}
 	
 	private static void copyLayoutDataRecursively(SModelElement element, SModelIndex oldIndex) {
@@ -63,10 +234,12 @@ public final class LayoutUtil {
 			if (oldElement instanceof BoundsAware) {
 				BoundsAware newBae = (BoundsAware) element;
 				BoundsAware oldBae = (BoundsAware) oldElement;
-				if (oldBae.getPosition() != null)
-					newBae.setPosition(new Point(oldBae.getPosition()));
-				if (oldBae.getSize() != null)
-					newBae.setSize(new Dimension(oldBae.getSize()));
+				Point oldPosition = oldBae.getPosition();
+				if (oldPosition != null)
+					setPosition(newBae, oldPosition.getX(), oldPosition.getY());
+				Dimension oldSize = oldBae.getSize();
+				if (oldSize != null)
+					setSize(newBae, oldSize.getWidth(), oldSize.getHeight());
 			}
 		} else if (element instanceof SEdge) {
 			SModelElement oldElement = oldIndex.get(element.getId());
@@ -80,4 +253,51 @@ public final class LayoutUtil {
 			}
 		}
 	}
+	
+	/**
+	 * Set the position of the given element. Geometry instances may be shared between model elements,
+	 * model revisions and the clients' copies of a generated model, so they are never modified in-place.
+	 * A new instance is assigned only if the position actually changes, which avoids allocations for the
+	 * elements that keep their place in a new layout.
+	 */
+	public static void setPosition(BoundsAware element, double x, double y) {
+		Point position = element.getPosition();
+		if (position == null || position.getX() != x || position.getY() != y)
+			element.setPosition(new Point(x, y));
+	}
+	
+	/**
+	 * Set the size of the given element. A new instance is assigned only if the size actually changes,
+	 * see {@link #setPosition(BoundsAware, double, double)}.
+	 */
+	public static void setSize(BoundsAware element, double width, double height) {
+		Dimension size = element.getSize();
+		if (size == null || size.getWidth() != width || size.getHeight() != height)
+			element.setSize(new Dimension(width, height));
+	}
+	
+	/**
+	 * Set the routing points of the given edge to the first {@code length} values of the given array,
+	 * which are read as pairs of x and y coordinates, e.g. from a layout cache that stores the coordinates
+	 * in flat arrays. The current list of routing points is kept if it already contains these points,
+	 * otherwise a new list is assigned. Like other geometry instances, the current list and its points
+	 * are not modified.
+	 */
+	public static void setRoutingPoints(SEdge edge, double[] coordinates, int length) {
+		List<Point> routingPoints = edge.getRoutingPoints();
+		if (routingPoints != null && routingPoints.size() == length / 2) {
+			boolean equal = true;
+			for (int i = 0; equal && i < length; i += 2) {
+				Point p = routingPoints.get(i / 2);
+				equal = p.getX() == coordinates[i] && p.getY() == coordinates[i + 1];
+			}
+			if (equal)
+				return;
+		}
+		List<Point> newRoutingPoints = new ArrayList<>(length / 2);
+		for (int i = 0; i < length; i += 2) {
+			newRoutingPoints.add(new Point(coordinates[i], coordinates[i + 1]));
+		}
+		edge.setRoutingPoints(newRoutingPoints);
+	}
 }
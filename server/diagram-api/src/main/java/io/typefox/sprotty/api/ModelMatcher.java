@@ -0,0 +1,365 @@
+/*
+ * Copyright (C) 2017 TypeFox and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.typefox.sprotty.api;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Computes the differences between two versions of a model. Model elements are matched by their id.
+ * The result is a list of {@link Match}es that can be sent to the client with an {@link UpdateModelAction},
+ * so the client can patch its current model instead of replacing it completely.
+ *
+ * <p>The client applies the matches in the given order: the left element of each match is removed
+ * from its parent, and then the right element is inserted into the children of its parent at the
+ * {@linkplain Match#getRightIndex() right index}. The removals come first, followed by the insertions in
+ * the order of the right model, so each element is inserted directly after its preceding sibling. An element
+ * whose own properties have changed, which has been moved to another parent, or whose children are not in
+ * the same order as before is sent with its whole subtree.</p>
+ */
+public class ModelMatcher {
+	
+	private static final int MAX_COMPARISON_DEPTH = 8;
+	
+	private static final Map<Class<?>, Field[]> PROPERTY_FIELDS = new ConcurrentHashMap<>();
+	
+	/**
+	 * Compute the matches required to transform the {@code left} model into the {@code right} model.
+	 * Returns {@code null} if the left model cannot be patched into the right one, e.g. because the
+	 * root elements differ, or if the matches would not be smaller than the right model.
+	 */
+	public List<Match> match(SModelRoot left, SModelRoot right) {
+		if (left == null || right == null || left == right
+				|| !Objects.equals(left.getId(), right.getId())
+				|| !Objects.equals(left.getType(), right.getType())
+				|| left.getClass() != right.getClass()
+				|| !propertiesEqual(left, right, 0))
+			return null;
+		MatchContext context = new MatchContext();
+		if (!addToIndex(left, null, context.leftIndex) || !addToIndex(right, null, context.rightIndex))
+			// Duplicate ids cannot be matched reliably
+			return null;
+		
+		if (!computeKept(right, null, context))
+			// The children of the root cannot be brought into the right order
+			return null;
+		collectInsertions(right, context);
+		if (!collectRemovals(left, context))
+			return null;
+		if (context.payloadSize >= context.rightIndex.size())
+			return null;
+		computeRightIndices(context);
+		
+		List<Match> result = new ArrayList<>(context.removals.size() + context.insertions.size());
+		result.addAll(context.removals);
+		result.addAll(context.insertions);
+		return result;
+	}
+	
+	/**
+	 * Create a reference to the given element that is sent as left element of a match. The client needs
+	 * only the id of such an element, so its content is omitted.
+	 */
+	protected SModelElement createReference(SModelElement element) {
+		try {
+			SModelElement reference = element.getClass().newInstance();
+			reference.setId(element.getId());
+			reference.setType(element.getType());
+			return reference;
+		} catch (ReflectiveOperationException e) {
+			return element;
+		}
+	}
+	
+	/**
+	 * Whether the properties of the two given elements are equal. Children are not considered here.
+	 */
+	protected boolean propertiesEqual(SModelElement left, SModelElement right) {
+		return left.getClass() == right.getClass() && propertiesEqual(left, right, 0);
+	}
+	
+	private boolean propertiesEqual(Object left, Object right, int depth) {
+		for (Field field : getPropertyFields(left.getClass())) {
+			try {
+				if (!valuesEqual(field.get(left), field.get(right), depth + 1))
+					return false;
+			} catch (IllegalAccessException e) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	private boolean valuesEqual(Object left, Object right, int depth) {
+		if (left == right)
+			return true;
+		if (left == null || right == null || left.getClass() != right.getClass())
+			return false;
+		if (left instanceof SModelElement)
+			// References to other elements are compared by id, the elements themselves are matched separately
+			return Objects.equals(((SModelElement) left).getId(), ((SModelElement) right).getId());
+		if (left instanceof List) {
+			List<?> leftList = (List<?>) left;
+			List<?> rightList = (List<?>) right;
+			if (leftList.size() != rightList.size())
+				return false;
+			for (int i = 0; i < leftList.size(); i++) {
+				if (!valuesEqual(leftList.get(i), rightList.get(i), depth + 1))
+					return false;
+			}
+			return true;
+		}
+		if (left instanceof Map) {
+			Map<?, ?> leftMap = (Map<?, ?>) left;
+			Map<?, ?> rightMap = (Map<?, ?>) right;
+			if (leftMap.size() != rightMap.size())
+				return false;
+			for (Map.Entry<?, ?> entry : leftMap.entrySet()) {
+				if (!rightMap.containsKey(entry.getKey())
+						|| !valuesEqual(entry.getValue(), rightMap.get(entry.getKey()), depth + 1))
+					return false;
+			}
+			return true;
+		}
+		if (left.getClass().isArray())
+			return Objects.deepEquals(left, right);
+		if (left instanceof Collection || depth >= MAX_COMPARISON_DEPTH || overridesEquals(left.getClass()))
+			return left.equals(right);
+		return propertiesEqual(left, right, depth);
+	}
+	
+	private boolean overridesEquals(Class<?> type) {
+		try {
+			return type.getMethod("equals", Object.class).getDeclaringClass() != Object.class;
+		} catch (NoSuchMethodException e) {
+			return false;
+		}
+	}
+	
+	private Field[] getPropertyFields(Class<?> type) {
+		Field[] fields = PROPERTY_FIELDS.get(type);
+		if (fields == null) {
+			List<Field> fieldList = new ArrayList<>();
+			for (Class<?> t = type; t != null && t != Object.class; t = t.getSuperclass()) {
+				for (Field field : t.getDeclaredFields()) {
+					int modifiers = field.getModifiers();
+					if (!Modifier.isStatic(modifiers) && !Modifier.isTransient(modifiers) && !isStructuralField(field)) {
+						field.setAccessible(true);
+						fieldList.add(field);
+					}
+				}
+			}
+			fields = fieldList.toArray(new Field[fieldList.size()]);
+			PROPERTY_FIELDS.put(type, fields);
+		}
+		return fields;
+	}
+	
+	private boolean isStructuralField(Field field) {
+		return field.getDeclaringClass() == SModelElement.class && field.getName().equals("children")
+				|| field.getDeclaringClass() == SModelRoot.class && field.getName().equals("revision");
+	}
+	
+	private boolean addToIndex(SModelElement element, String parentId, Map<String, IndexEntry> index) {
+		if (index.put(element.getId(), new IndexEntry(element, parentId)) != null)
+			return false;
+		if (element.getChildren() != null) {
+			for (SModelElement child : element.getChildren()) {
+				if (!addToIndex(child, element.getId(), index))
+					return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Determine which elements of the right model can be kept as they are in the client model.
+	 * An element is kept if it has the same parent and the same properties as in the left model,
+	 * and its kept children are in the same order as in the left model.
+	 */
+	private boolean computeKept(SModelElement right, String rightParentId, MatchContext context) {
+		IndexEntry left = context.leftIndex.get(right.getId());
+		boolean kept = left != null && Objects.equals(left.parentId, rightParentId)
+				&& (rightParentId == null || propertiesEqual(left.element, right));
+		List<SModelElement> children = right.getChildren();
+		if (children != null && !children.isEmpty()) {
+			List<String> keptChildren = new ArrayList<>(children.size());
+			for (SModelElement child : children) {
+				if (computeKept(child, right.getId(), context))
+					keptChildren.add(child.getId());
+			}
+			if (kept && !keptChildren.isEmpty()) {
+				Set<String> keptSet = new HashSet<>(keptChildren);
+				int i = 0;
+				for (SModelElement leftChild : left.element.getChildren()) {
+					if (keptSet.contains(leftChild.getId()) && !leftChild.getId().equals(keptChildren.get(i++))) {
+						kept = false;
+						break;
+					}
+				}
+			}
+		}
+		if (kept)
+			context.kept.put(right, Boolean.TRUE);
+		return kept;
+	}
+	
+	/**
+	 * Add matches for all children of kept elements that cannot be kept themselves.
+	 */
+	private void collectInsertions(SModelElement right, MatchContext context) {
+		if (right.getChildren() == null)
+			return;
+		String previousId = null;
+		for (SModelElement child : right.getChildren()) {
+			if (context.kept.containsKey(child)) {
+				collectInsertions(child, context);
+			} else {
+				Match match = new Match();
+				IndexEntry left = context.leftIndex.get(child.getId());
+				if (left != null) {
+					match.setLeft(createReference(left.element));
+					match.setLeftParentId(left.parentId);
+					context.replaced.put(child.getId(), context.insertions.size());
+				}
+				match.setRight(child);
+				match.setRightParentId(right.getId());
+				addInserted(child, context.insertions.size(), context);
+				context.payloadSize++;
+				context.insertions.add(match);
+				context.previousSiblings.add(previousId);
+			}
+			previousId = child.getId();
+		}
+	}
+	
+	private void addInserted(SModelElement element, int matchIndex, MatchContext context) {
+		context.inserted.put(element.getId(), matchIndex);
+		context.payloadSize++;
+		if (element.getChildren() != null) {
+			for (SModelElement child : element.getChildren()) {
+				addInserted(child, matchIndex, context);
+			}
+		}
+	}
+	
+	/**
+	 * Add matches for all elements of the left model that are not replaced and either do not exist
+	 * in the right model or are inserted again as part of another match. Returns {@code false} if
+	 * the insertions conflict with each other.
+	 */
+	private boolean collectRemovals(SModelElement left, MatchContext context) {
+		if (left.getChildren() == null)
+			return true;
+		for (SModelElement child : left.getChildren()) {
+			Integer replacingMatch = context.replaced.get(child.getId());
+			if (replacingMatch != null) {
+				// The client removes the whole subtree when applying the match, so the content must not
+				// have been inserted by a preceding match
+				if (!checkRemovedContent(child, replacingMatch, context))
+					return false;
+			} else if (!context.rightIndex.containsKey(child.getId()) || context.inserted.containsKey(child.getId())) {
+				Match match = new Match();
+				match.setLeft(createReference(child));
+				match.setLeftParentId(left.getId());
+				context.payloadSize++;
+				context.removals.add(match);
+			} else if (!collectRemovals(child, context)) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Compute the index at which the right element of each insertion is added to its parent. The children
+	 * of the client model are simulated while the matches are applied: each element is inserted directly
+	 * after its preceding sibling in the right model, which is either kept or has been inserted before.
+	 */
+	private void computeRightIndices(MatchContext context) {
+		Map<String, List<String>> childIds = new HashMap<>();
+		for (Match match : context.removals) {
+			getChildIds(match.getLeftParentId(), childIds, context).remove(match.getLeft().getId());
+		}
+		for (int i = 0; i < context.insertions.size(); i++) {
+			Match match = context.insertions.get(i);
+			if (match.getLeft() != null)
+				getChildIds(match.getLeftParentId(), childIds, context).remove(match.getLeft().getId());
+			List<String> siblings = getChildIds(match.getRightParentId(), childIds, context);
+			String previousId = context.previousSiblings.get(i);
+			int index = previousId == null ? 0 : siblings.indexOf(previousId) + 1;
+			siblings.add(index, match.getRight().getId());
+			match.setRightIndex(index);
+		}
+	}
+	
+	private List<String> getChildIds(String parentId, Map<String, List<String>> childIds, MatchContext context) {
+		List<String> result = childIds.get(parentId);
+		if (result == null) {
+			IndexEntry parent = context.leftIndex.get(parentId);
+			if (parent != null && parent.element.getChildren() != null) {
+				result = new ArrayList<>(parent.element.getChildren().size());
+				for (SModelElement child : parent.element.getChildren()) {
+					result.add(child.getId());
+				}
+			} else {
+				result = new ArrayList<>();
+			}
+			childIds.put(parentId, result);
+		}
+		return result;
+	}
+	
+	private boolean checkRemovedContent(SModelElement left, int removingMatch, MatchContext context) {
+		Integer insertingMatch = context.inserted.get(left.getId());
+		if (insertingMatch != null && insertingMatch < removingMatch)
+			return false;
+		if (left.getChildren() != null) {
+			for (SModelElement child : left.getChildren()) {
+				if (!checkRemovedContent(child, removingMatch, context))
+					return false;
+			}
+		}
+		return true;
+	}
+	
+	private static class IndexEntry {
+		final SModelElement element;
+		final String parentId;
+		
+		IndexEntry(SModelElement element, String parentId) {
+			this.element = element;
+			this.parentId = parentId;
+		}
+	}
+	
+	private static class MatchContext {
+		final Map<String, IndexEntry> leftIndex = new HashMap<>();
+		final Map<String, IndexEntry> rightIndex = new HashMap<>();
+		final Map<SModelElement, Boolean> kept = new IdentityHashMap<>();
+		/** Maps the ids of inserted elements (including their content) to the index of the inserting match */
+		final Map<String, Integer> inserted = new HashMap<>();
+		/** Maps the ids of replaced elements to the index of the replacing match */
+		final Map<String, Integer> replaced = new HashMap<>();
+		final List<Match> removals = new ArrayList<>();
+		final List<Match> insertions = new ArrayList<>();
+		/** The ids of the preceding siblings of the inserted elements, aligned with the insertions */
+		final List<String> previousSiblings = new ArrayList<>();
+		int payloadSize;
+	}
+	
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2017 TypeFox and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.typefox.sprotty.api;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * An executor that runs the submitted tasks one at a time and in submission order, using the threads of
+ * a delegate executor. It does not own a thread, so it can serve as a lightweight mailbox for an object
+ * whose state is confined to the tasks: many serial executors can share a small thread pool, and at most
+ * one thread of the pool is occupied by each of them. After a batch of tasks, the executor yields its
+ * thread to other tasks of the delegate.
+ */
+public class SerialExecutor implements Executor {
+	
+	private static final int MAX_BATCH_SIZE = 64;
+	
+	private final Executor delegate;
+	
+	private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+	
+	private final AtomicBoolean scheduled = new AtomicBoolean();
+	
+	public SerialExecutor(Executor delegate) {
+		if (delegate == null)
+			throw new NullPointerException();
+		this.delegate = delegate;
+	}
+	
+	@Override
+	public void execute(Runnable task) {
+		if (task == null)
+			throw new NullPointerException();
+		tasks.add(task);
+		schedule();
+	}
+	
+	private void schedule() {
+		if (!tasks.isEmpty() && scheduled.compareAndSet(false, true)) {
+			try {
+				delegate.execute(this::runTasks);
+			} catch (RejectedExecutionException exception) {
+				scheduled.set(false);
+				throw exception;
+			}
+		}
+	}
+	
+	private void runTasks() {
+		try {
+			Runnable task;
+			for (int i = 0; i < MAX_BATCH_SIZE && (task = tasks.poll()) != null; i++) {
+				try {
+					task.run();
+				} catch (RuntimeException exception) {
+					handleException(task, exception);
+				}
+			}
+		} finally {
+			scheduled.set(false);
+			// Tasks submitted while the flag was set have not been scheduled
+			schedule();
+		}
+	}
+	
+	/**
+	 * Called when a task has thrown an exception. The remaining tasks are run nevertheless. The default
+	 * implementation passes the exception to the uncaught exception handler of the current thread; override
+	 * this in order to report it elsewhere. Tasks that need to report their failures to a specific receiver,
+	 * e.g. a client, should catch their exceptions themselves.
+	 */
+	protected void handleException(Runnable task, RuntimeException exception) {
+		Thread thread = Thread.currentThread();
+		thread.getUncaughtExceptionHandler().uncaughtException(thread, exception);
+	}
+	
+	/**
+	 * Whether a task is running or waiting to be run.
+	 */
+	public boolean hasPendingTasks() {
+		return scheduled.get() || !tasks.isEmpty();
+	}
+
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2017 TypeFox and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.typefox.sprotty.api.test
+
+import io.typefox.sprotty.api.Bounds
+import io.typefox.sprotty.api.BoundsCache
+import io.typefox.sprotty.api.ComputedBoundsAction
+import io.typefox.sprotty.api.Dimension
+import io.typefox.sprotty.api.ElementAndAlignment
+import io.typefox.sprotty.api.ElementAndBounds
+import io.typefox.sprotty.api.Point
+import io.typefox.sprotty.api.SGraph
+import io.typefox.sprotty.api.SLabel
+import io.typefox.sprotty.api.SNode
+import org.junit.Test
+
+import static org.junit.Assert.*
+
+import static extension io.typefox.sprotty.api.SModelUtil.*
+
+class BoundsCacheTest {
+	
+	/**
+	 * Create a graph with one positioned node per given label text. The labels have no bounds yet.
+	 */
+	protected def createGraph(String idPrefix, String... labels) {
+		create(SGraph, 'g') [ graph |
+			labels.forEach [ text, i |
+				graph.addChild(SNode, idPrefix + 'n' + i) [
+					position = new Point(100 * i, 0)
+					addChild(SLabel, idPrefix + 'l' + i) [ it.text = text ]
+				]
+			]
+		]
+	}
+	
+	/**
+	 * Create the bounds computed by the client for a graph created with {@link #createGraph(String, String...)}.
+	 */
+	protected def createComputedBounds(String idPrefix, int nodeCount) {
+		new ComputedBoundsAction [ action |
+			action.bounds = newArrayList
+			action.alignments = newArrayList
+			for (i : 0..<nodeCount) {
+				action.bounds += new ElementAndBounds [
+					elementId = idPrefix + 'n' + i
+					newBounds = new Bounds(7, 7, 60, 20)
+				]
+				action.bounds += new ElementAndBounds [
+					elementId = idPrefix + 'l' + i
+					newBounds = new Bounds(5, 2, 30, 16)
+				]
+				action.alignments += new ElementAndAlignment [
+					elementId = idPrefix + 'l' + i
+					newAlignment = new Point(0, 12)
+				]
+			}
+		]
+	}
+	
+	@Test
+	def void testComputeKeys() {
+		val cache = new BoundsCache
+		val keys = cache.computeKeys(createGraph('', 'a', 'b'))
+		assertEquals(#{'n0', 'l0', 'n1', 'l1'}, keys.keySet)
+		// The keys depend on the content, not on the ids
+		val otherKeys = cache.computeKeys(createGraph('other', 'a', 'x'))
+		assertEquals(keys.get('n0'), otherKeys.get('othern0'))
+		assertEquals(keys.get('l0'), otherKeys.get('otherl0'))
+		// The key of a node covers its children
+		assertNotEquals(keys.get('n1'), otherKeys.get('othern1'))
+		assertNotEquals(keys.get('l1'), otherKeys.get('otherl1'))
+	}
+	
+	@Test
+	def void testApplyHits() {
+		val cache = new BoundsCache
+		cache.put(cache.computeKeys(createGraph('', 'a', 'b')), createComputedBounds('', 2))
+		val model = createGraph('other', 'a', 'b')
+		assertTrue(cache.apply(model, cache.computeKeys(model)))
+		assertEquals(4, cache.hitCount)
+		assertEquals(0, cache.missCount)
+		val node = model.children.head as SNode
+		val label = node.children.head as SLabel
+		assertEquals(new Dimension(60, 20), node.size)
+		// The position of the node has been determined by the server, so only the label gets the cached position
+		assertEquals(new Point(0, 0), node.position)
+		assertEquals(new Point(5, 2), label.position)
+		assertEquals(new Dimension(30, 16), label.size)
+		assertEquals(new Point(0, 12), label.alignment)
+	}
+	
+	@Test
+	def void testApplyMisses() {
+		val cache = new BoundsCache
+		cache.put(cache.computeKeys(createGraph('', 'a', 'b')), createComputedBounds('', 2))
+		val model = createGraph('', 'a', 'changed')
+		val missingIds = newHashSet
+		assertFalse(cache.apply(model, cache.computeKeys(model), missingIds))
+		assertEquals(#{'n1', 'l1'}, missingIds)
+		assertEquals(2, cache.hitCount)
+		assertEquals(2, cache.missCount)
+		assertNull((model.children.get(1).children.head as SLabel).size)
+	}
+	
+	@Test
+	def void testPutIgnoresUnknownElements() {
+		val cache = new BoundsCache
+		val keys = cache.computeKeys(createGraph('', 'a'))
+		cache.put(keys, createComputedBounds('', 2))
+		assertEquals(2, cache.size)
+	}
+	
+}
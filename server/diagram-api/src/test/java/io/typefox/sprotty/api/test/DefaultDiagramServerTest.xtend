@@ -0,0 +1,311 @@
+/*
+ * Copyright (C) 2017 TypeFox and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.typefox.sprotty.api.test
+
+import io.typefox.sprotty.api.Action
+import io.typefox.sprotty.api.ActionMessage
+import io.typefox.sprotty.api.Bounds
+import io.typefox.sprotty.api.ComputedBoundsAction
+import io.typefox.sprotty.api.DefaultDiagramServer
+import io.typefox.sprotty.api.Dimension
+import io.typefox.sprotty.api.ElementAndBounds
+import io.typefox.sprotty.api.ILabelMeasurer
+import io.typefox.sprotty.api.Point
+import io.typefox.sprotty.api.RequestBoundsAction
+import io.typefox.sprotty.api.RequestPopupModelAction
+import io.typefox.sprotty.api.SCompartment
+import io.typefox.sprotty.api.SGraph
+import io.typefox.sprotty.api.SLabel
+import io.typefox.sprotty.api.SNode
+import io.typefox.sprotty.api.SelectAction
+import io.typefox.sprotty.api.ServerStatusAction
+import io.typefox.sprotty.api.SetModelAction
+import io.typefox.sprotty.api.UpdateModelAction
+import java.util.List
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.atomic.AtomicInteger
+import org.junit.Test
+
+import static org.junit.Assert.*
+
+import static extension io.typefox.sprotty.api.SModelUtil.*
+
+class DefaultDiagramServerTest {
+	
+	/**
+	 * Measures each character as 10 pixels wide, except for the text 'unknown', which cannot be measured.
+	 */
+	private static class TestLabelMeasurer implements ILabelMeasurer {
+		
+		override measure(SLabel label) {
+			if (label.text == 'unknown')
+				return false
+			label.size = new Dimension(label.text.length * 10, 20)
+			return true
+		}
+		
+	}
+	
+	val List<ActionMessage> messages = newArrayList
+	
+	/**
+	 * Create a server that processes all actions and models on the calling thread.
+	 */
+	protected def createServer() {
+		new DefaultDiagramServer('client') => [
+			messageExecutor = null
+			layoutExecutor = null
+			remoteEndpoint = [ messages += it ]
+		]
+	}
+	
+	/**
+	 * Create a graph with four nodes, each with a label. The label of the first node has the given text.
+	 * If {@code sizedNode} is set, a fifth node with a predefined size and no label is added.
+	 */
+	protected def createModel(String labelText, boolean sizedNode) {
+		create(SGraph, 'g') [ graph |
+			for (i : 0..<4) {
+				graph.addChild(SNode, 'n' + i) [
+					addChild(SLabel, 'l' + i) [ text = if (i == 0) labelText else 'Node' ]
+				]
+			}
+			if (sizedNode)
+				graph.addChild(SNode, 'n4') [ size = new Dimension(50, 30) ]
+		]
+	}
+	
+	/**
+	 * Create the bounds computed by the client for a model created with {@link #createModel(String, boolean)}.
+	 */
+	protected def createComputedBounds(int revision, double labelWidth) {
+		new ComputedBoundsAction [ action |
+			action.revision = revision
+			action.bounds = newArrayList
+			for (i : 0..<4) {
+				action.bounds += new ElementAndBounds [
+					elementId = 'n' + i
+					newBounds = new Bounds(0, 0, 50, 30)
+				]
+				action.bounds += new ElementAndBounds [
+					elementId = 'l' + i
+					newBounds = new Bounds(5, 5, if (i == 0) labelWidth else 40, 20)
+				]
+			}
+			action.alignments = newArrayList
+		]
+	}
+	
+	@Test
+	def void testComputeBoundsOnServer() {
+		val server = createServer
+		server.labelMeasurer = new TestLabelMeasurer
+		val model = create(SGraph, 'g') [
+			addChild(SNode, 'n') [
+				size = new Dimension(50, 30)
+				addChild(SLabel, 'l') [ text = 'Foo' ]
+			]
+		]
+		server.model = model
+		assertEquals(1, messages.size)
+		assertTrue(messages.head.action instanceof SetModelAction)
+		assertEquals(new Dimension(30, 20), (model.children.head.children.head as SLabel).size)
+	}
+	
+	@Test
+	def void testClientLayoutPreventsMeasuring() {
+		val server = createServer
+		server.labelMeasurer = new TestLabelMeasurer
+		val model = create(SGraph, 'g') [
+			addChild(SLabel, 'l') [ text = 'Foo' ]
+			addChild(SNode, 'n') [
+				size = new Dimension(50, 30)
+				addChild(SCompartment, 'c') [
+					size = new Dimension(50, 30)
+					layout = 'vbox'
+				]
+			]
+		]
+		server.model = model
+		assertEquals(1, messages.size)
+		assertTrue(messages.head.action instanceof RequestBoundsAction)
+		assertNull((model.children.head as SLabel).size)
+	}
+	
+	@Test
+	def void testUnmeasurableLabelLeavesModelUnchanged() {
+		val server = createServer
+		server.labelMeasurer = new TestLabelMeasurer
+		val model = create(SGraph, 'g') [
+			addChild(SLabel, 'l1') [ text = 'Foo' ]
+			addChild(SLabel, 'l2') [ text = 'unknown' ]
+		]
+		server.model = model
+		assertEquals(1, messages.size)
+		assertTrue(messages.head.action instanceof RequestBoundsAction)
+		assertNull((model.children.head as SLabel).size)
+	}
+	
+	@Test
+	def void testProvisionalSubmitConfirmed() {
+		val server = createServer
+		val layoutCount = new AtomicInteger
+		server.layoutEngine = [ layoutCount.incrementAndGet ]
+		server.needsServerLayout = true
+		server.maxStaleRevisions = 1
+		server.model = createModel('Foo', false)
+		server.updateModel(createModel('Bar', false))
+		assertEquals(2, messages.size)
+		server.accept(new ActionMessage('client', createComputedBounds(1, 30)))
+		assertEquals(1, layoutCount.get)
+		assertEquals(3, messages.size)
+		assertTrue(messages.last.action instanceof SetModelAction)
+		server.accept(new ActionMessage('client', createComputedBounds(2, 30)))
+		assertEquals(1, layoutCount.get)
+		assertEquals(3, messages.size)
+		assertEquals(1, server.boundsStatistics.provisionalSubmits)
+		assertEquals(1, server.boundsStatistics.confirmedProvisionalSubmits)
+		assertEquals(1, server.boundsStatistics.settledRevisions)
+	}
+	
+	@Test
+	def void testProvisionalSubmitCorrected() {
+		val server = createServer
+		val layoutCount = new AtomicInteger
+		server.layoutEngine = [ layoutCount.incrementAndGet ]
+		server.needsServerLayout = true
+		server.maxStaleRevisions = 1
+		server.model = createModel('Foo', false)
+		server.updateModel(createModel('Foobar', false))
+		server.accept(new ActionMessage('client', createComputedBounds(1, 30)))
+		server.accept(new ActionMessage('client', createComputedBounds(2, 60)))
+		assertEquals(2, layoutCount.get)
+		assertEquals(4, messages.size)
+		// Only the label with the corrected size is sent to the client
+		val update = messages.last.action as UpdateModelAction
+		assertNull(update.newRoot)
+		assertEquals(1, update.matches.size)
+		assertEquals('l0', update.matches.head.right.id)
+		assertEquals(0, server.boundsStatistics.confirmedProvisionalSubmits)
+	}
+	
+	@Test
+	def void testStaleBoundsDoNotCoverNewElements() {
+		val server = createServer
+		val layoutCount = new AtomicInteger
+		server.layoutEngine = [ layoutCount.incrementAndGet ]
+		server.needsServerLayout = true
+		server.maxStaleRevisions = 1
+		server.model = createModel('Foo', false)
+		server.updateModel(createModel('Foo', true))
+		server.accept(new ActionMessage('client', createComputedBounds(1, 30)))
+		// The predefined size of the new node is not a bound computed by the client
+		assertEquals(0, layoutCount.get)
+		assertEquals(2, messages.size)
+		assertEquals(1, server.boundsStatistics.staleMerges)
+		assertEquals(0, server.boundsStatistics.provisionalSubmits)
+	}
+	
+	@Test
+	def void testLayoutDataNotCopiedFromCancelledLayout() {
+		val server = createServer
+		val tasks = <Runnable>newArrayList
+		server.layoutExecutor = [ tasks += it ]
+		server.needsClientLayout = false
+		server.needsServerLayout = true
+		val model1 = createModel('Foo', true)
+		val model2 = createModel('Foo', true)
+		val model3 = createModel('Foo', true)
+		val initialPositions = <Point>newArrayList
+		server.layoutEngine = [ root |
+			val node = root.children.last as SNode
+			initialPositions += node.position
+			node.position = new Point(root.revision * 10, 0)
+			if (root === model2) {
+				// A new revision arrives while the layout is still writing into the previous one
+				server.updateModel(model3)
+				// Clear the interruption caused by the cancellation
+				Thread.interrupted
+			}
+		]
+		server.model = model1
+		tasks.remove(0).run
+		server.updateModel(model2)
+		tasks.remove(0).run
+		tasks.remove(0).run
+		// The third revision starts with the layout of the first one, which has been sent to the client
+		assertEquals(#[null, new Point(10, 0), new Point(10, 0)], initialPositions)
+		assertEquals(new Point(30, 0), (model3.children.last as SNode).position)
+		assertEquals(2, messages.size)
+	}
+	
+	@Test
+	def void testHandlerErrorReportedToClient() {
+		val server = createServer
+		server.popupModelFactory = [ element, request, s | throw new IllegalStateException('Popup failed') ]
+		server.model = create(SGraph, 'g') [
+			addChild(SNode, 'n') [ size = new Dimension(50, 30) ]
+		]
+		messages.clear
+		server.accept(new ActionMessage('client', new RequestPopupModelAction [ elementId = 'n' ]))
+		assertEquals(1, messages.size)
+		val status = messages.head.action as ServerStatusAction
+		assertEquals('ERROR', status.severity)
+		assertTrue(status.message.contains('Popup failed'))
+	}
+	
+	@Test
+	def void testOptionsSnapshot() {
+		val server = createServer
+		server.options.put('foo', 'bar')
+		val state = server.diagramState
+		server.options.put('foo', 'baz')
+		assertEquals('bar', state.options.get('foo'))
+		assertEquals('baz', server.diagramState.options.get('foo'))
+	}
+	
+	@Test
+	def void testActionsDeferredWhileRestoring() {
+		val restoration = new CompletableFuture<Void>
+		val server = new DefaultDiagramServer('client') {
+			override protected restoreModel(Action action) {
+				restoration
+			}
+		}
+		server.messageExecutor = null
+		server.layoutExecutor = null
+		server.remoteEndpoint = [ messages += it ]
+		server.needsClientLayout = false
+		val popupElements = <String>newArrayList
+		server.popupModelFactory = [ element, request, s |
+			popupElements += element.id
+			return null
+		]
+		server.model = createModel('Foo', false)
+		assertTrue(server.hibernate)
+		server.accept(new ActionMessage('client', new RequestPopupModelAction [ elementId = 'n0' ]))
+		assertTrue(popupElements.empty)
+		assertFalse(server.hibernate)
+		server.updateModel(createModel('Foo', false))
+		restoration.complete(null)
+		assertEquals(#['n0'], popupElements)
+	}
+	
+	@Test
+	def void testModelUpdatesAreNoClientActivity() {
+		val server = createServer
+		server.needsClientLayout = false
+		val creationTime = server.lastActivityTime
+		Thread.sleep(10)
+		server.model = createModel('Foo', false)
+		server.updateModel(createModel('Bar', false))
+		assertEquals(creationTime, server.lastActivityTime)
+		server.accept(new ActionMessage('client', new SelectAction))
+		assertTrue(server.lastActivityTime > creationTime)
+	}
+	
+}
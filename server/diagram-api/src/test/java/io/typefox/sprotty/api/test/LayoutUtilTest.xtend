@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2017 TypeFox and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.typefox.sprotty.api.test
+
+import io.typefox.sprotty.api.LayoutUtil
+import io.typefox.sprotty.api.SCompartment
+import io.typefox.sprotty.api.SGraph
+import io.typefox.sprotty.api.SLabel
+import io.typefox.sprotty.api.SNode
+import org.junit.Test
+
+import static org.junit.Assert.*
+
+import static extension io.typefox.sprotty.api.SModelUtil.*
+
+class LayoutUtilTest {
+	
+	/**
+	 * Create a graph with three nodes, each containing a compartment with a label. The compartment
+	 * of node 'n1' is arranged by a client layout.
+	 */
+	protected def createGraph() {
+		create(SGraph, 'g') [ graph |
+			for (i : 0..<3) {
+				graph.addChild(SNode, 'n' + i) [
+					addChild(SCompartment, 'c' + i) [
+						if (i == 1)
+							layout = 'vbox'
+						addChild(SLabel, 'l' + i) [ text = 'Label' ]
+					]
+				]
+			}
+		]
+	}
+	
+	@Test
+	def void testPartialModel() {
+		val model = createGraph
+		val includedIds = newHashSet
+		val partialModel = LayoutUtil.createPartialModel(model, #{'l0'}, includedIds)
+		assertEquals(#{'l0'}, includedIds)
+		// The ancestors are copies that contain only the requested subtree
+		assertNotSame(model, partialModel)
+		assertEquals(#['n0'], partialModel.children.map[id])
+		assertNotSame(model.children.head, partialModel.children.head)
+		assertEquals(#['c0'], partialModel.children.head.children.map[id])
+		assertSame(model.children.head.children.head.children.head, partialModel.children.head.children.head.children.head)
+		assertEquals(3, model.children.size)
+		assertEquals(1, model.children.head.children.head.children.size)
+	}
+	
+	@Test
+	def void testPartialModelWidenedToClientLayout() {
+		val model = createGraph
+		val includedIds = newHashSet
+		val partialModel = LayoutUtil.createPartialModel(model, #{'l1'}, includedIds)
+		// The compartment arranges its children, so it is included with all of them
+		assertEquals(#{'c1', 'l1'}, includedIds)
+		assertEquals(#['n1'], partialModel.children.map[id])
+		assertSame(model.children.get(1).children.head, partialModel.children.head.children.head)
+	}
+	
+	@Test
+	def void testPartialModelWidenedToNestedClientLayouts() {
+		val model = createGraph
+		(model.children.get(1) as SNode).layout = 'hbox'
+		val includedIds = newHashSet
+		val partialModel = LayoutUtil.createPartialModel(model, #{'l1'}, includedIds)
+		assertEquals(#{'n1', 'c1', 'l1'}, includedIds)
+		assertNotSame(model, partialModel)
+		assertSame(model.children.get(1), partialModel.children.head)
+	}
+	
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2017 TypeFox and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.typefox.sprotty.api.test
+
+import io.typefox.sprotty.api.Dimension
+import io.typefox.sprotty.api.LayoutUtil
+import io.typefox.sprotty.api.Match
+import io.typefox.sprotty.api.ModelMatcher
+import io.typefox.sprotty.api.Point
+import io.typefox.sprotty.api.SGraph
+import io.typefox.sprotty.api.SLabel
+import io.typefox.sprotty.api.SModelElement
+import io.typefox.sprotty.api.SModelIndex
+import io.typefox.sprotty.api.SModelRoot
+import io.typefox.sprotty.api.SNode
+import java.util.List
+import org.junit.Test
+
+import static org.junit.Assert.*
+
+import static extension io.typefox.sprotty.api.SModelUtil.*
+
+class ModelMatcherTest {
+	
+	/**
+	 * Create a graph with one node per given label text. The nodes have the ids 'n0', 'n1', ..., and
+	 * their labels have the ids 'l0', 'l1', ...
+	 */
+	protected def createGraph(String... labels) {
+		create(SGraph, 'g') [ graph |
+			labels.forEach [ text, i |
+				graph.addChild(SNode, 'n' + i) [
+					position = new Point(100 * i, 0)
+					size = new Dimension(50, 30)
+					addChild(SLabel, 'l' + i) [ it.text = text ]
+				]
+			]
+		]
+	}
+	
+	protected def String print(List<Match> matches) {
+		matches?.map [
+			'''«left?.id»@«leftParentId» -> «right?.id»@«rightParentId»:«rightIndex»'''
+		]?.join('\n')
+	}
+	
+	/**
+	 * Apply the matches to the given model in the same way as the client does.
+	 */
+	protected def void applyMatches(SModelRoot root, List<Match> matches) {
+		for (match : matches) {
+			if (match.left !== null) {
+				val index = new SModelIndex(root)
+				val element = index.get(match.left.id)
+				if (element !== null)
+					index.get(match.leftParentId).children.remove(element)
+			}
+			if (match.right !== null) {
+				val parent = new SModelIndex(root).get(match.rightParentId)
+				parent.children.add(match.rightIndex, match.right)
+			}
+		}
+	}
+	
+	protected def String printTree(SModelElement element) {
+		'''«element.id»«IF element instanceof SNode»«(element as SNode).position»«ENDIF»«IF element instanceof SLabel»«(element as SLabel).text»«ENDIF»[«FOR child : element.children ?: #[] SEPARATOR ','»«printTree(child)»«ENDFOR»]'''
+	}
+	
+	@Test
+	def void testEqualModels() {
+		val matches = new ModelMatcher().match(createGraph('a', 'b', 'c'), createGraph('a', 'b', 'c'))
+		assertEquals(#[], matches)
+	}
+	
+	@Test
+	def void testChangedElement() {
+		val right = createGraph('a', 'x', 'c', 'd')
+		val matches = new ModelMatcher().match(createGraph('a', 'b', 'c', 'd'), right)
+		assertEquals('l1@n1 -> l1@n1:0', print(matches))
+		// The left element is only a reference, the right element is the new one
+		assertNull(matches.head.left.children)
+		assertSame(right.children.get(1).children.head, matches.head.right)
+	}
+	
+	@Test
+	def void testRemovedElement() {
+		val matches = new ModelMatcher().match(createGraph('a', 'b', 'c', 'd'), createGraph('a', 'b', 'c'))
+		assertEquals('n3@g -> null@null:null', print(matches))
+	}
+	
+	@Test
+	def void testAddedElement() {
+		val matches = new ModelMatcher().match(createGraph('a', 'b', 'c'), createGraph('a', 'b', 'c', 'd'))
+		assertEquals('null@null -> n3@g:3', print(matches))
+	}
+	
+	@Test
+	def void testMovedToOtherParent() {
+		val right = createGraph('a', 'b', 'c', 'd')
+		right.children.get(2).children += right.children.get(1).children.remove(0)
+		val matches = new ModelMatcher().match(createGraph('a', 'b', 'c', 'd'), right)
+		assertEquals('l1@n1 -> l1@n2:1', print(matches))
+	}
+	
+	@Test
+	def void testChangedLastChild() {
+		val right = createGraph('a', 'b', 'c', 'd')
+		(right.children.get(3) as SNode).position = new Point(500, 0)
+		val matches = new ModelMatcher().match(createGraph('a', 'b', 'c', 'd'), right)
+		// The node is replaced together with its label
+		assertEquals('n3@g -> n3@g:3', print(matches))
+		assertSame(right.children.get(3), matches.head.right)
+	}
+	
+	@Test
+	def void testChangedMiddleChild() {
+		val right = createGraph('a', 'b', 'c', 'd')
+		(right.children.get(1) as SNode).position = new Point(500, 0)
+		val matches = new ModelMatcher().match(createGraph('a', 'b', 'c', 'd'), right)
+		// The node is inserted again at its former position
+		assertEquals('n1@g -> n1@g:1', print(matches))
+	}
+	
+	@Test
+	def void testApplyMatches() {
+		val left = createGraph('a', 'b', 'c', 'd', 'e', 'f')
+		val right = createGraph('a', 'b', 'c', 'd', 'e', 'f')
+		(right.children.get(1) as SNode).position = new Point(500, 0)
+		(right.children.get(4).children.head as SLabel).text = 'x'
+		right.children.remove(2)
+		right.children.add(0, createGraph('a', 'b', 'c', 'd', 'e', 'f', 'g').children.last)
+		val matches = new ModelMatcher().match(left, right)
+		assertEquals('''
+			n2@g -> null@null:null
+			null@null -> n6@g:0
+			n1@g -> n1@g:2
+			l4@n4 -> l4@n4:0'''.toString, print(matches))
+		val client = LayoutUtil.copyModel(left)
+		applyMatches(client, matches)
+		assertEquals(printTree(right), printTree(client))
+	}
+	
+	@Test
+	def void testDifferentRoots() {
+		val right = createGraph('a', 'b')
+		right.type = 'other'
+		assertNull(new ModelMatcher().match(createGraph('a', 'b'), right))
+	}
+	
+	@Test
+	def void testMatchesNotSmaller() {
+		val right = createGraph('a', 'b', 'c', 'd')
+		for (node : right.children.filter(SNode)) {
+			node.size = new Dimension(80, 30)
+		}
+		assertNull(new ModelMatcher().match(createGraph('a', 'b', 'c', 'd'), right))
+	}
+	
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2017 TypeFox and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.typefox.sprotty.layout;
+
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.elk.alg.layered.options.LayeredOptions;
+import org.eclipse.elk.core.IGraphLayoutEngine;
+import org.eclipse.elk.core.RecursiveGraphLayoutEngine;
+import org.eclipse.elk.core.options.CoreOptions;
+import org.eclipse.elk.core.util.BasicProgressMonitor;
+import org.eclipse.elk.graph.ElkEdge;
+import org.eclipse.elk.graph.ElkNode;
+import org.eclipse.elk.graph.util.ElkGraphUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Compares the sequential {@link RecursiveGraphLayoutEngine} with the {@link ParallelGraphLayoutEngine}
+ * on a graph with many independent compound nodes. The speedup depends on the number of available
+ * processors, which is printed when the benchmark state is set up together with the result of
+ * a determinism check.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ParallelLayoutBenchmark {
+	
+	@Param({ "8", "64" })
+	public int compoundCount;
+	
+	@Param({ "50" })
+	public int nodesPerCompound;
+	
+	private ElkNode graph;
+	
+	private final IGraphLayoutEngine sequentialEngine = new RecursiveGraphLayoutEngine();
+	
+	private final IGraphLayoutEngine parallelEngine = new ParallelGraphLayoutEngine();
+	
+	@Setup
+	public void setup() {
+		ElkLayoutEngine.initialize(new LayeredOptions());
+		graph = createGraph(compoundCount, nodesPerCompound);
+		ElkNode graph1 = createGraph(compoundCount, nodesPerCompound);
+		sequentialEngine.layout(graph1, new BasicProgressMonitor());
+		ElkNode graph2 = createGraph(compoundCount, nodesPerCompound);
+		parallelEngine.layout(graph2, new BasicProgressMonitor());
+		System.out.println();
+		System.out.println("Processors: " + Runtime.getRuntime().availableProcessors()
+				+ ", same result: " + (ElkGraphFingerprint.of(graph1) == ElkGraphFingerprint.of(graph2)));
+	}
+	
+	public static ElkNode createGraph(int compoundCount, int nodesPerCompound) {
+		ElkNode root = ElkGraphUtil.createGraph();
+		root.setIdentifier("graph");
+		root.setProperty(CoreOptions.ALGORITHM, LayeredOptions.ALGORITHM_ID);
+		ElkNode previousCompound = null;
+		for (int i = 0; i < compoundCount; i++) {
+			ElkNode compound = ElkGraphUtil.createNode(root);
+			compound.setIdentifier("compound" + i);
+			compound.setProperty(CoreOptions.ALGORITHM, LayeredOptions.ALGORITHM_ID);
+			ElkNode[] nodes = new ElkNode[nodesPerCompound];
+			for (int j = 0; j < nodesPerCompound; j++) {
+				nodes[j] = ElkGraphUtil.createNode(compound);
+				nodes[j].setIdentifier("compound" + i + "_node" + j);
+				nodes[j].setDimensions(30 + j % 7 * 5, 20 + j % 3 * 5);
+				if (j > 0)
+					createEdge(compound, nodes[j / 2], nodes[j], "compound" + i + "_edge" + j);
+				if (j > 2 && j % 5 == 0)
+					createEdge(compound, nodes[j - 3], nodes[j], "compound" + i + "_back" + j);
+			}
+			if (previousCompound != null)
+				createEdge(root, previousCompound, compound, "edge" + i);
+			previousCompound = compound;
+		}
+		return root;
+	}
+	
+	private static ElkEdge createEdge(ElkNode container, ElkNode source, ElkNode target, String id) {
+		ElkEdge edge = ElkGraphUtil.createEdge(container);
+		edge.setIdentifier(id);
+		edge.getSources().add(source);
+		edge.getTargets().add(target);
+		return edge;
+	}
+	
+	@Benchmark
+	public ElkNode sequentialLayout() {
+		sequentialEngine.layout(graph, new BasicProgressMonitor());
+		return graph;
+	}
+	
+	@Benchmark
+	public ElkNode parallelLayout() {
+		parallelEngine.layout(graph, new BasicProgressMonitor());
+		return graph;
+	}
+
+}
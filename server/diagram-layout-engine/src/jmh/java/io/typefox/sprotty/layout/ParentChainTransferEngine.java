@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2017 TypeFox and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.typefox.sprotty.layout;
+
+import java.util.LinkedList;
+
+import org.eclipse.elk.graph.ElkGraphElement;
+import org.eclipse.elk.graph.ElkLabel;
+import org.eclipse.elk.graph.ElkNode;
+import org.eclipse.elk.graph.ElkPort;
+import org.eclipse.elk.graph.ElkShape;
+import org.eclipse.emf.ecore.EObject;
+
+import io.typefox.sprotty.api.BoundsAware;
+import io.typefox.sprotty.api.LayoutUtil;
+import io.typefox.sprotty.api.Point;
+import io.typefox.sprotty.api.SLabel;
+import io.typefox.sprotty.api.SModelElement;
+import io.typefox.sprotty.api.SNode;
+import io.typefox.sprotty.api.SPort;
+
+/**
+ * The layout transfer as implemented before the introduction of coordinate frames: the offset of each
+ * element is computed by building and matching the lists of its sprotty and ELK parents. This serves
+ * as baseline for {@link TransferLayoutBenchmark}. Edges are not covered.
+ */
+public class ParentChainTransferEngine extends ElkLayoutEngine {
+	
+	@Override
+	protected void transferNodeLayout(SNode snode, ElkNode elkNode, LayoutContext context) {
+		Point offset = getOffset(snode, elkNode, context);
+		LayoutUtil.setPosition(snode, elkNode.getX() + offset.getX(), elkNode.getY() + offset.getY());
+		LayoutUtil.setSize(snode, elkNode.getWidth(), elkNode.getHeight());
+	}
+	
+	@Override
+	protected void transferPortLayout(SPort sport, ElkPort elkPort, LayoutContext context) {
+		Point offset = getOffset(sport, elkPort, context);
+		LayoutUtil.setPosition(sport, elkPort.getX() + offset.getX(), elkPort.getY() + offset.getY());
+		LayoutUtil.setSize(sport, elkPort.getWidth(), elkPort.getHeight());
+	}
+	
+	@Override
+	protected void transferLabelLayout(SLabel slabel, ElkLabel elkLabel, LayoutContext context) {
+		Point offset = getOffset(slabel, elkLabel, context);
+		LayoutUtil.setPosition(slabel, elkLabel.getX() + offset.getX(), elkLabel.getY() + offset.getY());
+		LayoutUtil.setSize(slabel, elkLabel.getWidth(), elkLabel.getHeight());
+	}
+	
+	/**
+	 * The previous implementation, which walks both parent chains for every element.
+	 */
+	@Override
+	protected Point getOffset(SModelElement selem, ElkGraphElement elkElem, LayoutContext context) {
+		// Build a list of parents of the sprotty model element
+		LinkedList<SModelElement> sParents = null;
+		SModelElement currentSParent = selem;
+		while (currentSParent != null) {
+			currentSParent = context.parentMap.get(currentSParent);
+			if (currentSParent != null) {
+				ElkShape shapeForSParent = context.shapeMap.get(currentSParent);
+				if (shapeForSParent == elkElem.eContainer()) {
+					// Shortcut: the current sprotty parent matches the ELK container 
+					double x = 0, y = 0;
+					if (sParents != null) {
+						for (SModelElement sParent : sParents) {
+							if (sParent instanceof BoundsAware) {
+								Point position = ((BoundsAware) sParent).getPosition();
+								x -= position.getX();
+								y -= position.getY();
+							}
+						}
+					}
+					return new Point(x, y);
+				}
+				if (sParents == null)
+					sParents = new LinkedList<>();
+				sParents.addFirst(currentSParent);
+			}
+		}
+		
+		// Build a list of parents of the ELK graph element
+		LinkedList<EObject> elkParents = new LinkedList<>();
+		EObject currentElkParent = elkElem;
+		while (currentElkParent != null) {
+			currentElkParent = currentElkParent.eContainer();
+			if (currentElkParent != null) {
+				elkParents.addFirst(currentElkParent);
+			}
+		}
+		
+		boolean foundMismatch = false;
+		do {
+			// Find the next sprotty parent that is connected to a shape
+			ElkShape shapeForSParent = null;
+			int nextSParentIndex = 0;
+			while (shapeForSParent == null && nextSParentIndex < sParents.size()) {
+				shapeForSParent = context.shapeMap.get(sParents.get(nextSParentIndex++));
+			}
+			// Find the next ELK parent that is a shape
+			ElkShape elkParentShape = null;
+			while (elkParentShape == null && !elkParents.isEmpty()) {
+				EObject elkParent = elkParents.getFirst();
+				if (elkParent instanceof ElkShape)
+					elkParentShape = (ElkShape) elkParent;
+				else
+					elkParents.removeFirst();
+			}
+			// Remove the current parents if they match
+			if (shapeForSParent != null && shapeForSParent == elkParentShape) {
+				for (int i = 0; i < nextSParentIndex; i++) {
+					sParents.removeFirst();
+				}
+				elkParents.removeFirst();
+			} else {
+				foundMismatch = true;
+			}
+		} while (!foundMismatch && !sParents.isEmpty() && !elkParents.isEmpty());
+		
+		double x = 0, y = 0;
+		// Add the remaining ELK shapes to the offset
+		for (EObject elkParent : elkParents) {
+			if (elkParent instanceof ElkShape) {
+				ElkShape elkShape = (ElkShape) elkParent;
+				x += elkShape.getX();
+				y += elkShape.getY();
+			}
+		}
+		// Subtract the remaining sprotty shapes from the offset
+		for (SModelElement sParent : sParents) {
+			if (sParent instanceof BoundsAware) {
+				Point position = ((BoundsAware) sParent).getPosition();
+				x -= position.getX();
+				y -= position.getY();
+			}
+		}
+		return new Point(x, y);
+	}
+
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2017 TypeFox and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.typefox.sprotty.layout;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import io.typefox.sprotty.api.Dimension;
+import io.typefox.sprotty.api.Point;
+import io.typefox.sprotty.api.SGraph;
+import io.typefox.sprotty.api.SLabel;
+import io.typefox.sprotty.api.SModelElement;
+import io.typefox.sprotty.api.SNode;
+import io.typefox.sprotty.api.SPort;
+
+/**
+ * Measures the transfer of a computed ELK layout to the sprotty graph, comparing the precomputed coordinate
+ * frames of {@link ElkLayoutEngine} with the parent chain matching of {@link ParentChainTransferEngine}.
+ * The graphs are trees of nested nodes with the given depth and number of children per node, each node
+ * having a label and a port.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TransferLayoutBenchmark {
+	
+	@Param({ "2:40", "4:6", "10:2" })
+	public String shape;
+	
+	private ElkLayoutEngine frameEngine;
+	
+	private ElkLayoutEngine.LayoutContext frameContext;
+	
+	private ParentChainTransferEngine parentChainEngine;
+	
+	private ElkLayoutEngine.LayoutContext parentChainContext;
+	
+	@Setup
+	public void setup() {
+		String[] parts = shape.split(":");
+		int depth = Integer.parseInt(parts[0]);
+		int fanOut = Integer.parseInt(parts[1]);
+		frameEngine = new ElkLayoutEngine();
+		frameContext = frameEngine.transformGraph(createGraph(depth, fanOut));
+		parentChainEngine = new ParentChainTransferEngine();
+		parentChainContext = parentChainEngine.transformGraph(createGraph(depth, fanOut));
+		System.out.println();
+		System.out.println("Elements: " + frameContext.shapeMap.size());
+	}
+	
+	public static SGraph createGraph(int depth, int fanOut) {
+		SGraph graph = new SGraph();
+		graph.setType("graph");
+		graph.setId("graph");
+		graph.setChildren(createNodes("graph", depth, fanOut));
+		return graph;
+	}
+	
+	private static List<SModelElement> createNodes(String parentId, int depth, int fanOut) {
+		List<SModelElement> nodes = new ArrayList<>(fanOut);
+		for (int i = 0; i < fanOut; i++) {
+			String id = parentId + "/n" + i;
+			SNode node = new SNode();
+			node.setType("node");
+			node.setId(id);
+			node.setPosition(new Point(i * 10, i * 5));
+			node.setSize(new Dimension(100, 50));
+			List<SModelElement> children = new ArrayList<>();
+			SLabel label = new SLabel();
+			label.setType("label");
+			label.setId(id + "/label");
+			label.setText(id);
+			label.setPosition(new Point(5, 5));
+			label.setSize(new Dimension(30, 10));
+			children.add(label);
+			SPort port = new SPort();
+			port.setType("port");
+			port.setId(id + "/port");
+			port.setPosition(new Point(0, 20));
+			port.setSize(new Dimension(5, 5));
+			children.add(port);
+			if (depth > 1)
+				children.addAll(createNodes(id, depth - 1, fanOut));
+			node.setChildren(children);
+			nodes.add(node);
+		}
+		return nodes;
+	}
+	
+	@Benchmark
+	public SGraph coordinateFrames() {
+		frameContext.sprottyFrames.clear();
+		frameContext.elkFrames.clear();
+		frameEngine.transferLayout(frameContext);
+		return frameContext.sgraph;
+	}
+	
+	@Benchmark
+	public SGraph parentChains() {
+		parentChainEngine.transferLayout(parentChainContext);
+		return parentChainContext.sgraph;
+	}
+	
+}
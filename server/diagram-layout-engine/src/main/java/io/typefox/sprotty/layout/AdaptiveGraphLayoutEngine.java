@@ -0,0 +1,406 @@
+/*
+ * Copyright (C) 2017 TypeFox and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.typefox.sprotty.layout;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.elk.core.IGraphLayoutEngine;
+import org.eclipse.elk.core.RecursiveGraphLayoutEngine;
+import org.eclipse.elk.core.data.LayoutMetaDataService;
+import org.eclipse.elk.core.data.LayoutOptionData;
+import org.eclipse.elk.core.options.CoreOptions;
+import org.eclipse.elk.core.options.HierarchyHandling;
+import org.eclipse.elk.core.util.BasicProgressMonitor;
+import org.eclipse.elk.core.util.IElkProgressMonitor;
+import org.eclipse.elk.graph.ElkEdge;
+import org.eclipse.elk.graph.ElkNode;
+import org.eclipse.elk.graph.properties.IProperty;
+import org.eclipse.elk.graph.properties.Property;
+
+/**
+ * A graph layout engine that selects a layout strategy based on metrics of the input graph and
+ * enforces a time budget. The first {@linkplain #addStrategy(Strategy) strategy} that is applicable to
+ * the graph metrics configures the graph, which is then laid out with the delegate engine. If the layout
+ * is not finished within the time budget, it is cancelled through the progress monitor and the
+ * {@linkplain #setFallbackStrategy(Strategy) fallback strategy} is applied instead, without time limit.
+ * A layout that exceeds the budget but completes without noticing the cancellation is kept.
+ * The name of the strategy that determined the final layout is stored in the {@link #P_STRATEGY}
+ * property of the graph, and {@link #P_FALLBACK} tells whether the layout was cancelled because the
+ * time budget was exceeded.
+ *
+ * <p>By default the configured layout options are used for graphs with up to
+ * {@value #DEFAULT_MAX_NODES} nodes and an average of at most {@value #DEFAULT_MAX_EDGE_DENSITY} edges
+ * per node (see {@link #setMaxNodes(int)} and {@link #setMaxEdgeDensity(double)}). Larger graphs are laid
+ * out with a fast variant of the layered algorithm (if registered) that handles each hierarchy level
+ * separately. The fallback strategy applies the box layout algorithm, which ignores edges.</p>
+ *
+ * <p>Use this engine with {@link ElkLayoutEngine#setEngine(IGraphLayoutEngine)}.</p>
+ */
+public class AdaptiveGraphLayoutEngine implements IGraphLayoutEngine {
+	
+	public static final IProperty<String> P_STRATEGY = new Property<>("io.typefox.sprotty.layout.strategy");
+	
+	public static final IProperty<Boolean> P_FALLBACK = new Property<>("io.typefox.sprotty.layout.fallback", false);
+	
+	public static final int DEFAULT_MAX_NODES = 1000;
+	
+	public static final double DEFAULT_MAX_EDGE_DENSITY = 4.0;
+	
+	public static final int DEFAULT_MAX_FAST_NODES = 20000;
+	
+	public static final long DEFAULT_TIME_BUDGET = 2000;
+	
+	private static final String LAYERED_ALGORITHM = "org.eclipse.elk.layered";
+	
+	private static final String LAYERED_THOROUGHNESS = "org.eclipse.elk.layered.thoroughness";
+	
+	private static final String BOX_ALGORITHM = "org.eclipse.elk.box";
+	
+	private final IGraphLayoutEngine delegate;
+	
+	private final List<Strategy> strategies = new CopyOnWriteArrayList<>();
+	
+	private Strategy fallbackStrategy;
+	
+	private long timeBudget = DEFAULT_TIME_BUDGET;
+	
+	private int maxNodes = DEFAULT_MAX_NODES;
+	
+	private double maxEdgeDensity = DEFAULT_MAX_EDGE_DENSITY;
+	
+	/**
+	 * Create an engine that delegates to the {@link RecursiveGraphLayoutEngine}.
+	 */
+	public AdaptiveGraphLayoutEngine() {
+		this(new RecursiveGraphLayoutEngine());
+	}
+	
+	public AdaptiveGraphLayoutEngine(IGraphLayoutEngine delegate) {
+		if (delegate == null)
+			throw new NullPointerException();
+		this.delegate = delegate;
+		addStrategy(new Strategy("configured") {
+			@Override
+			public boolean isApplicable(GraphMetrics metrics) {
+				return metrics.getNodeCount() <= getMaxNodes() && metrics.getEdgeDensity() <= getMaxEdgeDensity();
+			}
+		});
+		addStrategy(new Strategy("layered-fast") {
+			@Override
+			public boolean isApplicable(GraphMetrics metrics) {
+				return metrics.getNodeCount() <= DEFAULT_MAX_FAST_NODES
+						&& LayoutMetaDataService.getInstance().getAlgorithmData(LAYERED_ALGORITHM) != null;
+			}
+			@Override
+			public void configure(ElkNode graph, GraphMetrics metrics) {
+				setOnCompoundNodes(graph, CoreOptions.ALGORITHM, LAYERED_ALGORITHM);
+				if (metrics.getHierarchyDepth() > 1)
+					// Laying out all hierarchy levels together is expensive for large graphs
+					setOnCompoundNodes(graph, CoreOptions.HIERARCHY_HANDLING, HierarchyHandling.SEPARATE_CHILDREN);
+				LayoutOptionData thoroughness = LayoutMetaDataService.getInstance().getOptionData(LAYERED_THOROUGHNESS);
+				if (thoroughness != null)
+					setOnCompoundNodes(graph, thoroughness, 1);
+			}
+		});
+		this.fallbackStrategy = new Strategy("box") {
+			@Override
+			public void configure(ElkNode graph, GraphMetrics metrics) {
+				setOnCompoundNodes(graph, CoreOptions.ALGORITHM, BOX_ALGORITHM);
+				setOnCompoundNodes(graph, CoreOptions.HIERARCHY_HANDLING, HierarchyHandling.SEPARATE_CHILDREN);
+			}
+		};
+	}
+	
+	/**
+	 * Add a strategy with lower priority than the already added ones. The engine has two default
+	 * strategies, see the class documentation; call {@link #clearStrategies()} to remove them.
+	 */
+	public void addStrategy(Strategy strategy) {
+		if (strategy == null)
+			throw new NullPointerException();
+		strategies.add(strategy);
+	}
+	
+	public void clearStrategies() {
+		strategies.clear();
+	}
+	
+	public List<Strategy> getStrategies() {
+		return strategies;
+	}
+	
+	/**
+	 * Set the strategy to apply when no other strategy is applicable or the time budget is exceeded.
+	 */
+	public void setFallbackStrategy(Strategy fallbackStrategy) {
+		if (fallbackStrategy == null)
+			throw new NullPointerException();
+		this.fallbackStrategy = fallbackStrategy;
+	}
+	
+	public Strategy getFallbackStrategy() {
+		return fallbackStrategy;
+	}
+	
+	/**
+	 * Set the time budget in milliseconds, or 0 for no limit. The default is {@value #DEFAULT_TIME_BUDGET}.
+	 * Layout algorithms check for cancellation only between their phases, so the actual time can exceed
+	 * the budget.
+	 */
+	public void setTimeBudget(long timeBudget) {
+		if (timeBudget < 0)
+			throw new IllegalArgumentException("timeBudget must not be negative");
+		this.timeBudget = timeBudget;
+	}
+	
+	public long getTimeBudget() {
+		return timeBudget;
+	}
+	
+	/**
+	 * Set the maximal number of nodes of graphs that are laid out with the configured layout options by the
+	 * default strategy. The default is {@value #DEFAULT_MAX_NODES}.
+	 */
+	public void setMaxNodes(int maxNodes) {
+		if (maxNodes < 0)
+			throw new IllegalArgumentException("maxNodes must not be negative");
+		this.maxNodes = maxNodes;
+	}
+	
+	public int getMaxNodes() {
+		return maxNodes;
+	}
+	
+	/**
+	 * Set the maximal average number of edges per node of graphs that are laid out with the configured layout
+	 * options by the default strategy. The default is {@value #DEFAULT_MAX_EDGE_DENSITY}.
+	 */
+	public void setMaxEdgeDensity(double maxEdgeDensity) {
+		if (!(maxEdgeDensity >= 0))
+			throw new IllegalArgumentException("maxEdgeDensity must not be negative");
+		this.maxEdgeDensity = maxEdgeDensity;
+	}
+	
+	public double getMaxEdgeDensity() {
+		return maxEdgeDensity;
+	}
+	
+	@Override
+	public void layout(ElkNode layoutGraph, IElkProgressMonitor monitor) {
+		monitor.begin("Adaptive layout", 1);
+		GraphMetrics metrics = GraphMetrics.of(layoutGraph);
+		Strategy fallbackStrategy = getFallbackStrategy();
+		Strategy strategy = selectStrategy(metrics);
+		long startTime = System.nanoTime();
+		boolean fallback = false;
+		if (strategy != fallbackStrategy) {
+			strategy.configure(layoutGraph, metrics);
+			long budget = getTimeBudget();
+			BudgetMonitor budgetMonitor = new BudgetMonitor(monitor,
+					budget > 0 ? startTime + TimeUnit.MILLISECONDS.toNanos(budget) : 0);
+			delegate.layout(layoutGraph, budgetMonitor);
+			// Only a layout that has actually been cancelled is replaced, since a slow layout may complete anyway
+			fallback = budgetMonitor.isBudgetExceeded() && !monitor.isCanceled();
+		}
+		if (strategy == fallbackStrategy || fallback) {
+			if (fallback)
+				// Discard the edge routes of the cancelled layout, since the fallback may not compute new ones
+				clearEdgeSections(layoutGraph);
+			strategy = fallbackStrategy;
+			strategy.configure(layoutGraph, metrics);
+			delegate.layout(layoutGraph, new BasicProgressMonitor() {
+				@Override
+				public boolean isCanceled() {
+					return monitor.isCanceled();
+				}
+			});
+		}
+		layoutGraph.setProperty(P_STRATEGY, strategy.getName());
+		layoutGraph.setProperty(P_FALLBACK, fallback);
+		strategyApplied(layoutGraph, metrics, strategy, fallback, System.nanoTime() - startTime);
+		monitor.done();
+	}
+	
+	/**
+	 * Select the first applicable strategy, or the fallback strategy if none is applicable.
+	 */
+	protected Strategy selectStrategy(GraphMetrics metrics) {
+		for (Strategy strategy : strategies) {
+			if (strategy.isApplicable(metrics))
+				return strategy;
+		}
+		return fallbackStrategy;
+	}
+	
+	/**
+	 * Called after the layout has been computed. Override this in order to log or collect statistics
+	 * on the selected strategies.
+	 *
+	 * @param fallback whether the fallback strategy was applied because the time budget was exceeded
+	 * @param duration the total layout time in nanoseconds
+	 */
+	protected void strategyApplied(ElkNode layoutGraph, GraphMetrics metrics, Strategy strategy, boolean fallback,
+			long duration) {
+	}
+	
+	/**
+	 * Set a layout option on the given graph and all its nodes that have children.
+	 */
+	public static <T> void setOnCompoundNodes(ElkNode graph, IProperty<? super T> property, T value) {
+		graph.setProperty(property, value);
+		for (ElkNode child : graph.getChildren()) {
+			if (!child.getChildren().isEmpty())
+				setOnCompoundNodes(child, property, value);
+		}
+	}
+	
+	/**
+	 * A progress monitor that reports cancellation when the parent monitor is cancelled or the deadline
+	 * has passed, and remembers whether the latter has been reported to the layout algorithm.
+	 */
+	private static class BudgetMonitor extends BasicProgressMonitor {
+		
+		private final IElkProgressMonitor parent;
+		
+		private final long deadline;
+		
+		private volatile boolean budgetExceeded;
+		
+		/**
+		 * @param deadline the value of {@link System#nanoTime()} at which the layout is cancelled, or 0 for no limit
+		 */
+		BudgetMonitor(IElkProgressMonitor parent, long deadline) {
+			this.parent = parent;
+			this.deadline = deadline;
+		}
+		
+		@Override
+		public boolean isCanceled() {
+			if (parent.isCanceled())
+				return true;
+			if (deadline != 0 && System.nanoTime() - deadline > 0) {
+				budgetExceeded = true;
+				return true;
+			}
+			return false;
+		}
+		
+		boolean isBudgetExceeded() {
+			return budgetExceeded;
+		}
+	}
+	
+	private static void clearEdgeSections(ElkNode parent) {
+		for (ElkEdge edge : parent.getContainedEdges()) {
+			edge.getSections().clear();
+		}
+		for (ElkNode child : parent.getChildren()) {
+			clearEdgeSections(child);
+		}
+	}
+	
+	/**
+	 * A named layout strategy. The default implementation is applicable to all graphs and does not modify
+	 * the configured layout options.
+	 */
+	public static class Strategy {
+		
+		private final String name;
+		
+		public Strategy(String name) {
+			this.name = name;
+		}
+		
+		public String getName() {
+			return name;
+		}
+		
+		/**
+		 * Whether this strategy should be applied to a graph with the given metrics.
+		 */
+		public boolean isApplicable(GraphMetrics metrics) {
+			return true;
+		}
+		
+		/**
+		 * Configure the layout options of the given graph.
+		 */
+		public void configure(ElkNode graph, GraphMetrics metrics) {
+		}
+		
+		@Override
+		public String toString() {
+			return name;
+		}
+	}
+	
+	/**
+	 * Size metrics of an ELK graph.
+	 */
+	public static class GraphMetrics {
+		
+		/**
+		 * Compute the metrics of the given graph.
+		 */
+		public static GraphMetrics of(ElkNode graph) {
+			GraphMetrics metrics = new GraphMetrics();
+			metrics.add(graph, 0);
+			return metrics;
+		}
+		
+		private int nodeCount;
+		
+		private int edgeCount;
+		
+		private int hierarchyDepth;
+		
+		private void add(ElkNode parent, int depth) {
+			edgeCount += parent.getContainedEdges().size();
+			if (!parent.getChildren().isEmpty()) {
+				hierarchyDepth = Math.max(hierarchyDepth, depth + 1);
+				nodeCount += parent.getChildren().size();
+				for (ElkNode child : parent.getChildren()) {
+					add(child, depth + 1);
+				}
+			}
+		}
+		
+		/**
+		 * The number of nodes, excluding the root node.
+		 */
+		public int getNodeCount() {
+			return nodeCount;
+		}
+		
+		public int getEdgeCount() {
+			return edgeCount;
+		}
+		
+		/**
+		 * The average number of edges per node.
+		 */
+		public double getEdgeDensity() {
+			return nodeCount > 0 ? (double) edgeCount / nodeCount : 0;
+		}
+		
+		/**
+		 * The number of nesting levels of nodes, which is 0 for an empty graph and 1 for a flat graph.
+		 */
+		public int getHierarchyDepth() {
+			return hierarchyDepth;
+		}
+		
+		@Override
+		public String toString() {
+			return "GraphMetrics [nodeCount=" + nodeCount + ", edgeCount=" + edgeCount
+					+ ", hierarchyDepth=" + hierarchyDepth + "]";
+		}
+	}
+
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2017 TypeFox and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.typefox.sprotty.layout;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.eclipse.elk.core.LayoutConfigurator;
+import org.eclipse.elk.core.util.IGraphElementVisitor;
+import org.eclipse.elk.graph.ElkConnectableShape;
+import org.eclipse.elk.graph.ElkEdge;
+import org.eclipse.elk.graph.ElkGraphElement;
+import org.eclipse.elk.graph.ElkLabel;
+import org.eclipse.elk.graph.ElkNode;
+import org.eclipse.elk.graph.ElkPort;
+import org.eclipse.elk.graph.ElkShape;
+import org.eclipse.elk.graph.properties.IProperty;
+import org.eclipse.elk.graph.properties.IPropertyHolder;
+import org.eclipse.elk.graph.properties.MapPropertyHolder;
+
+/**
+ * An immutable snapshot of a {@link SprottyLayoutConfigurator}, created with
+ * {@link SprottyLayoutConfigurator#compile()}. The options configured by element class and by type are
+ * resolved once for each kind of ELK element and each type, and the options configured by id are indexed
+ * by ELK identifiers, so configuring an element takes two table lookups. Options configured for specific
+ * ELK element instances are not included in the snapshot, since they cannot apply to other graphs.
+ *
+ * <p>Instances are thread-safe and can be shared by concurrent layouts. The option values are shared
+ * with the elements they are applied to, as with the original configurator, so they must not be
+ * modified by layout algorithms.</p>
+ */
+public final class CompiledLayoutConfigurator implements IGraphElementVisitor {
+	
+	private static final int KIND_OTHER = 0;
+	private static final int KIND_NODE = 1;
+	private static final int KIND_PORT = 2;
+	private static final int KIND_EDGE = 3;
+	private static final int KIND_LABEL = 4;
+	private static final int KIND_COUNT = 5;
+	
+	private final Options[] classOptions = new Options[KIND_COUNT];
+	
+	private final Map<String, Options>[] typeOptions;
+	
+	private final Map<String, Options> idOptions;
+	
+	@SuppressWarnings("unchecked")
+	CompiledLayoutConfigurator(LayoutConfigurator configurator, Map<String, MapPropertyHolder> typeOptionMap,
+			Map<String, MapPropertyHolder> idOptionMap) {
+		this.typeOptions = new Map[KIND_COUNT];
+		for (int kind = 0; kind < KIND_COUNT; kind++) {
+			Map<IProperty<?>, Object> resolvedClassOptions = resolveClassOptions(configurator, kind);
+			classOptions[kind] = Options.of(resolvedClassOptions);
+			Map<String, Options> resolvedTypeOptions = new HashMap<>();
+			for (Map.Entry<String, MapPropertyHolder> entry : typeOptionMap.entrySet()) {
+				Map<IProperty<?>, Object> combined = new LinkedHashMap<>(resolvedClassOptions);
+				combined.putAll(entry.getValue().getAllProperties());
+				resolvedTypeOptions.put(entry.getKey(), Options.of(combined));
+			}
+			typeOptions[kind] = Collections.unmodifiableMap(resolvedTypeOptions);
+		}
+		Map<String, Options> resolvedIdOptions = new HashMap<>();
+		for (Map.Entry<String, MapPropertyHolder> entry : idOptionMap.entrySet()) {
+			// The keys are already ELK identifiers, see SprottyLayoutConfigurator#toElkId(String)
+			resolvedIdOptions.put(entry.getKey(), Options.of(entry.getValue().getAllProperties()));
+		}
+		this.idOptions = Collections.unmodifiableMap(resolvedIdOptions);
+	}
+	
+	/**
+	 * Combine the options configured for the ELK element classes that apply to the given kind of elements,
+	 * from the most general to the most specific class.
+	 */
+	private static Map<IProperty<?>, Object> resolveClassOptions(LayoutConfigurator configurator, int kind) {
+		Map<IProperty<?>, Object> result = new LinkedHashMap<>();
+		addClassOptions(configurator, ElkGraphElement.class, result);
+		switch (kind) {
+			case KIND_NODE:
+				addClassOptions(configurator, ElkShape.class, result);
+				addClassOptions(configurator, ElkConnectableShape.class, result);
+				addClassOptions(configurator, ElkNode.class, result);
+				break;
+			case KIND_PORT:
+				addClassOptions(configurator, ElkShape.class, result);
+				addClassOptions(configurator, ElkConnectableShape.class, result);
+				addClassOptions(configurator, ElkPort.class, result);
+				break;
+			case KIND_EDGE:
+				addClassOptions(configurator, ElkEdge.class, result);
+				break;
+			case KIND_LABEL:
+				addClassOptions(configurator, ElkShape.class, result);
+				addClassOptions(configurator, ElkLabel.class, result);
+				break;
+		}
+		return result;
+	}
+	
+	private static void addClassOptions(LayoutConfigurator configurator, Class<? extends ElkGraphElement> elementClass,
+			Map<IProperty<?>, Object> result) {
+		IPropertyHolder holder = configurator.getProperties(elementClass);
+		if (holder != null)
+			result.putAll(holder.getAllProperties());
+	}
+	
+	private static int getKind(ElkGraphElement element) {
+		if (element instanceof ElkNode)
+			return KIND_NODE;
+		else if (element instanceof ElkPort)
+			return KIND_PORT;
+		else if (element instanceof ElkEdge)
+			return KIND_EDGE;
+		else if (element instanceof ElkLabel)
+			return KIND_LABEL;
+		else
+			return KIND_OTHER;
+	}
+	
+	@Override
+	public void visit(ElkGraphElement element) {
+		int kind = getKind(element);
+		String type = element.getProperty(ElkLayoutEngine.P_TYPE);
+		Options options = type != null ? typeOptions[kind].get(type) : null;
+		if (options == null)
+			options = classOptions[kind];
+		options.applyTo(element);
+		String id = element.getIdentifier();
+		if (id != null) {
+			Options elementOptions = idOptions.get(id);
+			if (elementOptions != null)
+				elementOptions.applyTo(element);
+		}
+	}
+	
+	/**
+	 * A resolved list of layout options.
+	 */
+	private static class Options {
+		
+		private static final Options EMPTY = new Options(new IProperty<?>[0], new Object[0]);
+		
+		static Options of(Map<IProperty<?>, Object> properties) {
+			if (properties.isEmpty())
+				return EMPTY;
+			IProperty<?>[] keys = new IProperty<?>[properties.size()];
+			Object[] values = new Object[properties.size()];
+			int index = 0;
+			for (Map.Entry<IProperty<?>, Object> entry : properties.entrySet()) {
+				keys[index] = entry.getKey();
+				values[index] = entry.getValue();
+				index++;
+			}
+			return new Options(keys, values);
+		}
+		
+		private final IProperty<?>[] keys;
+		
+		private final Object[] values;
+		
+		private Options(IProperty<?>[] keys, Object[] values) {
+			this.keys = keys;
+			this.values = values;
+		}
+		
+		@SuppressWarnings("unchecked")
+		void applyTo(ElkGraphElement element) {
+			for (int i = 0; i < keys.length; i++) {
+				element.setProperty((IProperty<Object>) keys[i], values[i]);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2017 TypeFox and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.typefox.sprotty.layout;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.eclipse.elk.graph.ElkConnectableShape;
+import org.eclipse.elk.graph.ElkEdge;
+import org.eclipse.elk.graph.ElkGraphElement;
+import org.eclipse.elk.graph.ElkLabel;
+import org.eclipse.elk.graph.ElkNode;
+import org.eclipse.elk.graph.ElkPort;
+import org.eclipse.elk.graph.ElkShape;
+import org.eclipse.elk.graph.properties.IProperty;
+
+/**
+ * Computes a 64 bit fingerprint of the layout input contained in an ELK graph: the identifiers and
+ * hierarchy of all elements, the sources and targets of edges, the position and size of shapes, and all
+ * layout options. Label texts are not included, since only the label size is relevant for the layout.
+ * Two graphs with the same fingerprint are expected to yield the same layout.
+ */
+public class ElkGraphFingerprint {
+	
+	private static final long MULTIPLIER = 0x9e3779b97f4a7c15L;
+	
+	private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+	
+	private static final long FNV_PRIME = 0x100000001b3L;
+	
+	/**
+	 * Compute the fingerprint of the given graph.
+	 */
+	public static long of(ElkNode graph) {
+		ElkGraphFingerprint fingerprint = new ElkGraphFingerprint(true);
+		fingerprint.addNode(graph);
+		return fingerprint.getValue();
+	}
+	
+	/**
+	 * Compute the fingerprints of the contents of all compound nodes contained in the given graph. These
+	 * fingerprints do not include the positions of elements and the sizes of compound nodes, since they are
+	 * the result of the layout. Thus a compound node with the same fingerprint before and after a layout
+	 * computation has the same internal layout.
+	 */
+	public static Map<ElkNode, Long> ofSubtrees(ElkNode graph) {
+		Map<ElkNode, Long> result = new HashMap<>();
+		for (ElkNode child : graph.getChildren()) {
+			addSubtree(child, result);
+		}
+		return result;
+	}
+	
+	private static long addSubtree(ElkNode node, Map<ElkNode, Long> result) {
+		ElkGraphFingerprint fingerprint = new ElkGraphFingerprint(false);
+		fingerprint.addShape(node);
+		fingerprint.add(node.getPorts().size());
+		for (ElkPort port : node.getPorts()) {
+			fingerprint.addShape(port);
+		}
+		fingerprint.add(node.getChildren().size());
+		for (ElkNode child : node.getChildren()) {
+			fingerprint.add(addSubtree(child, result));
+		}
+		fingerprint.add(node.getContainedEdges().size());
+		for (ElkEdge edge : node.getContainedEdges()) {
+			fingerprint.addEdge(edge);
+		}
+		long value = fingerprint.getValue();
+		if (!node.getChildren().isEmpty())
+			result.put(node, value);
+		return value;
+	}
+	
+	private final boolean includeLayout;
+	
+	private long value = FNV_OFFSET;
+	
+	public ElkGraphFingerprint() {
+		this(true);
+	}
+	
+	/**
+	 * @param includeLayout whether to include the positions of all shapes and the sizes of compound nodes
+	 */
+	public ElkGraphFingerprint(boolean includeLayout) {
+		this.includeLayout = includeLayout;
+	}
+	
+	public long getValue() {
+		return value;
+	}
+	
+	public void add(long v) {
+		value = Long.rotateLeft(value ^ (v * MULTIPLIER), 29) * MULTIPLIER;
+	}
+	
+	public void add(double d) {
+		add(Double.doubleToLongBits(d));
+	}
+	
+	public void add(String s) {
+		add(hash(s));
+	}
+	
+	protected void addNode(ElkNode node) {
+		addShape(node);
+		add(node.getPorts().size());
+		for (ElkPort port : node.getPorts()) {
+			addShape(port);
+		}
+		add(node.getChildren().size());
+		for (ElkNode child : node.getChildren()) {
+			addNode(child);
+		}
+		add(node.getContainedEdges().size());
+		for (ElkEdge edge : node.getContainedEdges()) {
+			addEdge(edge);
+		}
+	}
+	
+	protected void addShape(ElkShape shape) {
+		addElement(shape);
+		if (includeLayout) {
+			add(shape.getX());
+			add(shape.getY());
+		}
+		if (includeLayout || !(shape instanceof ElkNode) || ((ElkNode) shape).getChildren().isEmpty()) {
+			add(shape.getWidth());
+			add(shape.getHeight());
+		}
+	}
+	
+	protected void addEdge(ElkEdge edge) {
+		addElement(edge);
+		add(edge.getSources().size());
+		for (ElkConnectableShape source : edge.getSources()) {
+			add(source.getIdentifier());
+		}
+		add(edge.getTargets().size());
+		for (ElkConnectableShape target : edge.getTargets()) {
+			add(target.getIdentifier());
+		}
+	}
+	
+	protected void addElement(ElkGraphElement element) {
+		add(element.getIdentifier());
+		addProperties(element.getAllProperties());
+		add(element.getLabels().size());
+		for (ElkLabel label : element.getLabels()) {
+			addShape(label);
+		}
+	}
+	
+	/**
+	 * Add the given layout options. The options are combined independently of their iteration order.
+	 */
+	protected void addProperties(Map<IProperty<?>, Object> properties) {
+		long sum = 0;
+		for (Map.Entry<IProperty<?>, Object> entry : properties.entrySet()) {
+			long entryHash = hash(entry.getKey().getId()) * 31 + hash(String.valueOf(entry.getValue()));
+			sum += entryHash * MULTIPLIER;
+		}
+		add(properties.size());
+		add(sum);
+	}
+	
+	private static long hash(String s) {
+		if (s == null)
+			return 0;
+		long h = FNV_OFFSET;
+		for (int i = 0; i < s.length(); i++) {
+			h ^= s.charAt(i);
+			h *= FNV_PRIME;
+		}
+		return h;
+	}
+
+}
@@ -7,9 +7,12 @@
 package io.typefox.sprotty.layout;
 
 import java.util.ArrayList;
-import java.util.LinkedList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.eclipse.elk.core.IGraphLayoutEngine;
 import org.eclipse.elk.core.RecursiveGraphLayoutEngine;
@@ -17,8 +20,11 @@ import org.eclipse.elk.core.data.ILayoutMetaDataProvider;
 import org.eclipse.elk.core.data.LayoutMetaDataService;
 import org.eclipse.elk.core.math.ElkPadding;
 import org.eclipse.elk.core.options.CoreOptions;
+import org.eclipse.elk.core.options.SizeConstraint;
 import org.eclipse.elk.core.util.BasicProgressMonitor;
 import org.eclipse.elk.core.util.ElkUtil;
+import org.eclipse.elk.core.util.IElkProgressMonitor;
+import org.eclipse.elk.core.util.IGraphElementVisitor;
 import org.eclipse.elk.graph.ElkBendPoint;
 import org.eclipse.elk.graph.ElkConnectableShape;
 import org.eclipse.elk.graph.ElkEdge;
@@ -34,11 +40,14 @@ import org.eclipse.elk.graph.properties.Property;
 import org.eclipse.elk.graph.util.ElkGraphUtil;
 import org.eclipse.emf.ecore.EObject;
 
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 
 import io.typefox.sprotty.api.BoundsAware;
 import io.typefox.sprotty.api.Dimension;
 import io.typefox.sprotty.api.ILayoutEngine;
+import io.typefox.sprotty.api.LayoutUtil;
 import io.typefox.sprotty.api.Layouting;
 import io.typefox.sprotty.api.Point;
 import io.typefox.sprotty.api.SEdge;
@@ -65,8 +74,36 @@ public class ElkLayoutEngine implements ILayoutEngine {
 		LayoutMetaDataService.getInstance().registerLayoutMetaDataProviders(providers);
 	}
 	
+	public static final int DEFAULT_CACHE_CAPACITY = 32;
+	
+	private static final Point ORIGIN = new Point();
+	
 	private IGraphLayoutEngine engine = new RecursiveGraphLayoutEngine();
 	
+	private LayoutCache layoutCache = new LayoutCache(DEFAULT_CACHE_CAPACITY);
+	
+	private boolean incrementalLayout = false;
+	
+	private boolean reuseElkGraphs = false;
+	
+	private final Map<List<String>, ElkGraphState> elkGraphStates = new LinkedHashMap<List<String>, ElkGraphState>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<List<String>, ElkGraphState> eldest) {
+			return size() > DEFAULT_CACHE_CAPACITY;
+		}
+	};
+	
+	private final Map<List<String>, Map<String, Long>> lastSubtreeFingerprints = new LinkedHashMap<List<String>, Map<String, Long>>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<List<String>, Map<String, Long>> eldest) {
+			return size() > DEFAULT_CACHE_CAPACITY;
+		}
+	};
+	
+	private final ThreadLocal<String> diagramKey = new ThreadLocal<>();
+	
 	protected final ElkGraphFactory factory = ElkGraphFactory.eINSTANCE;
 	
 	/**
@@ -81,30 +118,369 @@ public class ElkLayoutEngine implements ILayoutEngine {
 			layout((SGraph) root, null);
 		}
 	}
+	
+	/**
+	 * Compute a layout for a graph of the diagram identified by the given key. The state retained for
+	 * {@linkplain #setIncrementalLayout(boolean) incremental layout} is kept separately for each key.
+	 * This calls {@link #layout(SModelRoot)}, so overriding that method is sufficient to customize the layout.
+	 */
+	@Override
+	public void layout(SModelRoot root, String diagramKey) {
+		String previousKey = this.diagramKey.get();
+		this.diagramKey.set(diagramKey);
+		try {
+			layout(root);
+		} finally {
+			this.diagramKey.set(previousKey);
+		}
+	}
+	
+	/**
+	 * The key of the diagram whose layout is computed in the current thread, or {@code null} if the layout
+	 * has not been requested with {@link #layout(SModelRoot, String)}.
+	 */
+	protected String getDiagramKey() {
+		return diagramKey.get();
+	}
 
 	/**
 	 * Compute a layout for a graph with the given configurator (or {@code null} to use only default settings).
+	 * The configurator is usually a {@link SprottyLayoutConfigurator}, or a {@link CompiledLayoutConfigurator}
+	 * if the same configuration is used for many layouts.
+	 */
+	public void layout(SGraph sgraph, IGraphElementVisitor configurator) {
+		ElkGraphState state = isReuseElkGraphs() ? getElkGraphState(sgraph) : null;
+		if (state != null) {
+			// The retained ELK graph must not be modified by concurrent layouts of the same graph
+			synchronized (state) {
+				layout(transformGraph(sgraph, state), configurator);
+			}
+		} else {
+			layout(transformGraph(sgraph), configurator);
+		}
+	}
+	
+	/**
+	 * Configure the transformed graph and compute its layout.
 	 */
-	public void layout(SGraph sgraph, SprottyLayoutConfigurator configurator) {
-		LayoutContext context = transformGraph(sgraph);
+	protected void layout(LayoutContext context, IGraphElementVisitor configurator) {
 		if (configurator != null) {
 			ElkUtil.applyVisitors(context.elkGraph, configurator);
 		}
+		Map<ElkNode, Long> subtreeFingerprints = null;
+		if (isIncrementalLayout()) {
+			subtreeFingerprints = ElkGraphFingerprint.ofSubtrees(context.elkGraph);
+			freezeUnchangedSubtrees(context, subtreeFingerprints);
+		}
+		if (computeLayout(context) && subtreeFingerprints != null) {
+			recordSubtreeFingerprints(context, subtreeFingerprints);
+		}
+	}
+	
+	/**
+	 * Compute the layout of the transformed graph, or take it from the {@linkplain #getLayoutCache() layout cache},
+	 * and transfer it to the sprotty graph. Returns {@code false} if the layout has been cancelled.
+	 */
+	protected boolean computeLayout(LayoutContext context) {
+		LayoutCache cache = getLayoutCache();
+		long fingerprint = 0;
+		if (cache != null) {
+			fingerprint = computeFingerprint(context);
+			LayoutCache.Result cachedResult = cache.get(fingerprint);
+			if (cachedResult != null) {
+				if (cachedResult.apply(getLayoutElements(context)))
+					return true;
+				cache.remove(fingerprint);
+			}
+		}
 		applyEngine(context.elkGraph);
+		if (Thread.currentThread().isInterrupted())
+			return false;
 		transferLayout(context);
+		// A fallback layout replaces a cancelled one, so it must not be reused for the same graph
+		if (cache != null && !context.elkGraph.getProperty(AdaptiveGraphLayoutEngine.P_FALLBACK)) {
+			cache.put(fingerprint, LayoutCache.Result.record(getLayoutElements(context)));
+		}
+		return true;
+	}
+	
+	public boolean isIncrementalLayout() {
+		return incrementalLayout;
+	}
+	
+	/**
+	 * Enable or disable incremental layout. In this mode the engine remembers the contents of all compound
+	 * nodes of the last layout of each graph and {@linkplain #layout(SModelRoot, String) diagram key}. When a graph
+	 * with the same id is laid out again for the same key, compound nodes whose contents are unchanged keep their
+	 * internal layout and are treated as fixed-size boxes, so the layout algorithms are applied only to changed
+	 * compound nodes and their ancestors. The positions of elements
+	 * are considered as results of the layout, so this mode is not suitable for algorithms that depend on the
+	 * input positions. It requires that the graph contains the layout data of the previous revision, which
+	 * {@link io.typefox.sprotty.api.DefaultDiagramServer} copies into updated models. The default is {@code false}.
+	 */
+	public void setIncrementalLayout(boolean incrementalLayout) {
+		this.incrementalLayout = incrementalLayout;
+	}
+	
+	public boolean isReuseElkGraphs() {
+		return reuseElkGraphs;
+	}
+	
+	/**
+	 * Enable or disable the reuse of ELK graphs. In this mode the engine keeps the ELK graph of each graph id
+	 * and {@linkplain #layout(SModelRoot, String) diagram key} and patches it when a new revision of the graph
+	 * is laid out: the ELK elements of sprotty elements with the same id are reused, elements of new ids are
+	 * created, and elements of removed ids are dropped. The layout options and computed layout of reused elements
+	 * are reset, so the result is the same as with a newly created ELK graph. Reused elements are not created
+	 * with {@link #createNode(SNode)} etc., but initialized with {@link #initializeNode(SNode, ElkNode)} etc. The default is {@code false}.
+	 */
+	public void setReuseElkGraphs(boolean reuseElkGraphs) {
+		this.reuseElkGraphs = reuseElkGraphs;
+	}
+	
+	/**
+	 * Return the retained ELK graph state for the given sprotty graph of the current diagram, or {@code null}
+	 * if the graph has no id.
+	 */
+	protected ElkGraphState getElkGraphState(SGraph sgraph) {
+		return getElkGraphState(sgraph, getDiagramKey());
+	}
+	
+	/**
+	 * Return the retained ELK graph state for the given sprotty graph of the diagram identified by the given
+	 * key, or {@code null} if the graph has no id.
+	 */
+	protected ElkGraphState getElkGraphState(SGraph sgraph, String diagramKey) {
+		if (sgraph.getId() == null)
+			return null;
+		List<String> key = getStateKey(diagramKey, sgraph);
+		synchronized (elkGraphStates) {
+			ElkGraphState state = elkGraphStates.get(key);
+			if (state == null) {
+				state = new ElkGraphState();
+				elkGraphStates.put(key, state);
+			}
+			return state;
+		}
+	}
+	
+	/**
+	 * Remove the contents of compound nodes that have not changed since the last layout from the ELK graph,
+	 * so they are laid out as fixed-size boxes. Their sprotty counterparts are removed from the context, so
+	 * their current layout is kept. Compound nodes with edges crossing their boundary are not frozen, and
+	 * neither are compound nodes containing an ELK edge whose sprotty edge is not a descendant of them.
+	 */
+	protected void freezeUnchangedSubtrees(LayoutContext context, Map<ElkNode, Long> subtreeFingerprints) {
+		Map<String, Long> previousFingerprints;
+		synchronized (lastSubtreeFingerprints) {
+			previousFingerprints = lastSubtreeFingerprints.get(getStateKey(getDiagramKey(), context.sgraph));
+		}
+		if (previousFingerprints == null)
+			return;
+		Map<ElkGraphElement, SModelElement> elk2sprotty = new IdentityHashMap<>(context.shapeMap.size());
+		for (Map.Entry<SModelElement, ElkShape> entry : context.shapeMap.entrySet()) {
+			elk2sprotty.put(entry.getValue(), entry.getKey());
+		}
+		Set<ElkNode> candidates = Sets.newIdentityHashSet();
+		for (Map.Entry<ElkNode, Long> entry : subtreeFingerprints.entrySet()) {
+			ElkNode elkNode = entry.getKey();
+			SModelElement snode = elk2sprotty.get(elkNode);
+			if (snode != null && entry.getValue().equals(previousFingerprints.get(elkNode.getIdentifier()))
+					&& hasLayout(snode))
+				candidates.add(elkNode);
+		}
+		if (candidates.isEmpty())
+			return;
+		removeCrossedSubtrees(context.elkGraph, candidates);
+		removeForeignEdgeSubtrees(context, candidates);
+		
+		Set<EObject> removed = Sets.newIdentityHashSet();
+		for (ElkNode elkNode : candidates) {
+			if (!hasAncestorIn(elkNode, candidates)) {
+				elkNode.eAllContents().forEachRemaining(removed::add);
+				// Ports and labels of the compound node itself are still part of the layout
+				removed.removeAll(elkNode.getPorts());
+				removed.removeAll(elkNode.getLabels());
+				for (ElkPort port : elkNode.getPorts()) {
+					removed.removeAll(port.getLabels());
+				}
+				elkNode.getContainedEdges().clear();
+				elkNode.getChildren().clear();
+				elkNode.setProperty(CoreOptions.NODE_SIZE_CONSTRAINTS, SizeConstraint.fixed());
+			}
+		}
+		context.shapeMap.values().removeIf(removed::contains);
+		context.edgeMap.values().removeIf(removed::contains);
+	}
+	
+	/**
+	 * Remove the compound nodes from the given set that are crossed by an edge, i.e. one end of the edge
+	 * lies inside the compound node and the other one outside.
+	 */
+	private void removeCrossedSubtrees(ElkNode elkParent, Set<ElkNode> candidates) {
+		for (ElkEdge elkEdge : elkParent.getContainedEdges()) {
+			for (ElkConnectableShape shape : Iterables.concat(elkEdge.getSources(), elkEdge.getTargets())) {
+				ElkNode node = shape instanceof ElkPort ? ((ElkPort) shape).getParent() : (ElkNode) shape;
+				// The end node itself may be a candidate, since only its contents are frozen
+				ElkNode ancestor = node != null ? node.getParent() : null;
+				while (ancestor != null && ancestor != elkParent) {
+					candidates.remove(ancestor);
+					ancestor = ancestor.getParent();
+				}
+			}
+		}
+		for (ElkNode child : elkParent.getChildren()) {
+			removeCrossedSubtrees(child, candidates);
+		}
+	}
+	
+	/**
+	 * Remove the compound nodes from the given set that contain an ELK edge whose sprotty edge is not a
+	 * descendant of the compound node, e.g. an edge declared in the graph that connects two children of the
+	 * compound node. The routing points of such an edge are relative to a sprotty container outside the
+	 * compound node, so they would not remain valid when the frozen compound node is moved.
+	 */
+	private void removeForeignEdgeSubtrees(LayoutContext context, Set<ElkNode> candidates) {
+		for (Map.Entry<SEdge, ElkEdge> entry : context.edgeMap.entrySet()) {
+			ElkNode elkContainer = entry.getValue().getContainingNode();
+			if (elkContainer == null)
+				continue;
+			ElkNode sprottyContainer = getElkContainer(entry.getKey(), context);
+			for (ElkNode node = elkContainer; node != null && !contains(node, sprottyContainer); node = node.getParent()) {
+				candidates.remove(node);
+			}
+		}
+	}
+	
+	/**
+	 * Return the ELK node of the nearest sprotty ancestor of the given element that has been transformed
+	 * to an ELK node, or {@code null} if there is none.
+	 */
+	private ElkNode getElkContainer(SModelElement selem, LayoutContext context) {
+		for (SModelElement sParent = context.parentMap.get(selem); sParent != null; sParent = context.parentMap.get(sParent)) {
+			ElkShape shape = context.shapeMap.get(sParent);
+			if (shape instanceof ElkNode)
+				return (ElkNode) shape;
+		}
+		return null;
+	}
+	
+	private boolean contains(ElkNode ancestor, ElkNode elkNode) {
+		for (ElkNode node = elkNode; node != null; node = node.getParent()) {
+			if (node == ancestor)
+				return true;
+		}
+		return false;
+	}
+	
+	private boolean hasAncestorIn(ElkNode elkNode, Set<ElkNode> nodes) {
+		for (ElkNode ancestor = elkNode.getParent(); ancestor != null; ancestor = ancestor.getParent()) {
+			if (nodes.contains(ancestor))
+				return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * Whether the given element and all its bounds-aware descendants have a position and a size.
+	 */
+	protected boolean hasLayout(SModelElement element) {
+		if (element instanceof BoundsAware) {
+			BoundsAware bae = (BoundsAware) element;
+			if (bae.getPosition() == null || bae.getSize() == null)
+				return false;
+		}
+		if (element.getChildren() != null) {
+			for (SModelElement child : element.getChildren()) {
+				if (!hasLayout(child))
+					return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Remember the fingerprints of the compound nodes of a graph after its layout has been computed.
+	 */
+	protected void recordSubtreeFingerprints(LayoutContext context, Map<ElkNode, Long> subtreeFingerprints) {
+		Map<String, Long> fingerprintsById = Maps.newHashMapWithExpectedSize(subtreeFingerprints.size());
+		for (Map.Entry<ElkNode, Long> entry : subtreeFingerprints.entrySet()) {
+			if (entry.getKey().getIdentifier() != null)
+				fingerprintsById.put(entry.getKey().getIdentifier(), entry.getValue());
+		}
+		synchronized (lastSubtreeFingerprints) {
+			lastSubtreeFingerprints.put(getStateKey(getDiagramKey(), context.sgraph), fingerprintsById);
+		}
+	}
+	
+	private static List<String> getStateKey(String diagramKey, SGraph sgraph) {
+		return Arrays.asList(diagramKey, sgraph.getId());
+	}
+	
+	/**
+	 * Set the cache for layout results, or {@code null} to disable caching. By default a cache with
+	 * a capacity of {@value #DEFAULT_CACHE_CAPACITY} entries is used.
+	 */
+	public void setLayoutCache(LayoutCache layoutCache) {
+		this.layoutCache = layoutCache;
+	}
+	
+	/**
+	 * The cache for layout results, which also provides statistics on hits, misses and evictions.
+	 */
+	public LayoutCache getLayoutCache() {
+		return layoutCache;
+	}
+	
+	/**
+	 * Compute the key for caching the layout of the given context. The default implementation computes
+	 * a fingerprint of the configured ELK graph, which covers the model structure, the sizes of all elements
+	 * and the layout options set by the configurator, combined with the type of the graph layout engine.
+	 */
+	protected long computeFingerprint(LayoutContext context) {
+		ElkGraphFingerprint fingerprint = new ElkGraphFingerprint();
+		fingerprint.add(getEngine().getClass().getName());
+		fingerprint.add(ElkGraphFingerprint.of(context.elkGraph));
+		return fingerprint.getValue();
+	}
+	
+	/**
+	 * The sprotty model elements whose layout is determined by the given context.
+	 */
+	protected Iterable<SModelElement> getLayoutElements(LayoutContext context) {
+		return Iterables.concat(context.shapeMap.keySet(), context.edgeMap.keySet());
 	}
 	
 	/**
 	 * Transform a sprotty graph to an ELK graph, including all contents.
 	 */
 	protected LayoutContext transformGraph(SGraph sgraph) {
+		return transformGraph(sgraph, null);
+	}
+	
+	/**
+	 * Transform a sprotty graph to an ELK graph, reusing the elements of the given retained ELK graph
+	 * (or {@code null} to create a new ELK graph).
+	 */
+	protected LayoutContext transformGraph(SGraph sgraph, ElkGraphState state) {
 		LayoutContext context = new LayoutContext();
 		context.sgraph = sgraph;
-		ElkNode rootNode = createGraph(sgraph);
+		context.graphState = state;
+		if (state != null)
+			state.detach();
+		ElkNode rootNode = state != null ? state.reuse(sgraph.getId(), ElkNode.class) : null;
+		if (rootNode != null)
+			initializeGraph(sgraph, rootNode);
+		else
+			rootNode = createGraph(sgraph);
+		if (state != null)
+			state.retain(sgraph.getId(), rootNode);
 		context.elkGraph = rootNode;
 		context.shapeMap.put(sgraph, rootNode);
 		processChildren(sgraph, rootNode, context);
 		resolveReferences(context);
+		if (state != null)
+			state.commit();
 		return context;
 	}
 	
@@ -114,10 +490,17 @@ public class ElkLayoutEngine implements ILayoutEngine {
 	protected ElkNode createGraph(SGraph sgraph) {
 		ElkNode elkGraph = factory.createElkNode();
 		elkGraph.setIdentifier(SprottyLayoutConfigurator.toElkId(sgraph.getId()));
-		elkGraph.setProperty(P_TYPE, sgraph.getType());
+		initializeGraph(sgraph, elkGraph);
 		return elkGraph;
 	}
 	
+	/**
+	 * Initialize a new or reused root ELK node for the given sprotty graph.
+	 */
+	protected void initializeGraph(SGraph sgraph, ElkNode elkGraph) {
+		elkGraph.setProperty(P_TYPE, sgraph.getType());
+	}
+	
 	/**
 	 * Transform the children of a sprotty model element to their ELK graph counterparts.
 	 */
@@ -130,7 +513,11 @@ public class ElkLayoutEngine implements ILayoutEngine {
 				if (shouldInclude(schild, sParent, elkParent, context)) {
 					if (schild instanceof SNode) {
 						SNode snode = (SNode) schild;
-						ElkNode elkNode = createNode(snode);
+						ElkNode elkNode = context.graphState != null ? context.graphState.reuse(snode.getId(), ElkNode.class) : null;
+						if (elkNode != null)
+							initializeNode(snode, elkNode);
+						else
+							elkNode = createNode(snode);
 						if (elkParent instanceof ElkNode) {
 							elkNode.setParent((ElkNode) elkParent);
 							childrenCount++;
@@ -139,7 +526,11 @@ public class ElkLayoutEngine implements ILayoutEngine {
 						elkChild = elkNode;
 					} else if (schild instanceof SPort) {
 						SPort sport = (SPort) schild;
-						ElkPort elkPort = createPort(sport);
+						ElkPort elkPort = context.graphState != null ? context.graphState.reuse(sport.getId(), ElkPort.class) : null;
+						if (elkPort != null)
+							initializePort(sport, elkPort);
+						else
+							elkPort = createPort(sport);
 						if (elkParent instanceof ElkNode) {
 							elkPort.setParent((ElkNode) elkParent);
 							childrenCount++;
@@ -148,19 +539,29 @@ public class ElkLayoutEngine implements ILayoutEngine {
 						elkChild = elkPort;
 					} else if (schild instanceof SEdge) {
 						SEdge sedge = (SEdge) schild;
-						ElkEdge elkEdge = createEdge(sedge);
+						ElkEdge elkEdge = context.graphState != null ? context.graphState.reuse(sedge.getId(), ElkEdge.class) : null;
+						if (elkEdge != null)
+							initializeEdge(sedge, elkEdge);
+						else
+							elkEdge = createEdge(sedge);
 						// The most suitable container for the edge is determined later
 						childrenCount++;
 						context.edgeMap.put(sedge, elkEdge);
 						elkChild = elkEdge;
 					} else if (schild instanceof SLabel) {
 						SLabel slabel = (SLabel) schild;
-						ElkLabel elkLabel = createLabel(slabel);
+						ElkLabel elkLabel = context.graphState != null ? context.graphState.reuse(slabel.getId(), ElkLabel.class) : null;
+						if (elkLabel != null)
+							initializeLabel(slabel, elkLabel);
+						else
+							elkLabel = createLabel(slabel);
 						elkLabel.setParent(elkParent);
 						childrenCount++;
 						context.shapeMap.put(slabel, elkLabel);
 						elkChild = elkLabel;
 					}
+					if (elkChild != null && context.graphState != null)
+						context.graphState.retain(schild.getId(), elkChild);
 				}
 				int grandChildrenCount = processChildren(schild, elkChild != null ? elkChild : elkParent, context);
 				childrenCount += grandChildrenCount;
@@ -262,9 +663,16 @@ public class ElkLayoutEngine implements ILayoutEngine {
 	protected ElkNode createNode(SNode snode) {
 		ElkNode elkNode = factory.createElkNode();
 		elkNode.setIdentifier(SprottyLayoutConfigurator.toElkId(snode.getId()));
+		initializeNode(snode, elkNode);
+		return elkNode;
+	}
+	
+	/**
+	 * Initialize a new or reused ELK node for the given sprotty node.
+	 */
+	protected void initializeNode(SNode snode, ElkNode elkNode) {
 		elkNode.setProperty(P_TYPE, snode.getType());
 		applyBounds(snode, elkNode);
-		return elkNode;
 	}
 	
 	/**
@@ -273,9 +681,16 @@ public class ElkLayoutEngine implements ILayoutEngine {
 	protected ElkPort createPort(SPort sport) {
 		ElkPort elkPort = factory.createElkPort();
 		elkPort.setIdentifier(SprottyLayoutConfigurator.toElkId(sport.getId()));
+		initializePort(sport, elkPort);
+		return elkPort;
+	}
+	
+	/**
+	 * Initialize a new or reused ELK port for the given sprotty port.
+	 */
+	protected void initializePort(SPort sport, ElkPort elkPort) {
 		elkPort.setProperty(P_TYPE, sport.getType());
 		applyBounds(sport, elkPort);
-		return elkPort;
 	}
 	
 	/**
@@ -284,9 +699,16 @@ public class ElkLayoutEngine implements ILayoutEngine {
 	protected ElkEdge createEdge(SEdge sedge) {
 		ElkEdge elkEdge = factory.createElkEdge();
 		elkEdge.setIdentifier(SprottyLayoutConfigurator.toElkId(sedge.getId()));
+		initializeEdge(sedge, elkEdge);
+		return elkEdge;
+	}
+	
+	/**
+	 * Initialize a new or reused ELK edge for the given sprotty edge.
+	 */
+	protected void initializeEdge(SEdge sedge, ElkEdge elkEdge) {
 		elkEdge.setProperty(P_TYPE, sedge.getType());
 		// The source and target of the edge are resolved later
-		return elkEdge;
 	}
 	
 	/**
@@ -295,10 +717,17 @@ public class ElkLayoutEngine implements ILayoutEngine {
 	protected ElkLabel createLabel(SLabel slabel) {
 		ElkLabel elkLabel = factory.createElkLabel();
 		elkLabel.setIdentifier(SprottyLayoutConfigurator.toElkId(slabel.getId()));
+		initializeLabel(slabel, elkLabel);
+		return elkLabel;
+	}
+	
+	/**
+	 * Initialize a new or reused ELK label for the given sprotty label.
+	 */
+	protected void initializeLabel(SLabel slabel, ElkLabel elkLabel) {
 		elkLabel.setProperty(P_TYPE, slabel.getType());
 		elkLabel.setText(slabel.getText());
 		applyBounds(slabel, elkLabel);
-		return elkLabel;
 	}
 	
 	/**
@@ -342,7 +771,21 @@ public class ElkLayoutEngine implements ILayoutEngine {
 	 * Apply the layout engine that has been configured with {@link #setEngine(IGraphLayoutEngine)}.
 	 */
 	protected void applyEngine(ElkNode elkGraph) {
-		getEngine().layout(elkGraph, new BasicProgressMonitor());
+		getEngine().layout(elkGraph, createProgressMonitor());
+	}
+	
+	/**
+	 * Create a progress monitor for a layout computation. The default implementation reports the layout
+	 * as cancelled when the current thread is interrupted, so layout algorithms can stop early when the
+	 * diagram server cancels an outdated layout.
+	 */
+	protected IElkProgressMonitor createProgressMonitor() {
+		return new BasicProgressMonitor() {
+			@Override
+			public boolean isCanceled() {
+				return super.isCanceled() || Thread.currentThread().isInterrupted();
+			}
+		};
 	}
 	
 	/**
@@ -390,35 +833,41 @@ public class ElkLayoutEngine implements ILayoutEngine {
 	 * Apply the computed ELK layout to the given sprotty graph.
 	 */
 	protected void transferGraphLayout(SGraph sgraph, ElkNode elkGraph, LayoutContext context) {
-		sgraph.setPosition(new Point(elkGraph.getX(), elkGraph.getY()));
-		sgraph.setSize(new Dimension(elkGraph.getWidth(), elkGraph.getHeight()));
+		LayoutUtil.setPosition(sgraph, elkGraph.getX(), elkGraph.getY());
+		LayoutUtil.setSize(sgraph, elkGraph.getWidth(), elkGraph.getHeight());
 	}
 	
 	/**
 	 * Apply the computed ELK layout to the given sprotty node.
 	 */
 	protected void transferNodeLayout(SNode snode, ElkNode elkNode, LayoutContext context) {
-		Point offset = getOffset(snode, elkNode, context);
-		snode.setPosition(new Point(elkNode.getX() + offset.getX(), elkNode.getY() + offset.getY()));
-		snode.setSize(new Dimension(elkNode.getWidth(), elkNode.getHeight()));
+		Point sprottyFrame = getSprottyFrame(snode, context);
+		Point elkFrame = getElkFrame(elkNode, context);
+		double dx = elkFrame.getX() - sprottyFrame.getX(), dy = elkFrame.getY() - sprottyFrame.getY();
+		LayoutUtil.setPosition(snode, elkNode.getX() + dx, elkNode.getY() + dy);
+		LayoutUtil.setSize(snode, elkNode.getWidth(), elkNode.getHeight());
 	}
 	
 	/**
 	 * Apply the computed ELK layout to the given sprotty port.
 	 */
 	protected void transferPortLayout(SPort sport, ElkPort elkPort, LayoutContext context) {
-		Point offset = getOffset(sport, elkPort, context);
-		sport.setPosition(new Point(elkPort.getX() + offset.getX(), elkPort.getY() + offset.getY()));
-		sport.setSize(new Dimension(elkPort.getWidth(), elkPort.getHeight()));
+		Point sprottyFrame = getSprottyFrame(sport, context);
+		Point elkFrame = getElkFrame(elkPort, context);
+		double dx = elkFrame.getX() - sprottyFrame.getX(), dy = elkFrame.getY() - sprottyFrame.getY();
+		LayoutUtil.setPosition(sport, elkPort.getX() + dx, elkPort.getY() + dy);
+		LayoutUtil.setSize(sport, elkPort.getWidth(), elkPort.getHeight());
 	}
 	
 	/**
 	 * Apply the computed ELK layout to the given sprotty label.
 	 */
 	protected void transferLabelLayout(SLabel slabel, ElkLabel elkLabel, LayoutContext context) {
-		Point offset = getOffset(slabel, elkLabel, context);
-		slabel.setPosition(new Point(elkLabel.getX() + offset.getX(), elkLabel.getY() + offset.getY()));
-		slabel.setSize(new Dimension(elkLabel.getWidth(), elkLabel.getHeight()));
+		Point sprottyFrame = getSprottyFrame(slabel, context);
+		Point elkFrame = getElkFrame(elkLabel, context);
+		double dx = elkFrame.getX() - sprottyFrame.getX(), dy = elkFrame.getY() - sprottyFrame.getY();
+		LayoutUtil.setPosition(slabel, elkLabel.getX() + dx, elkLabel.getY() + dy);
+		LayoutUtil.setSize(slabel, elkLabel.getWidth(), elkLabel.getHeight());
 	}
 	
 	/**
@@ -426,109 +875,99 @@ public class ElkLayoutEngine implements ILayoutEngine {
 	 */
 	protected void transferEdgeLayout(SEdge sedge, ElkEdge elkEdge, LayoutContext context) {
 		if (!elkEdge.getSections().isEmpty()) {
-			Point offset = getOffset(sedge, elkEdge, context);
+			Point sprottyFrame = getSprottyFrame(sedge, context);
+			Point elkFrame = getElkFrame(elkEdge, context);
+			double dx = elkFrame.getX() - sprottyFrame.getX(), dy = elkFrame.getY() - sprottyFrame.getY();
 			ElkEdgeSection section = elkEdge.getSections().get(0);
-			List<Point> routingPoints = new ArrayList<>();
-			Point p1 = new Point(section.getStartX() + offset.getX(), section.getStartY() + offset.getY());
-			routingPoints.add(p1);
-			for (ElkBendPoint bendPoint : section.getBendPoints()) {
-				Point p2 = new Point(bendPoint.getX() + offset.getX(), bendPoint.getY() + offset.getY());
-				routingPoints.add(p2);
+			// Routing points may be shared with other model revisions, so they are replaced only if the route has changed
+			if (!hasRoute(sedge, section, dx, dy)) {
+				List<Point> routingPoints = new ArrayList<>(section.getBendPoints().size() + 2);
+				routingPoints.add(new Point(section.getStartX() + dx, section.getStartY() + dy));
+				for (ElkBendPoint bendPoint : section.getBendPoints()) {
+					routingPoints.add(new Point(bendPoint.getX() + dx, bendPoint.getY() + dy));
+				}
+				routingPoints.add(new Point(section.getEndX() + dx, section.getEndY() + dy));
+				sedge.setRoutingPoints(routingPoints);
 			}
-			Point p3 = new Point(section.getEndX() + offset.getX(), section.getEndY() + offset.getY());
-			routingPoints.add(p3);
-			sedge.setRoutingPoints(routingPoints);
 		}
 	}
 	
+	private static boolean hasRoute(SEdge sedge, ElkEdgeSection section, double dx, double dy) {
+		List<Point> routingPoints = sedge.getRoutingPoints();
+		List<ElkBendPoint> bendPoints = section.getBendPoints();
+		if (routingPoints == null || routingPoints.size() != bendPoints.size() + 2
+				|| !isAt(routingPoints.get(0), section.getStartX() + dx, section.getStartY() + dy)
+				|| !isAt(routingPoints.get(bendPoints.size() + 1), section.getEndX() + dx, section.getEndY() + dy))
+			return false;
+		for (int i = 0; i < bendPoints.size(); i++) {
+			if (!isAt(routingPoints.get(i + 1), bendPoints.get(i).getX() + dx, bendPoints.get(i).getY() + dy))
+				return false;
+		}
+		return true;
+	}
+	
+	private static boolean isAt(Point point, double x, double y) {
+		return point.getX() == x && point.getY() == y;
+	}
+	
 	/**
 	 * Compute the offset for applying a computed ELK layout to a sprotty model element. Such an offset can
 	 * occur when the two elements are put into containers with different coordinate systems.
 	 */
 	protected Point getOffset(SModelElement selem, ElkGraphElement elkElem, LayoutContext context) {
-		// Build a list of parents of the sprotty model element
-		LinkedList<SModelElement> sParents = null;
-		SModelElement currentSParent = selem;
-		while (currentSParent != null) {
-			currentSParent = context.parentMap.get(currentSParent);
-			if (currentSParent != null) {
-				ElkShape shapeForSParent = context.shapeMap.get(currentSParent);
-				if (shapeForSParent == elkElem.eContainer()) {
-					// Shortcut: the current sprotty parent matches the ELK container 
-					double x = 0, y = 0;
-					if (sParents != null) {
-						for (SModelElement sParent : sParents) {
-							if (sParent instanceof BoundsAware) {
-								Point position = ((BoundsAware) sParent).getPosition();
-								x -= position.getX();
-								y -= position.getY();
-							}
-						}
-					}
-					return new Point(x, y);
-				}
-				if (sParents == null)
-					sParents = new LinkedList<>();
-				sParents.addFirst(currentSParent);
-			}
-		}
-		
-		// Build a list of parents of the ELK graph element
-		LinkedList<EObject> elkParents = new LinkedList<>();
-		EObject currentElkParent = elkElem;
-		while (currentElkParent != null) {
-			currentElkParent = currentElkParent.eContainer();
-			if (currentElkParent != null) {
-				elkParents.addFirst(currentElkParent);
-			}
+		Point sprottyFrame = getSprottyFrame(selem, context);
+		Point elkFrame = getElkFrame(elkElem, context);
+		return new Point(elkFrame.getX() - sprottyFrame.getX(), elkFrame.getY() - sprottyFrame.getY());
+	}
+	
+	/**
+	 * Return the absolute origin of the coordinate system in which the position of the given sprotty
+	 * model element is expressed, relative to the graph. The origins of all containers are computed
+	 * once and stored in the context, so the layout of the containers must have been transferred
+	 * before their contents. The returned instance must not be modified.
+	 */
+	protected Point getSprottyFrame(SModelElement selem, LayoutContext context) {
+		SModelElement sParent = context.parentMap.get(selem);
+		if (sParent == null || sParent == context.sgraph)
+			return ORIGIN;
+		Point frame = context.sprottyFrames.get(sParent);
+		if (frame == null) {
+			Point parentFrame = getSprottyFrame(sParent, context);
+			Point position = sParent instanceof BoundsAware ? ((BoundsAware) sParent).getPosition() : null;
+			if (position == null)
+				frame = parentFrame;
+			else
+				frame = new Point(parentFrame.getX() + position.getX(), parentFrame.getY() + position.getY());
+			context.sprottyFrames.put(sParent, frame);
 		}
-		
-		boolean foundMismatch = false;
-		do {
-			// Find the next sprotty parent that is connected to a shape
-			ElkShape shapeForSParent = null;
-			int nextSParentIndex = 0;
-			while (shapeForSParent == null && nextSParentIndex < sParents.size()) {
-				shapeForSParent = context.shapeMap.get(sParents.get(nextSParentIndex++));
-			}
-			// Find the next ELK parent that is a shape
-			ElkShape elkParentShape = null;
-			while (elkParentShape == null && !elkParents.isEmpty()) {
-				EObject elkParent = elkParents.getFirst();
-				if (elkParent instanceof ElkShape)
-					elkParentShape = (ElkShape) elkParent;
-				else
-					elkParents.removeFirst();
-			}
-			// Remove the current parents if they match
-			if (shapeForSParent != null && shapeForSParent == elkParentShape) {
-				for (int i = 0; i < nextSParentIndex; i++) {
-					sParents.removeFirst();
-				}
-				elkParents.removeFirst();
+		return frame;
+	}
+	
+	/**
+	 * Return the absolute origin of the coordinate system in which the coordinates of the given ELK graph
+	 * element are expressed, relative to the graph. The origins of all containers are computed once and
+	 * stored in the context. The returned instance must not be modified.
+	 */
+	protected Point getElkFrame(ElkGraphElement elkElem, LayoutContext context) {
+		return getElkContainerFrame(elkElem.eContainer(), context);
+	}
+	
+	private Point getElkContainerFrame(EObject container, LayoutContext context) {
+		if (container == null || container == context.elkGraph)
+			return ORIGIN;
+		Point frame = context.elkFrames.get(container);
+		if (frame == null) {
+			Point parentFrame = getElkContainerFrame(container.eContainer(), context);
+			if (container instanceof ElkShape) {
+				ElkShape shape = (ElkShape) container;
+				frame = new Point(parentFrame.getX() + shape.getX(), parentFrame.getY() + shape.getY());
 			} else {
-				foundMismatch = true;
-			}
-		} while (!foundMismatch && !sParents.isEmpty() && !elkParents.isEmpty());
-		
-		double x = 0, y = 0;
-		// Add the remaining ELK shapes to the offset
-		for (EObject elkParent : elkParents) {
-			if (elkParent instanceof ElkShape) {
-				ElkShape elkShape = (ElkShape) elkParent;
-				x += elkShape.getX();
-				y += elkShape.getY();
-			}
-		}
-		// Subtract the remaining sprotty shapes from the offset
-		for (SModelElement sParent : sParents) {
-			if (sParent instanceof BoundsAware) {
-				Point position = ((BoundsAware) sParent).getPosition();
-				x -= position.getX();
-				y -= position.getY();
+				// Edges do not define a coordinate system on their own
+				frame = parentFrame;
 			}
+			context.elkFrames.put(container, frame);
 		}
-		return new Point(x, y);
+		return frame;
 	}
 	
 	/**
@@ -540,6 +979,84 @@ public class ElkLayoutEngine implements ILayoutEngine {
 		public final Map<SModelElement, SModelElement> parentMap = Maps.newHashMap();
 		public final Map<SModelElement, ElkShape> shapeMap = Maps.newLinkedHashMap();
 		public final Map<SEdge, ElkEdge> edgeMap = Maps.newLinkedHashMap();
+		public final Map<SModelElement, Point> sprottyFrames = Maps.newHashMap();
+		public final Map<EObject, Point> elkFrames = Maps.newHashMap();
+		public ElkGraphState graphState;
+	}
+	
+	/**
+	 * The ELK graph retained for a sprotty graph id, with its elements indexed by the ids of their sprotty
+	 * counterparts. When a new revision is transformed, all elements are first detached from each other and
+	 * then reassembled in the order of the new revision, so the structure of the patched graph is the same
+	 * as that of a newly created one. This class is not thread-safe.
+	 */
+	protected static class ElkGraphState {
+		
+		private Map<String, ElkGraphElement> elements = Maps.newHashMap();
+		
+		private Map<String, ElkGraphElement> retainedElements = Maps.newHashMap();
+		
+		/**
+		 * Detach all elements of the previous revision from their containers and connected shapes.
+		 */
+		protected void detach() {
+			retainedElements.clear();
+			for (ElkGraphElement element : elements.values()) {
+				element.getLabels().clear();
+				if (element instanceof ElkNode) {
+					ElkNode elkNode = (ElkNode) element;
+					elkNode.getContainedEdges().clear();
+					elkNode.getChildren().clear();
+					elkNode.getPorts().clear();
+				} else if (element instanceof ElkEdge) {
+					ElkEdge elkEdge = (ElkEdge) element;
+					elkEdge.getSources().clear();
+					elkEdge.getTargets().clear();
+					elkEdge.getSections().clear();
+				}
+			}
+		}
+		
+		/**
+		 * Return the element of the previous revision with the given id and type after resetting its layout
+		 * options and layout, or {@code null} if there is no such element.
+		 */
+		protected <T extends ElkGraphElement> T reuse(String id, Class<T> type) {
+			if (id == null || retainedElements.containsKey(id))
+				return null;
+			ElkGraphElement element = elements.get(id);
+			if (!type.isInstance(element))
+				return null;
+			element.getProperties().clear();
+			if (element instanceof ElkShape) {
+				ElkShape elkShape = (ElkShape) element;
+				elkShape.setLocation(0, 0);
+				elkShape.setDimensions(0, 0);
+			}
+			return type.cast(element);
+		}
+		
+		/**
+		 * Retain an element for the next revision.
+		 */
+		protected void retain(String id, ElkGraphElement element) {
+			if (id != null)
+				retainedElements.put(id, element);
+		}
+		
+		/**
+		 * Drop all elements of the previous revision that have not been retained.
+		 */
+		protected void commit() {
+			Map<String, ElkGraphElement> previousElements = elements;
+			elements = retainedElements;
+			retainedElements = previousElements;
+			retainedElements.clear();
+		}
+		
+		public int size() {
+			return elements.size();
+		}
 	}
 
 }
@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2017 TypeFox and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.typefox.sprotty.layout;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.typefox.sprotty.api.BoundsAware;
+import io.typefox.sprotty.api.Dimension;
+import io.typefox.sprotty.api.LayoutUtil;
+import io.typefox.sprotty.api.Point;
+import io.typefox.sprotty.api.SEdge;
+import io.typefox.sprotty.api.SModelElement;
+
+/**
+ * A bounded cache of layout results with least-recently-used eviction. The results are keyed by
+ * a fingerprint of the layout input, see {@link ElkGraphFingerprint}. This class is thread-safe.
+ */
+public class LayoutCache {
+	
+	private final int capacity;
+	
+	private final LinkedHashMap<Long, Result> entries;
+	
+	private long hitCount;
+	
+	private long missCount;
+	
+	private long evictionCount;
+	
+	public LayoutCache(int capacity) {
+		if (capacity <= 0)
+			throw new IllegalArgumentException("capacity must be positive");
+		this.capacity = capacity;
+		this.entries = new LinkedHashMap<Long, Result>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Long, Result> eldest) {
+				if (size() > LayoutCache.this.capacity) {
+					evictionCount++;
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+	
+	/**
+	 * Return the cached result for the given fingerprint, or {@code null} if there is none.
+	 */
+	public synchronized Result get(long fingerprint) {
+		Result result = entries.get(fingerprint);
+		if (result != null)
+			hitCount++;
+		else
+			missCount++;
+		return result;
+	}
+	
+	public synchronized void put(long fingerprint, Result result) {
+		entries.put(fingerprint, result);
+	}
+	
+	/**
+	 * Remove a result, e.g. because it could not be applied to the model.
+	 */
+	public synchronized void remove(long fingerprint) {
+		entries.remove(fingerprint);
+	}
+	
+	public synchronized void clear() {
+		entries.clear();
+	}
+	
+	public int getCapacity() {
+		return capacity;
+	}
+	
+	public synchronized int size() {
+		return entries.size();
+	}
+	
+	public synchronized long getHitCount() {
+		return hitCount;
+	}
+	
+	public synchronized long getMissCount() {
+		return missCount;
+	}
+	
+	public synchronized long getEvictionCount() {
+		return evictionCount;
+	}
+	
+	@Override
+	public synchronized String toString() {
+		return "LayoutCache [size=" + entries.size() + ", capacity=" + capacity + ", hitCount=" + hitCount
+				+ ", missCount=" + missCount + ", evictionCount=" + evictionCount + "]";
+	}
+	
+	/**
+	 * The layout computed for a set of model elements, stored as packed coordinates by element id:
+	 * position and size of bounds-aware elements, and the routing points of edges.
+	 */
+	public static class Result {
+		
+		private final Map<String, double[]> geometry = new HashMap<>();
+		
+		/**
+		 * Record the current layout of the given elements.
+		 */
+		public static Result record(Iterable<? extends SModelElement> elements) {
+			Result result = new Result();
+			for (SModelElement element : elements) {
+				if (element.getId() == null)
+					continue;
+				if (element instanceof BoundsAware) {
+					BoundsAware bae = (BoundsAware) element;
+					Point position = bae.getPosition();
+					Dimension size = bae.getSize();
+					if (position != null && size != null)
+						result.geometry.put(element.getId(), new double[] {
+								position.getX(), position.getY(), size.getWidth(), size.getHeight() });
+				} else if (element instanceof SEdge) {
+					List<Point> routingPoints = ((SEdge) element).getRoutingPoints();
+					if (routingPoints != null) {
+						double[] coordinates = new double[2 * routingPoints.size()];
+						for (int i = 0; i < routingPoints.size(); i++) {
+							coordinates[2 * i] = routingPoints.get(i).getX();
+							coordinates[2 * i + 1] = routingPoints.get(i).getY();
+						}
+						result.geometry.put(element.getId(), coordinates);
+					}
+				}
+			}
+			return result;
+		}
+		
+		/**
+		 * Apply the recorded layout to the given elements. Returns {@code false} without modifying any element
+		 * if the elements do not match the recorded ones.
+		 */
+		public boolean apply(Iterable<? extends SModelElement> elements) {
+			int count = 0;
+			for (SModelElement element : elements) {
+				if (element.getId() != null && (element instanceof BoundsAware || element instanceof SEdge)) {
+					double[] coordinates = geometry.get(element.getId());
+					if (coordinates == null && element instanceof BoundsAware)
+						return false;
+					if (coordinates != null)
+						count++;
+				}
+			}
+			if (count != geometry.size())
+				return false;
+			for (SModelElement element : elements) {
+				double[] coordinates = element.getId() != null ? geometry.get(element.getId()) : null;
+				if (coordinates == null)
+					continue;
+				if (element instanceof BoundsAware) {
+					BoundsAware bae = (BoundsAware) element;
+					LayoutUtil.setPosition(bae, coordinates[0], coordinates[1]);
+					LayoutUtil.setSize(bae, coordinates[2], coordinates[3]);
+				} else if (element instanceof SEdge) {
+					LayoutUtil.setRoutingPoints((SEdge) element, coordinates, coordinates.length);
+				}
+			}
+			return true;
+		}
+	}
+
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright (C) 2017 TypeFox and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.typefox.sprotty.layout;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.BooleanSupplier;
+
+import org.eclipse.elk.core.IGraphLayoutEngine;
+import org.eclipse.elk.core.RecursiveGraphLayoutEngine;
+import org.eclipse.elk.core.options.CoreOptions;
+import org.eclipse.elk.core.options.HierarchyHandling;
+import org.eclipse.elk.core.options.SizeConstraint;
+import org.eclipse.elk.core.util.BasicProgressMonitor;
+import org.eclipse.elk.core.util.IElkProgressMonitor;
+import org.eclipse.elk.graph.ElkConnectableShape;
+import org.eclipse.elk.graph.ElkEdge;
+import org.eclipse.elk.graph.ElkNode;
+import org.eclipse.elk.graph.ElkPort;
+
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Sets;
+
+/**
+ * A graph layout engine that lays out independent compound nodes concurrently. A compound node is
+ * independent if no edge crosses its boundary and its contents are not laid out together with its parent
+ * (see {@link CoreOptions#HIERARCHY_HANDLING}). The contents of independent compound nodes are laid out
+ * as separate tasks on a {@link ForkJoinPool}, and each parent is laid out with the
+ * {@link RecursiveGraphLayoutEngine} as soon as all its independent children are finished. While the
+ * parent is laid out, the finished children are treated as boxes with the fixed size computed for their
+ * contents. Each unit only reads and writes its own subtree, so the result does not depend on the order
+ * in which the tasks are executed. It equals the result of a sequential pass unless the size constraints
+ * of an independent compound node would enlarge it beyond the size of its contents.
+ *
+ * <p>Use this engine with {@link ElkLayoutEngine#setEngine(IGraphLayoutEngine)}.</p>
+ */
+public class ParallelGraphLayoutEngine implements IGraphLayoutEngine {
+	
+	public static final int DEFAULT_MIN_UNIT_SIZE = 20;
+	
+	private final ForkJoinPool pool;
+	
+	private final IGraphLayoutEngine unitEngine = new RecursiveGraphLayoutEngine();
+	
+	private int minUnitSize = DEFAULT_MIN_UNIT_SIZE;
+	
+	/**
+	 * Create an engine that uses the common fork-join pool.
+	 */
+	public ParallelGraphLayoutEngine() {
+		this(ForkJoinPool.commonPool());
+	}
+	
+	public ParallelGraphLayoutEngine(ForkJoinPool pool) {
+		if (pool == null)
+			throw new NullPointerException();
+		this.pool = pool;
+	}
+	
+	public int getMinUnitSize() {
+		return minUnitSize;
+	}
+	
+	/**
+	 * Set the minimal number of nodes contained in a compound node for laying it out in a separate task.
+	 * Smaller compound nodes are laid out together with their parent. The default is
+	 * {@value #DEFAULT_MIN_UNIT_SIZE}.
+	 */
+	public void setMinUnitSize(int minUnitSize) {
+		this.minUnitSize = minUnitSize;
+	}
+	
+	@Override
+	public void layout(ElkNode layoutGraph, IElkProgressMonitor monitor) {
+		monitor.begin("Parallel layout", 1);
+		Thread caller = Thread.currentThread();
+		BooleanSupplier canceled = () -> monitor.isCanceled() || caller.isInterrupted();
+		Set<ElkNode> crossedNodes = Sets.newIdentityHashSet();
+		collectCrossedNodes(layoutGraph, crossedNodes);
+		pool.invoke(new LayoutUnit(layoutGraph, crossedNodes, canceled));
+		monitor.done();
+	}
+	
+	/**
+	 * Collect all compound nodes with edges crossing their boundary, i.e. one end of the edge lies inside
+	 * the compound node and the other one outside.
+	 */
+	protected void collectCrossedNodes(ElkNode elkParent, Set<ElkNode> result) {
+		for (ElkEdge elkEdge : elkParent.getContainedEdges()) {
+			for (ElkConnectableShape shape : Iterables.concat(elkEdge.getSources(), elkEdge.getTargets())) {
+				ElkNode node = shape instanceof ElkPort ? ((ElkPort) shape).getParent() : (ElkNode) shape;
+				ElkNode ancestor = node != null ? node.getParent() : null;
+				while (ancestor != null && ancestor != elkParent) {
+					result.add(ancestor);
+					ancestor = ancestor.getParent();
+				}
+			}
+		}
+		for (ElkNode child : elkParent.getChildren()) {
+			collectCrossedNodes(child, result);
+		}
+	}
+	
+	/**
+	 * Whether the contents of the given child node can be laid out independently of its parent.
+	 */
+	protected boolean isIndependent(ElkNode child, Set<ElkNode> crossedNodes) {
+		if (child.getChildren().isEmpty() || crossedNodes.contains(child))
+			return false;
+		if (child.getProperty(CoreOptions.HIERARCHY_HANDLING) == HierarchyHandling.INCLUDE_CHILDREN)
+			return false;
+		for (ElkNode ancestor = child.getParent(); ancestor != null; ancestor = ancestor.getParent()) {
+			if (ancestor.getProperty(CoreOptions.HIERARCHY_HANDLING) == HierarchyHandling.INCLUDE_CHILDREN)
+				return false;
+		}
+		return countNodes(child, minUnitSize) >= minUnitSize;
+	}
+	
+	private static int countNodes(ElkNode node, int limit) {
+		int count = node.getChildren().size();
+		for (ElkNode child : node.getChildren()) {
+			if (count >= limit)
+				break;
+			count += countNodes(child, limit - count);
+		}
+		return count;
+	}
+	
+	/**
+	 * Lays out the contents of a compound node after laying out its independent children in parallel.
+	 */
+	protected class LayoutUnit extends RecursiveAction {
+		
+		private static final long serialVersionUID = 1L;
+		
+		private final ElkNode node;
+		
+		private final Set<ElkNode> crossedNodes;
+		
+		private final BooleanSupplier canceled;
+		
+		public LayoutUnit(ElkNode node, Set<ElkNode> crossedNodes, BooleanSupplier canceled) {
+			this.node = node;
+			this.crossedNodes = crossedNodes;
+			this.canceled = canceled;
+		}
+		
+		@Override
+		protected void compute() {
+			if (canceled.getAsBoolean())
+				return;
+			List<ElkNode> independentChildren = new ArrayList<>();
+			List<LayoutUnit> subunits = new ArrayList<>();
+			for (ElkNode child : node.getChildren()) {
+				if (isIndependent(child, crossedNodes)) {
+					independentChildren.add(child);
+					subunits.add(new LayoutUnit(child, crossedNodes, canceled));
+				}
+			}
+			// Unlike invokeAll, wait for all subunits even if one of them fails, so that none of them
+			// modifies the graph after this unit has completed
+			for (LayoutUnit subunit : subunits) {
+				subunit.fork();
+			}
+			for (int i = subunits.size() - 1; i >= 0; i--) {
+				subunits.get(i).quietlyJoin();
+			}
+			for (LayoutUnit subunit : subunits) {
+				subunit.join();
+			}
+			if (canceled.getAsBoolean())
+				return;
+			
+			// Detach the contents of the finished children so they are not laid out again, and keep
+			// their size, since the parent's algorithm would otherwise compute it as for a leaf node
+			List<List<ElkNode>> detachedChildren = new ArrayList<>(independentChildren.size());
+			List<List<ElkEdge>> detachedEdges = new ArrayList<>(independentChildren.size());
+			List<EnumSet<SizeConstraint>> sizeConstraints = new ArrayList<>(independentChildren.size());
+			for (ElkNode child : independentChildren) {
+				detachedChildren.add(new ArrayList<>(child.getChildren()));
+				detachedEdges.add(new ArrayList<>(child.getContainedEdges()));
+				child.getContainedEdges().clear();
+				child.getChildren().clear();
+				sizeConstraints.add(child.getAllProperties().containsKey(CoreOptions.NODE_SIZE_CONSTRAINTS)
+						? child.getProperty(CoreOptions.NODE_SIZE_CONSTRAINTS) : null);
+				child.setProperty(CoreOptions.NODE_SIZE_CONSTRAINTS, SizeConstraint.fixed());
+			}
+			try {
+				unitEngine.layout(node, new BasicProgressMonitor() {
+					@Override
+					public boolean isCanceled() {
+						return canceled.getAsBoolean();
+					}
+				});
+			} finally {
+				for (int i = 0; i < independentChildren.size(); i++) {
+					ElkNode child = independentChildren.get(i);
+					child.getChildren().addAll(detachedChildren.get(i));
+					child.getContainedEdges().addAll(detachedEdges.get(i));
+					child.setProperty(CoreOptions.NODE_SIZE_CONSTRAINTS, sizeConstraints.get(i));
+				}
+			}
+		}
+	}
+
+}
@@ -72,10 +72,19 @@ public class SprottyLayoutConfigurator extends LayoutConfigurator {
         super.visit(element);
         IPropertyHolder typeProperties = getPropertiesByType(element.getProperty(ElkLayoutEngine.P_TYPE));
         applyProperties(element, typeProperties);
-        IPropertyHolder idProperties = getPropertiesById(element.getIdentifier());
+        // The identifiers of ELK elements created by the layout engine are already converted with toElkId
+        IPropertyHolder idProperties = element.getIdentifier() != null ? idOptionMap.get(element.getIdentifier()) : null;
         applyProperties(element, idProperties);
     }
     
+    /**
+     * Create an immutable snapshot of the current configuration, which can be shared by concurrent layouts.
+     * Later changes of this configurator do not affect the snapshot.
+     */
+    public CompiledLayoutConfigurator compile() {
+        return new CompiledLayoutConfigurator(this, typeOptionMap, idOptionMap);
+    }
+    
     @Override
     public LayoutConfigurator overrideWith(LayoutConfigurator other) {
     	if (other instanceof SprottyLayoutConfigurator)
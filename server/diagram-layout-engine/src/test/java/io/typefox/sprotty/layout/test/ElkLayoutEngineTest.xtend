@@ -8,6 +8,7 @@ package io.typefox.sprotty.layout.test
 
 import com.google.inject.Inject
 import io.typefox.sprotty.api.Dimension
+import io.typefox.sprotty.api.LayoutUtil
 import io.typefox.sprotty.api.Point
 import io.typefox.sprotty.api.SCompartment
 import io.typefox.sprotty.api.SEdge
@@ -16,15 +17,23 @@ import io.typefox.sprotty.api.SLabel
 import io.typefox.sprotty.api.SModelRoot
 import io.typefox.sprotty.api.SNode
 import io.typefox.sprotty.api.SPort
+import io.typefox.sprotty.layout.AdaptiveGraphLayoutEngine
 import io.typefox.sprotty.layout.ElkLayoutEngine
+import io.typefox.sprotty.layout.ParallelGraphLayoutEngine
 import io.typefox.sprotty.layout.SprottyLayoutConfigurator
+import org.eclipse.elk.alg.layered.options.LayeredOptions
 import org.eclipse.elk.core.math.ElkPadding
 import org.eclipse.elk.core.math.KVector
 import org.eclipse.elk.core.math.KVectorChain
 import org.eclipse.elk.core.options.CoreOptions
+import org.eclipse.elk.core.util.BasicProgressMonitor
+import org.eclipse.elk.core.util.ElkUtil
+import org.eclipse.elk.core.util.IElkProgressMonitor
 import org.eclipse.elk.graph.ElkNode
 import org.junit.Test
 
+import static org.junit.Assert.*
+
 import static extension io.typefox.sprotty.api.SModelUtil.*
 
 class ElkLayoutEngineTest extends AbstractElkTest {
@@ -53,6 +62,14 @@ class ElkLayoutEngineTest extends AbstractElkTest {
 			return transformGraph(model).elkGraph
 		}
 		
+		def getRetainedGraph(SGraph model) {
+			return transformGraph(model, getElkGraphState(model)).elkGraph
+		}
+		
+		def getRetainedGraph(SGraph model, String diagramKey) {
+			return transformGraph(model, getElkGraphState(model, diagramKey)).elkGraph
+		}
+		
 	}
 	
 	@Inject TestEngine engine
@@ -368,6 +385,344 @@ class ElkLayoutEngineTest extends AbstractElkTest {
 		''')
 	}
 	
+	@Test
+	def void testLayoutCache() {
+		val (String)=>SGraph createModel = [ labelText |
+			create(SGraph, 'g') [
+				addChild(SNode) [
+					position = new Point => [ x = 10; y = 10]
+					size = new Dimension => [ width = 20; height = 20 ]
+					addChild(SLabel) [
+						text = labelText
+						size = new Dimension => [ width = 15; height = 10 ]
+					]
+				]
+				addChild(SNode) [
+					position = new Point => [ x = 60; y = 10]
+					size = new Dimension => [ width = 20; height = 20 ]
+				]
+				addChild(SEdge) [
+					sourceId = 'g/node0'
+					targetId = 'g/node1'
+				]
+			]
+		]
+		val (SprottyLayoutConfigurator)=>void configure = [
+			val bendPoint = new KVectorChain(new KVector(30, 20), new KVector(45, 25), new KVector(60, 20))
+			configureById('g/edge2').setProperty(CoreOptions.BEND_POINTS, bendPoint)
+		]
+		val model1 = createModel.apply('Foo')
+		engine.layout(model1, configure)
+		val model2 = createModel.apply('Bar')
+		engine.layout(model2, configure)
+		assertEquals(1, engine.layoutCache.missCount)
+		assertEquals(1, engine.layoutCache.hitCount)
+		for (i : 0..2) {
+			assertEquals(model1.children.get(i).toString.replace('Foo', 'Bar'), model2.children.get(i).toString)
+		}
+		
+		val model3 = createModel.apply('Foo')
+		engine.layout(model3) [
+			configure.apply(it)
+			configureById('g/node1').setProperty(CoreOptions.PADDING, new ElkPadding(5))
+		]
+		assertEquals(2, engine.layoutCache.missCount)
+	}
+	
+	@Test
+	def void testIncrementalLayoutWithGraphLevelEdge() {
+		val (double)=>SGraph createModel = [ compoundX |
+			create(SGraph, 'g') [
+				addChild(SNode, 'c') [
+					position = new Point => [ x = compoundX; y = 10 ]
+					size = new Dimension => [ width = 50; height = 30 ]
+					addChild(SNode, 'a') [
+						position = new Point => [ x = 5; y = 5 ]
+						size = new Dimension => [ width = 10; height = 10 ]
+					]
+					addChild(SNode, 'b') [
+						position = new Point => [ x = 30; y = 5 ]
+						size = new Dimension => [ width = 10; height = 10 ]
+					]
+				]
+				addChild(SEdge, 'e') [   // Added as child of 'c' in the ELK graph
+					sourceId = 'a'
+					targetId = 'b'
+				]
+			]
+		]
+		val (SprottyLayoutConfigurator)=>void configure = [
+			val bendPoints = new KVectorChain(new KVector(15, 10), new KVector(30, 10))
+			configureById('e').setProperty(CoreOptions.BEND_POINTS, bendPoints)
+		]
+		engine.incrementalLayout = true
+		engine.layout(createModel.apply(10), configure)
+		// The contents of 'c' are unchanged, but the edge must move together with 'c'
+		val model = createModel.apply(40)
+		engine.layout(model, configure)
+		model.children.get(1).assertSerializedTo('''
+			SEdge [
+			  sourceId = "a"
+			  targetId = "b"
+			  routingPoints = ArrayList (
+			    Point [
+			      x = 55.0
+			      y = 20.0
+			    ],
+			    Point [
+			      x = 70.0
+			      y = 20.0
+			    ]
+			  )
+			  type = "edge"
+			  id = "e"
+			]
+		''')
+	}
+	
+	@Test
+	def void testIncrementalLayoutOfChangedCompoundNode() {
+		ElkLayoutEngine.initialize(new LayeredOptions)
+		val incrementalEngine = new TestEngine {
+			override layout(SModelRoot model) {
+				layout(model as SGraph) [
+					configure(ElkNode).setProperty(CoreOptions.ALGORITHM, 'org.eclipse.elk.layered')
+				]
+			}
+		}
+		incrementalEngine.incrementalLayout = true
+		val (int)=>SGraph createModel = [ childCount |
+			create(SGraph, 'g') [
+				addChild(SNode, 'c1') [
+					for (i : 0..<2) {
+						addChild(SNode, 'c1n' + i) [
+							size = new Dimension => [ width = 20; height = 20 ]
+						]
+					}
+				]
+				addChild(SNode, 'c2') [
+					for (i : 0..<childCount) {
+						addChild(SNode, 'c2n' + i) [
+							size = new Dimension => [ width = 20; height = 20 ]
+						]
+					}
+				]
+			]
+		]
+		val model1 = createModel.apply(2)
+		incrementalEngine.layout(model1, 'client1')
+		// Add a node to 'c2' and move the previous children of both compound nodes away from their layout
+		val ()=>SGraph createUpdatedModel = [
+			val model = createModel.apply(3)
+			LayoutUtil.copyLayoutData(model1, model)
+			for (compound : model.children) {
+				for (i : 0..<2) {
+					(compound.children.get(i) as SNode).position = new Point(100, 100)
+				}
+			}
+			return model
+		]
+		val model2 = createUpdatedModel.apply
+		incrementalEngine.layout(model2, 'client1')
+		// The contents of 'c1' are frozen, so they keep their current positions
+		for (child : model2.children.get(0).children) {
+			assertEquals(new Point(100, 100), (child as SNode).position)
+		}
+		for (child : model2.children.get(1).children) {
+			assertNotEquals(new Point(100, 100), (child as SNode).position)
+		}
+		
+		// The last layout of another diagram with the same graph id is not considered
+		val model3 = createUpdatedModel.apply
+		incrementalEngine.layout(model3, 'client2')
+		for (child : model3.children.get(0).children) {
+			assertNotEquals(new Point(100, 100), (child as SNode).position)
+		}
+	}
+	
+	@Test
+	def void testParallelEngine() {
+		ElkLayoutEngine.initialize(new LayeredOptions)
+		val ()=>SGraph createModel = [
+			create(SGraph, 'g') [
+				for (i : 0..<3) {
+					addChild(SNode, 'c' + i) [
+						for (j : 0..<4) {
+							addChild(SNode, 'c' + i + 'n' + j) [
+								size = new Dimension => [ width = 20; height = 20 ]
+							]
+						}
+						for (j : 1..<4) {
+							addChild(SEdge, 'c' + i + 'e' + j) [
+								sourceId = 'c' + i + 'n' + (j - 1)
+								targetId = 'c' + i + 'n' + j
+							]
+						}
+					]
+				}
+				// Too small for a separate task, so it is laid out together with the graph
+				addChild(SNode, 'c3') [
+					addChild(SNode, 'c3n0') [
+						size = new Dimension => [ width = 20; height = 20 ]
+					]
+				]
+				addChild(SEdge, 'e1') [
+					sourceId = 'c0'
+					targetId = 'c1'
+				]
+				addChild(SEdge, 'e2') [
+					sourceId = 'c1'
+					targetId = 'c3'
+				]
+			]
+		]
+		val (SprottyLayoutConfigurator)=>void configure = [
+			configure(ElkNode).setProperty(CoreOptions.ALGORITHM, 'org.eclipse.elk.layered')
+		]
+		val sequentialModel = createModel.apply
+		engine.layout(sequentialModel, configure)
+		engine.engine = new ParallelGraphLayoutEngine => [ minUnitSize = 2 ]
+		val parallelModel = createModel.apply
+		engine.layout(parallelModel, configure)
+		assertEquals(sequentialModel.toString, parallelModel.toString)
+	}
+	
+	@Test
+	def void testReuseElkGraph() {
+		val model1 = create(SGraph, 'g') [
+			addChild(SNode, 'n1') [
+				size = new Dimension => [ width = 20; height = 20 ]
+				addChild(SLabel, 'l1') [ text = 'Foo' ]
+			]
+			addChild(SNode, 'n2')
+			addChild(SEdge, 'e1') [
+				sourceId = 'n1'
+				targetId = 'n2'
+			]
+		]
+		val retainedGraph = engine.getRetainedGraph(model1)
+		retainedGraph.children.head.setProperty(CoreOptions.PADDING, new ElkPadding(5))
+		
+		val model2 = create(SGraph, 'g') [
+			addChild(SNode, 'n3')
+			addChild(SNode, 'n1') [
+				size = new Dimension => [ width = 30; height = 20 ]
+				addChild(SLabel, 'l1') [ text = 'Bar' ]
+				addChild(SPort, 'p1')
+			]
+			addChild(SEdge, 'e1') [
+				sourceId = 'p1'
+				targetId = 'n3'
+			]
+		]
+		val patchedGraph = engine.getRetainedGraph(model2)
+		assertSame(retainedGraph, patchedGraph)
+		assertEquals(engine.getTransformedGraph(model2).serialize, patchedGraph.serialize)
+		// Another diagram with the same graph id has its own ELK graph
+		assertNotSame(patchedGraph, engine.getRetainedGraph(model2, 'other'))
+	}
+	
+	@Test
+	def void testCompiledConfigurator() {
+		val model = create(SGraph, 'g') [
+			addChild(SNode, '1') [
+				addChild(SLabel, '1.label') [ text = 'Foo' ]
+			]
+			addChild(SNode, 'n2', 'special')
+			addChild(SEdge, 'e') [
+				sourceId = '1'
+				targetId = 'n2'
+			]
+		]
+		val configurator = engine.configurator
+		configurator.configureByType('special').setProperty(CoreOptions.PADDING, new ElkPadding(5))
+		configurator.configureById('1.label').setProperty(CoreOptions.NODE_LABELS_PADDING, new ElkPadding(2))
+		val expected = engine.getTransformedGraph(model)
+		ElkUtil.applyVisitors(expected, configurator)
+		
+		val compiled = configurator.compile
+		// Changes after compiling must not affect the compiled configurator
+		configurator.configureByType('node').setProperty(CoreOptions.PADDING, new ElkPadding(10))
+		val actual = engine.getTransformedGraph(model)
+		ElkUtil.applyVisitors(actual, compiled)
+		assertEquals(expected.serialize, actual.serialize)
+	}
+	
+	@Test
+	def void testAdaptiveEngine() {
+		val adaptiveEngine = new AdaptiveGraphLayoutEngine
+		adaptiveEngine.clearStrategies
+		adaptiveEngine.addStrategy(new AdaptiveGraphLayoutEngine.Strategy('small') {
+			override isApplicable(AdaptiveGraphLayoutEngine.GraphMetrics metrics) {
+				metrics.nodeCount <= 2
+			}
+		})
+		adaptiveEngine.fallbackStrategy = new AdaptiveGraphLayoutEngine.Strategy('large') {
+			override configure(ElkNode graph, AdaptiveGraphLayoutEngine.GraphMetrics metrics) {
+				AdaptiveGraphLayoutEngine.setOnCompoundNodes(graph, CoreOptions.ALGORITHM, 'org.eclipse.elk.fixed')
+			}
+		}
+		val (int)=>SGraph createModel = [ nodeCount |
+			create(SGraph, 'g') [
+				for (i : 0..<nodeCount) {
+					addChild(SNode) [
+						position = new Point => [ x = 10; y = 10 ]
+						size = new Dimension => [ width = 20; height = 20 ]
+					]
+				}
+			]
+		]
+		
+		val smallGraph = engine.getTransformedGraph(createModel.apply(2))
+		ElkUtil.applyVisitors(smallGraph, engine.configurator)
+		adaptiveEngine.layout(smallGraph, new BasicProgressMonitor)
+		assertEquals('small', smallGraph.getProperty(AdaptiveGraphLayoutEngine.P_STRATEGY))
+		assertFalse(smallGraph.getProperty(AdaptiveGraphLayoutEngine.P_FALLBACK))
+		
+		val largeGraph = engine.getTransformedGraph(createModel.apply(3))
+		adaptiveEngine.layout(largeGraph, new BasicProgressMonitor)
+		assertEquals('large', largeGraph.getProperty(AdaptiveGraphLayoutEngine.P_STRATEGY))
+		assertEquals(3, AdaptiveGraphLayoutEngine.GraphMetrics.of(largeGraph).nodeCount)
+	}
+	
+	@Test
+	def void testAdaptiveEngineFallback() {
+		ElkLayoutEngine.initialize(new LayeredOptions)
+		val monitors = <IElkProgressMonitor>newArrayList
+		val adaptiveEngine = new AdaptiveGraphLayoutEngine [ graph, monitor |
+			monitors += monitor
+			if (monitors.size == 1) {
+				// The first layout runs until it notices the cancellation
+				while (!monitor.isCanceled) {
+					Thread.sleep(1)
+				}
+			}
+		]
+		adaptiveEngine.timeBudget = 10
+		val (int)=>SGraph createModel = [ nodeCount |
+			create(SGraph, 'g') [
+				for (i : 0..<nodeCount) {
+					addChild(SNode) [
+						size = new Dimension => [ width = 20; height = 20 ]
+					]
+				}
+			]
+		]
+		
+		val graph1 = engine.getTransformedGraph(createModel.apply(3))
+		adaptiveEngine.layout(graph1, new BasicProgressMonitor)
+		assertEquals(2, monitors.size)
+		assertTrue(monitors.head.isCanceled)
+		assertEquals('box', graph1.getProperty(AdaptiveGraphLayoutEngine.P_STRATEGY))
+		assertTrue(graph1.getProperty(AdaptiveGraphLayoutEngine.P_FALLBACK))
+		
+		adaptiveEngine.maxNodes = 2
+		val graph2 = engine.getTransformedGraph(createModel.apply(3))
+		adaptiveEngine.layout(graph2, new BasicProgressMonitor)
+		assertEquals('layered-fast', graph2.getProperty(AdaptiveGraphLayoutEngine.P_STRATEGY))
+		assertFalse(graph2.getProperty(AdaptiveGraphLayoutEngine.P_FALLBACK))
+	}
+	
 	
 	
 }
\ No newline at end of file
@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2017 TypeFox and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.typefox.sprotty.server.json;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import io.typefox.sprotty.api.ActionMessage;
+import io.typefox.sprotty.api.Bounds;
+import io.typefox.sprotty.api.CenterAction;
+import io.typefox.sprotty.api.ComputedBoundsAction;
+import io.typefox.sprotty.api.ElementAndAlignment;
+import io.typefox.sprotty.api.ElementAndBounds;
+import io.typefox.sprotty.api.Point;
+import io.typefox.sprotty.api.RequestPopupModelAction;
+import io.typefox.sprotty.api.SelectAction;
+
+/**
+ * Compares the {@link ActionTypeAdapter}, which uses precomputed {@link PropertyAccessors}, with the
+ * {@link ReflectiveActionTypeAdapter}. The messages are small actions as they are typically exchanged
+ * during user interaction, so the cost of the adapter itself is not hidden behind model serialization.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ActionTypeAdapterBenchmark {
+	
+	@Param({ "precomputed", "reflective" })
+	public String adapter;
+	
+	private Gson gson;
+	
+	private List<ActionMessage> messages;
+	
+	private List<String> jsonMessages;
+	
+	@Setup
+	public void setup() {
+		GsonBuilder builder = new GsonBuilder();
+		if (adapter.equals("reflective"))
+			builder.registerTypeAdapterFactory(new ReflectiveActionTypeAdapter.Factory());
+		else
+			builder.registerTypeAdapterFactory(new ActionTypeAdapter.Factory());
+		builder.registerTypeAdapterFactory(new EnumTypeAdapter.Factory());
+		gson = builder.create();
+		
+		messages = new ArrayList<>();
+		messages.add(new ActionMessage("client", new SelectAction(a -> {
+			a.setSelectedElementsIDs(Arrays.asList("node0", "node1"));
+			a.setDeselectedElementsIDs(Arrays.asList("edge0"));
+		})));
+		messages.add(new ActionMessage("client", new CenterAction(a -> {
+			a.setElementIds(Arrays.asList("node0"));
+		})));
+		messages.add(new ActionMessage("client", new RequestPopupModelAction(a -> {
+			a.setElementId("node0");
+			a.setBounds(new Bounds(10, 20, 30, 40));
+		})));
+		messages.add(new ActionMessage("client", new ComputedBoundsAction(a -> {
+			a.setRevision(17);
+			a.setBounds(Arrays.asList(new ElementAndBounds(b -> {
+				b.setElementId("label0");
+				b.setNewBounds(new Bounds(0, 0, 42, 12));
+			})));
+			a.setAlignments(Arrays.asList(new ElementAndAlignment(b -> {
+				b.setElementId("label0");
+				b.setNewAlignment(new Point(0, 10));
+			})));
+		})));
+		jsonMessages = new ArrayList<>();
+		for (ActionMessage message : messages) {
+			jsonMessages.add(gson.toJson(message, ActionMessage.class));
+		}
+	}
+	
+	@Benchmark
+	public void write(Blackhole blackhole) {
+		for (ActionMessage message : messages) {
+			blackhole.consume(gson.toJson(message, ActionMessage.class));
+		}
+	}
+	
+	@Benchmark
+	public void read(Blackhole blackhole) {
+		for (String json : jsonMessages) {
+			blackhole.consume(gson.fromJson(json, ActionMessage.class));
+		}
+	}
+
+}
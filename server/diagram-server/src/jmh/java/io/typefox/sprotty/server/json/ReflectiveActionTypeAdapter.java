@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2017 TypeFox and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.typefox.sprotty.server.json;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.TypeAdapter;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+import io.typefox.sprotty.api.Action;
+
+/**
+ * Action type adapter that looks up fields and constructors reflectively for every object it reads or writes.
+ * This is the behavior of the {@link ActionTypeAdapter} before {@link PropertyAccessors} were introduced,
+ * and it serves as baseline for the benchmarks.
+ */
+public class ReflectiveActionTypeAdapter extends ActionTypeAdapter {
+	
+	public static class Factory extends ActionTypeAdapter.Factory {
+		
+		// Not initialized in the declaration because it is filled by the super constructor
+		private Map<String, Class<? extends Action>> actionKinds;
+		
+		@Override
+		public void addActionKind(String kind, Class<? extends Action> clazz) {
+			if (actionKinds == null)
+				actionKinds = new HashMap<>();
+			actionKinds.put(kind, clazz);
+		}
+		
+		@Override
+		@SuppressWarnings("unchecked")
+		public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> typeToken) {
+			if (!Action.class.isAssignableFrom(typeToken.getRawType()))
+				return null;
+			return (TypeAdapter<T>) new ReflectiveActionTypeAdapter(gson, actionKinds);
+		}
+	}
+	
+	private final Gson gson;
+	
+	private final Map<String, Class<? extends Action>> actionKinds;
+	
+	public ReflectiveActionTypeAdapter(Gson gson, Map<String, Class<? extends Action>> actionKinds) {
+		super(gson, actionKinds);
+		this.gson = gson;
+		this.actionKinds = actionKinds;
+	}
+	
+	@Override
+	protected Action createInstance(String kind) {
+		Class<? extends Action> clazz = actionKinds.get(kind);
+		if (clazz == null)
+			throw new IllegalArgumentException("Unknown action kind: " + kind);
+		try {
+			return clazz.getConstructor().newInstance();
+		} catch (Exception e) {
+			throw new RuntimeException("Unable to invoke action constructor", e);
+		}
+	}
+	
+	@Override
+	protected void assignProperty(Action instance, String propertyName, JsonReader in) throws IOException {
+		try {
+			Field field = findField(instance.getClass(), propertyName);
+			Object value = gson.fromJson(in, field.getGenericType());
+			field.set(instance, value);
+		} catch (NoSuchFieldException e) {
+			in.skipValue();
+		} catch (IllegalAccessException e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	@Override
+	protected void assignProperty(Action instance, String propertyName, JsonElement element) {
+		try {
+			Field field = findField(instance.getClass(), propertyName);
+			Object value = gson.fromJson(element, field.getGenericType());
+			field.set(instance, value);
+		} catch (NoSuchFieldException e) {
+			// Ignore this property
+		} catch (IllegalAccessException e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	protected Field findField(Class<?> type, String propertyName) throws NoSuchFieldException {
+		try {
+			Field field = type.getDeclaredField(propertyName);
+			field.setAccessible(true);
+			return field;
+		} catch (NoSuchFieldException e) {
+			Class<?> superType = type.getSuperclass();
+			if (superType != null)
+				return findField(superType, propertyName);
+			else
+				throw e;
+		}
+	}
+	
+	@Override
+	public void write(JsonWriter out, Action value) throws IOException {
+		if (value == null) {
+			out.nullValue();
+		} else {
+			try {
+				out.beginObject();
+				Set<String> written = new HashSet<>();
+				writeProperties(out, value, value.getClass(), written);
+				out.endObject();
+			} catch (IllegalAccessException e) {
+				throw new RuntimeException(e);
+			}
+		}
+	}
+	
+	protected void writeProperties(JsonWriter out, Action instance, Class<?> type, Set<String> written)
+			throws IOException, IllegalAccessException {
+		for (Field field : type.getDeclaredFields()) {
+			int modifiers = field.getModifiers();
+			if (!Modifier.isTransient(modifiers) && !Modifier.isStatic(modifiers)
+					&& written.add(field.getName())) {
+				field.setAccessible(true);
+				out.name(field.getName());
+				Object value = field.get(instance);
+				if (value == null)
+					out.nullValue();
+				else
+					gson.toJson(value, value.getClass(), out);
+			}
+		}
+		Class<?> superType = type.getSuperclass();
+		if (superType != null) {
+			writeProperties(out, instance, superType, written);
+		}
+	}
+
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2017 TypeFox and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.typefox.sprotty.server.json;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import io.typefox.sprotty.api.ActionMessage;
+import io.typefox.sprotty.api.Dimension;
+import io.typefox.sprotty.api.Point;
+import io.typefox.sprotty.api.SEdge;
+import io.typefox.sprotty.api.SGraph;
+import io.typefox.sprotty.api.SLabel;
+import io.typefox.sprotty.api.SModelElement;
+import io.typefox.sprotty.api.SNode;
+import io.typefox.sprotty.api.SetModelAction;
+
+/**
+ * Compares the JSON text encoding of a large {@link SetModelAction} with the binary encoding of
+ * {@link BinaryJsonWriter}. The payload sizes are printed when the benchmark state is set up.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class WireFormatBenchmark {
+	
+	@Param({ "1000", "10000" })
+	public int nodeCount;
+	
+	private Gson gson;
+	
+	private ActionMessage message;
+	
+	private byte[] jsonPayload;
+	
+	private byte[] binaryPayload;
+	
+	@Setup
+	public void setup() throws IOException {
+		gson = ActionTypeAdapter.configureGson(new GsonBuilder()).create();
+		message = new ActionMessage("client", new SetModelAction(createGraph(nodeCount)));
+		jsonPayload = encodeJson().getBytes(StandardCharsets.UTF_8);
+		binaryPayload = encodeBinary();
+		System.out.println();
+		System.out.println("JSON payload: " + jsonPayload.length + " bytes, binary payload: " + binaryPayload.length
+				+ " bytes (" + (100 * binaryPayload.length / jsonPayload.length) + "%)");
+	}
+	
+	public static SGraph createGraph(int nodeCount) {
+		SGraph graph = new SGraph();
+		graph.setType("graph");
+		graph.setId("graph");
+		List<SModelElement> children = new ArrayList<>();
+		for (int i = 0; i < nodeCount; i++) {
+			SNode node = new SNode();
+			node.setType("node:class");
+			node.setId("node" + i);
+			node.setPosition(new Point(i * 37.25, (i % 100) * 21.5));
+			node.setSize(new Dimension(120.5, 40));
+			node.setLayout("vbox");
+			SLabel label = new SLabel();
+			label.setType("label:heading");
+			label.setId("node" + i + "_label");
+			label.setText("Node " + i);
+			label.setPosition(new Point(5, 5));
+			label.setSize(new Dimension(48.359375, 16));
+			node.setChildren(new ArrayList<>(Arrays.asList(label)));
+			children.add(node);
+			if (i > 0) {
+				SEdge edge = new SEdge();
+				edge.setType("edge:straight");
+				edge.setId("edge" + i);
+				edge.setSourceId("node" + (i - 1));
+				edge.setTargetId("node" + i);
+				edge.setRoutingPoints(Arrays.asList(new Point((i - 1) * 37.25 + 120.5, 20), new Point(i * 37.25, 20)));
+				children.add(edge);
+			}
+		}
+		graph.setChildren(children);
+		return graph;
+	}
+	
+	@Benchmark
+	public String encodeJson() {
+		return gson.toJson(message, ActionMessage.class);
+	}
+	
+	@Benchmark
+	public byte[] encodeBinary() throws IOException {
+		ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		BinaryJsonWriter writer = new BinaryJsonWriter(stream);
+		gson.toJson(message, ActionMessage.class, writer);
+		writer.flush();
+		return stream.toByteArray();
+	}
+	
+	@Benchmark
+	public ActionMessage decodeJson() {
+		return gson.fromJson(new String(jsonPayload, StandardCharsets.UTF_8), ActionMessage.class);
+	}
+	
+	@Benchmark
+	public ActionMessage decodeBinary() throws IOException {
+		BinaryJsonParser parser = new BinaryJsonParser(new ByteArrayInputStream(binaryPayload));
+		return gson.fromJson(parser.parse(), ActionMessage.class);
+	}
+
+}
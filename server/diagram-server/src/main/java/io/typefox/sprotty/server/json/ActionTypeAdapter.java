@@ -6,7 +6,6 @@
  */
 package io.typefox.sprotty.server.json;
 
-import java.lang.reflect.Constructor;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -85,6 +84,8 @@ public class ActionTypeAdapter extends PropertyBasedTypeAdapter<Action> {
 		
 		public void addActionKind(String kind, Class<? extends Action> clazz) {
 			actionKinds.put(kind, clazz);
+			// Precompute the property accessors, which are shared by all factories
+			PropertyAccessors.get(clazz);
 		}
 		
 		@Override
@@ -109,8 +110,7 @@ public class ActionTypeAdapter extends PropertyBasedTypeAdapter<Action> {
 		if (clazz == null)
 			throw new IllegalArgumentException("Unknown action kind: " + kind);
 		try {
-			Constructor<? extends Action> constructor = clazz.getConstructor();
-			return constructor.newInstance();
+			return (Action) PropertyAccessors.get(clazz).newInstance();
 		} catch (NoSuchMethodException e) {
 			throw new RuntimeException("Action class does not have a default constructor.", e);
 		} catch (Exception e) {
@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2017 TypeFox and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.typefox.sprotty.server.json;
+
+import static io.typefox.sprotty.server.json.BinaryJsonWriter.*;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonPrimitive;
+
+/**
+ * Parses the binary encoding produced by {@link BinaryJsonWriter} into a JSON tree, which can then be
+ * converted to Java objects with {@link com.google.gson.Gson#fromJson(JsonElement, Class)}.
+ */
+public class BinaryJsonParser {
+	
+	private final InputStream in;
+	
+	private List<String> stringTable = new ArrayList<>();
+	
+	public BinaryJsonParser(InputStream in) {
+		this.in = in;
+	}
+	
+	/**
+	 * Parse the next value from the input stream.
+	 */
+	public JsonElement parse() throws IOException {
+		return readItem(readByte());
+	}
+	
+	protected JsonElement readItem(int initial) throws IOException {
+		int majorType = initial >>> 5;
+		int info = initial & 0x1f;
+		switch (majorType) {
+			case MAJOR_UNSIGNED:
+				return new JsonPrimitive(readArgument(info));
+			case MAJOR_NEGATIVE:
+				return new JsonPrimitive(-1 - readArgument(info));
+			case MAJOR_TEXT:
+				return new JsonPrimitive(readText(info));
+			case MAJOR_ARRAY:
+				return readArray(info);
+			case MAJOR_MAP:
+				return readObject(info);
+			case MAJOR_TAG:
+				return readTagged(readArgument(info));
+			case MAJOR_SIMPLE:
+				return readSimple(initial, info);
+			default:
+				throw new JsonParseException("Unsupported major type: " + majorType);
+		}
+	}
+	
+	protected String readText(int info) throws IOException {
+		if (info == INDEFINITE_LENGTH)
+			throw new JsonParseException("Indefinite length strings are not supported.");
+		long length = readArgument(info);
+		if (length > Integer.MAX_VALUE)
+			throw new JsonParseException("String too long: " + length);
+		byte[] bytes = new byte[(int) length];
+		int offset = 0;
+		while (offset < bytes.length) {
+			int count = in.read(bytes, offset, bytes.length - offset);
+			if (count < 0)
+				throw new EOFException();
+			offset += count;
+		}
+		String result = new String(bytes, StandardCharsets.UTF_8);
+		if (bytes.length >= minStringRefLength(stringTable.size()))
+			stringTable.add(result);
+		return result;
+	}
+	
+	protected JsonArray readArray(int info) throws IOException {
+		JsonArray result = new JsonArray();
+		if (info == INDEFINITE_LENGTH) {
+			int next;
+			while ((next = readByte()) != BREAK) {
+				result.add(readItem(next));
+			}
+		} else {
+			long size = readArgument(info);
+			for (long i = 0; i < size; i++) {
+				result.add(readItem(readByte()));
+			}
+		}
+		return result;
+	}
+	
+	protected JsonObject readObject(int info) throws IOException {
+		JsonObject result = new JsonObject();
+		if (info == INDEFINITE_LENGTH) {
+			int next;
+			while ((next = readByte()) != BREAK) {
+				String name = readName(next);
+				result.add(name, readItem(readByte()));
+			}
+		} else {
+			long size = readArgument(info);
+			for (long i = 0; i < size; i++) {
+				String name = readName(readByte());
+				result.add(name, readItem(readByte()));
+			}
+		}
+		return result;
+	}
+	
+	protected String readName(int initial) throws IOException {
+		JsonElement name = readItem(initial);
+		if (!name.isJsonPrimitive() || !name.getAsJsonPrimitive().isString())
+			throw new JsonParseException("Expected a string as object key, but got " + name);
+		return name.getAsString();
+	}
+	
+	protected JsonElement readTagged(long tag) throws IOException {
+		if (tag == TAG_STRINGREF_NAMESPACE) {
+			List<String> outerTable = stringTable;
+			stringTable = new ArrayList<>();
+			try {
+				return readItem(readByte());
+			} finally {
+				stringTable = outerTable;
+			}
+		} else if (tag == TAG_STRINGREF) {
+			JsonElement index = readItem(readByte());
+			if (!index.isJsonPrimitive() || !index.getAsJsonPrimitive().isNumber())
+				throw new JsonParseException("Expected a string reference, but got " + index);
+			int i = index.getAsInt();
+			if (i < 0 || i >= stringTable.size())
+				throw new JsonParseException("Invalid string reference: " + i);
+			return new JsonPrimitive(stringTable.get(i));
+		} else {
+			// Unknown tags are ignored
+			return readItem(readByte());
+		}
+	}
+	
+	protected JsonElement readSimple(int initial, int info) throws IOException {
+		switch (initial) {
+			case FALSE:
+				return new JsonPrimitive(false);
+			case TRUE:
+				return new JsonPrimitive(true);
+			case NULL:
+				return JsonNull.INSTANCE;
+			case FLOAT32:
+				return new JsonPrimitive(Float.intBitsToFloat((int) readBytes(4)));
+			case FLOAT64:
+				return new JsonPrimitive(Double.longBitsToDouble(readBytes(8)));
+			default:
+				if (info == 23)
+					// undefined
+					return JsonNull.INSTANCE;
+				throw new JsonParseException("Unsupported simple value: " + initial);
+		}
+	}
+	
+	protected long readArgument(int info) throws IOException {
+		if (info < 24)
+			return info;
+		switch (info) {
+			case 24:
+				return readBytes(1);
+			case 25:
+				return readBytes(2);
+			case 26:
+				return readBytes(4);
+			case 27:
+				return readBytes(8);
+			default:
+				throw new JsonParseException("Invalid additional information: " + info);
+		}
+	}
+	
+	private long readBytes(int count) throws IOException {
+		long result = 0;
+		for (int i = 0; i < count; i++) {
+			result = (result << 8) | readByte();
+		}
+		return result;
+	}
+	
+	private int readByte() throws IOException {
+		int b = in.read();
+		if (b < 0)
+			throw new EOFException();
+		return b;
+	}
+
+}
@@ -0,0 +1,282 @@
+/*
+ * Copyright (C) 2017 TypeFox and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.typefox.sprotty.server.json;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * A JSON writer that produces a compact binary encoding instead of JSON text, so it can be used with
+ * all Gson type adapters. The encoding is a subset of <a href="https://tools.ietf.org/html/rfc7049">CBOR</a>:
+ * objects and arrays have indefinite length, integral numbers are written as integers, and other numbers
+ * as single or double precision floats depending on the required precision. Strings that occur repeatedly,
+ * e.g. property names, element types and ids, are replaced with references into a string table following
+ * the <a href="http://cbor.schmorp.de/stringref">stringref</a> extension of CBOR.
+ *
+ * <p>The encoded data can be read with {@link BinaryJsonParser}.</p>
+ */
+public class BinaryJsonWriter extends JsonWriter {
+	
+	static final int MAJOR_UNSIGNED = 0;
+	static final int MAJOR_NEGATIVE = 1;
+	static final int MAJOR_TEXT = 3;
+	static final int MAJOR_ARRAY = 4;
+	static final int MAJOR_MAP = 5;
+	static final int MAJOR_TAG = 6;
+	static final int MAJOR_SIMPLE = 7;
+	
+	static final int TAG_STRINGREF = 25;
+	static final int TAG_STRINGREF_NAMESPACE = 256;
+	
+	static final int INDEFINITE_LENGTH = 31;
+	static final int BREAK = 0xff;
+	static final int FALSE = 0xf4;
+	static final int TRUE = 0xf5;
+	static final int NULL = 0xf6;
+	static final int FLOAT32 = 0xfa;
+	static final int FLOAT64 = 0xfb;
+	
+	private static final long MAX_SAFE_INTEGER = 1L << 53;
+	
+	private static final Writer UNUSED_WRITER = new Writer() {
+		@Override
+		public void write(char[] cbuf, int off, int len) throws IOException {
+			throw new UnsupportedOperationException();
+		}
+		@Override
+		public void flush() throws IOException {
+		}
+		@Override
+		public void close() throws IOException {
+		}
+	};
+	
+	/**
+	 * The minimum length of a string for being added to the string table. Short strings are not worth it
+	 * because the reference would not be shorter than the string itself.
+	 */
+	static int minStringRefLength(int tableSize) {
+		if (tableSize < 24)
+			return 3;
+		else if (tableSize < 0x100)
+			return 4;
+		else if (tableSize < 0x10000)
+			return 5;
+		else
+			return 7;
+	}
+	
+	private final OutputStream out;
+	
+	private final Map<String, Integer> stringTable = new HashMap<>();
+	
+	private String deferredName;
+	
+	private int depth;
+	
+	public BinaryJsonWriter(OutputStream out) {
+		super(UNUSED_WRITER);
+		if (out == null)
+			throw new NullPointerException("out == null");
+		this.out = out;
+	}
+	
+	@Override
+	public JsonWriter beginArray() throws IOException {
+		beforeValue();
+		out.write(MAJOR_ARRAY << 5 | INDEFINITE_LENGTH);
+		depth++;
+		return this;
+	}
+	
+	@Override
+	public JsonWriter endArray() throws IOException {
+		return endContainer();
+	}
+	
+	@Override
+	public JsonWriter beginObject() throws IOException {
+		beforeValue();
+		out.write(MAJOR_MAP << 5 | INDEFINITE_LENGTH);
+		depth++;
+		return this;
+	}
+	
+	@Override
+	public JsonWriter endObject() throws IOException {
+		return endContainer();
+	}
+	
+	private JsonWriter endContainer() throws IOException {
+		if (depth == 0 || deferredName != null)
+			throw new IllegalStateException("Nesting problem.");
+		out.write(BREAK);
+		depth--;
+		return this;
+	}
+	
+	@Override
+	public JsonWriter name(String name) throws IOException {
+		if (name == null)
+			throw new NullPointerException("name == null");
+		if (deferredName != null || depth == 0)
+			throw new IllegalStateException();
+		deferredName = name;
+		return this;
+	}
+	
+	@Override
+	public JsonWriter value(String value) throws IOException {
+		if (value == null)
+			return nullValue();
+		beforeValue();
+		writeString(value);
+		return this;
+	}
+	
+	@Override
+	public JsonWriter jsonValue(String value) throws IOException {
+		throw new UnsupportedOperationException("Raw JSON values cannot be written in binary format.");
+	}
+	
+	@Override
+	public JsonWriter nullValue() throws IOException {
+		if (deferredName != null && !getSerializeNulls()) {
+			// Skip the name and the value
+			deferredName = null;
+			return this;
+		}
+		beforeValue();
+		out.write(NULL);
+		return this;
+	}
+	
+	@Override
+	public JsonWriter value(boolean value) throws IOException {
+		beforeValue();
+		out.write(value ? TRUE : FALSE);
+		return this;
+	}
+	
+	@Override
+	public JsonWriter value(Boolean value) throws IOException {
+		if (value == null)
+			return nullValue();
+		return value(value.booleanValue());
+	}
+	
+	@Override
+	public JsonWriter value(double value) throws IOException {
+		if (!isLenient() && (Double.isNaN(value) || Double.isInfinite(value)))
+			throw new IllegalArgumentException("Numeric values must be finite, but was " + value);
+		beforeValue();
+		if (value == Math.rint(value) && Math.abs(value) <= MAX_SAFE_INTEGER
+				&& (value != 0 || Double.doubleToRawLongBits(value) == 0)) {
+			writeInteger((long) value);
+		} else if ((float) value == value || Double.isNaN(value)) {
+			out.write(FLOAT32);
+			writeBytes(Float.floatToIntBits((float) value), 4);
+		} else {
+			out.write(FLOAT64);
+			writeBytes(Double.doubleToLongBits(value), 8);
+		}
+		return this;
+	}
+	
+	@Override
+	public JsonWriter value(long value) throws IOException {
+		beforeValue();
+		writeInteger(value);
+		return this;
+	}
+	
+	@Override
+	public JsonWriter value(Number value) throws IOException {
+		if (value == null)
+			return nullValue();
+		if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte)
+			return value(value.longValue());
+		else
+			return value(value.doubleValue());
+	}
+	
+	@Override
+	public void flush() throws IOException {
+		out.flush();
+	}
+	
+	@Override
+	public void close() throws IOException {
+		out.close();
+		if (depth > 0)
+			throw new IOException("Incomplete document");
+	}
+	
+	private void beforeValue() throws IOException {
+		if (depth == 0) {
+			// Each top-level value starts a new string table
+			stringTable.clear();
+			writeHead(MAJOR_TAG, TAG_STRINGREF_NAMESPACE);
+		} else if (deferredName != null) {
+			writeString(deferredName);
+			deferredName = null;
+		}
+	}
+	
+	private void writeString(String value) throws IOException {
+		Integer index = stringTable.get(value);
+		if (index != null) {
+			writeHead(MAJOR_TAG, TAG_STRINGREF);
+			writeHead(MAJOR_UNSIGNED, index);
+		} else {
+			byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+			if (bytes.length >= minStringRefLength(stringTable.size()))
+				stringTable.put(value, stringTable.size());
+			writeHead(MAJOR_TEXT, bytes.length);
+			out.write(bytes);
+		}
+	}
+	
+	private void writeInteger(long value) throws IOException {
+		if (value >= 0)
+			writeHead(MAJOR_UNSIGNED, value);
+		else
+			writeHead(MAJOR_NEGATIVE, -1 - value);
+	}
+	
+	private void writeHead(int majorType, long argument) throws IOException {
+		int initial = majorType << 5;
+		if (argument < 24) {
+			out.write(initial | (int) argument);
+		} else if (argument < 0x100) {
+			out.write(initial | 24);
+			out.write((int) argument);
+		} else if (argument < 0x10000) {
+			out.write(initial | 25);
+			writeBytes(argument, 2);
+		} else if (argument < 0x100000000L) {
+			out.write(initial | 26);
+			writeBytes(argument, 4);
+		} else {
+			out.write(initial | 27);
+			writeBytes(argument, 8);
+		}
+	}
+	
+	private void writeBytes(long value, int count) throws IOException {
+		for (int i = count - 1; i >= 0; i--) {
+			out.write((int) (value >>> (i * 8)));
+		}
+	}
+
+}
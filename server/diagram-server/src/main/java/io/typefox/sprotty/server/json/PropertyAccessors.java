@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2017 TypeFox and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.typefox.sprotty.server.json;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Precomputed accessors for the properties of a class, i.e. its non-static and non-transient fields
+ * including the inherited ones. The accessors are built with method handles once per class and are
+ * shared by all type adapters, so no reflective lookup is necessary when reading or writing objects.
+ */
+public class PropertyAccessors {
+	
+	private static final ClassValue<PropertyAccessors> CACHE = new ClassValue<PropertyAccessors>() {
+		@Override
+		protected PropertyAccessors computeValue(Class<?> type) {
+			return new PropertyAccessors(type);
+		}
+	};
+	
+	/**
+	 * Return the accessors for the given class. They are created on the first call for each class.
+	 */
+	public static PropertyAccessors get(Class<?> type) {
+		return CACHE.get(type);
+	}
+	
+	private final Class<?> type;
+	
+	private final List<Property> properties;
+	
+	private final Map<String, Property> propertyMap;
+	
+	private final MethodHandle constructor;
+	
+	protected PropertyAccessors(Class<?> type) {
+		this.type = type;
+		MethodHandles.Lookup lookup = MethodHandles.lookup();
+		List<Property> properties = new ArrayList<>();
+		Map<String, Property> propertyMap = new HashMap<>();
+		for (Class<?> t = type; t != null; t = t.getSuperclass()) {
+			for (Field field : t.getDeclaredFields()) {
+				int modifiers = field.getModifiers();
+				if (!Modifier.isTransient(modifiers) && !Modifier.isStatic(modifiers)
+						&& !propertyMap.containsKey(field.getName())) {
+					Property property = createProperty(field, lookup);
+					properties.add(property);
+					propertyMap.put(property.getName(), property);
+				}
+			}
+		}
+		this.properties = Collections.unmodifiableList(properties);
+		this.propertyMap = propertyMap;
+		this.constructor = createConstructor(type, lookup);
+	}
+	
+	private static Property createProperty(Field field, MethodHandles.Lookup lookup) {
+		field.setAccessible(true);
+		MethodHandle getter;
+		try {
+			getter = lookup.unreflectGetter(field).asType(MethodType.methodType(Object.class, Object.class));
+		} catch (IllegalAccessException e) {
+			throw new IllegalStateException("Cannot access field " + field, e);
+		}
+		MethodHandle setter;
+		try {
+			setter = lookup.unreflectSetter(field).asType(MethodType.methodType(void.class, Object.class, Object.class));
+		} catch (IllegalAccessException e) {
+			// Final fields can be read, but not written
+			setter = null;
+		}
+		return new Property(field.getName(), field.getGenericType(), getter, setter);
+	}
+	
+	private static MethodHandle createConstructor(Class<?> type, MethodHandles.Lookup lookup) {
+		if (type.isInterface() || Modifier.isAbstract(type.getModifiers()))
+			return null;
+		try {
+			Constructor<?> constructor = type.getConstructor();
+			return lookup.unreflectConstructor(constructor).asType(MethodType.methodType(Object.class));
+		} catch (NoSuchMethodException | IllegalAccessException e) {
+			return null;
+		}
+	}
+	
+	public Class<?> getType() {
+		return type;
+	}
+	
+	/**
+	 * All properties of the class. The fields declared by a subclass precede those of its superclasses.
+	 */
+	public List<Property> getProperties() {
+		return properties;
+	}
+	
+	/**
+	 * Return the property with the given name, or {@code null} if there is no such property.
+	 */
+	public Property getProperty(String name) {
+		return propertyMap.get(name);
+	}
+	
+	/**
+	 * Create an instance of the class using its public default constructor.
+	 */
+	public Object newInstance() throws ReflectiveOperationException {
+		if (constructor == null)
+			throw new NoSuchMethodException(type.getName() + ".<init>()");
+		try {
+			return (Object) constructor.invokeExact();
+		} catch (RuntimeException | Error e) {
+			throw e;
+		} catch (Throwable t) {
+			throw new InvocationTargetException(t);
+		}
+	}
+	
+	/**
+	 * Accessor for a single property.
+	 */
+	public static class Property {
+		
+		private final String name;
+		
+		private final Type genericType;
+		
+		private final MethodHandle getter;
+		
+		private final MethodHandle setter;
+		
+		protected Property(String name, Type genericType, MethodHandle getter, MethodHandle setter) {
+			this.name = name;
+			this.genericType = genericType;
+			this.getter = getter;
+			this.setter = setter;
+		}
+		
+		public String getName() {
+			return name;
+		}
+		
+		public Type getGenericType() {
+			return genericType;
+		}
+		
+		public boolean isWritable() {
+			return setter != null;
+		}
+		
+		public Object get(Object instance) {
+			try {
+				return (Object) getter.invokeExact(instance);
+			} catch (RuntimeException | Error e) {
+				throw e;
+			} catch (Throwable t) {
+				throw new RuntimeException(t);
+			}
+		}
+		
+		public void set(Object instance, Object value) {
+			if (setter == null)
+				throw new UnsupportedOperationException("Property '" + name + "' is not writable.");
+			try {
+				setter.invokeExact(instance, value);
+			} catch (RuntimeException | Error e) {
+				throw e;
+			} catch (Throwable t) {
+				throw new RuntimeException(t);
+			}
+		}
+	}
+	
+}
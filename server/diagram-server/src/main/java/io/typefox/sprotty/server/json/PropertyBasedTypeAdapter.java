@@ -7,17 +7,16 @@
 package io.typefox.sprotty.server.json;
 
 import java.io.IOException;
-import java.lang.reflect.Field;
-import java.lang.reflect.Modifier;
+import java.lang.reflect.Type;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.google.gson.Gson;
 import com.google.gson.JsonElement;
 import com.google.gson.TypeAdapter;
 import com.google.gson.internal.bind.JsonTreeWriter;
+import com.google.gson.reflect.TypeToken;
 import com.google.gson.stream.JsonReader;
 import com.google.gson.stream.JsonToken;
 import com.google.gson.stream.JsonWriter;
@@ -32,6 +31,8 @@ public abstract class PropertyBasedTypeAdapter<T> extends TypeAdapter<T> {
 	
 	private final String discriminator;
 	
+	private final Map<Type, TypeAdapter<?>> adapters = new ConcurrentHashMap<>();
+	
 	public PropertyBasedTypeAdapter(Gson gson, String discriminator) {
 		this.gson = gson;
 		this.discriminator = discriminator;
@@ -39,70 +40,64 @@ public abstract class PropertyBasedTypeAdapter<T> extends TypeAdapter<T> {
 
 	@Override
 	public T read(JsonReader in) throws IOException {
-		try {
-			in.beginObject();
-			T result = null;
-			Map<String, JsonElement> unassignedProperties = null;
-			while (in.hasNext()) {
-				String propertyName = in.nextName();
-				if (propertyName.equals(discriminator)) {
-					if (result != null)
-						throw new IllegalStateException("Property '" + discriminator + "' is defined twice.");
-					result = createInstance(in.nextString());
-					if (unassignedProperties != null) {
-						for (Map.Entry<String, JsonElement> entry : unassignedProperties.entrySet()) {
-							assignProperty(result, entry.getKey(), entry.getValue());
-						}
+		in.beginObject();
+		T result = null;
+		Map<String, JsonElement> unassignedProperties = null;
+		while (in.hasNext()) {
+			String propertyName = in.nextName();
+			if (propertyName.equals(discriminator)) {
+				if (result != null)
+					throw new IllegalStateException("Property '" + discriminator + "' is defined twice.");
+				result = createInstance(in.nextString());
+				if (unassignedProperties != null) {
+					for (Map.Entry<String, JsonElement> entry : unassignedProperties.entrySet()) {
+						assignProperty(result, entry.getKey(), entry.getValue());
 					}
-				} else if (result != null) {
-					assignProperty(result, propertyName, in);
-				} else {
-					if (unassignedProperties == null)
-						unassignedProperties = new HashMap<>();
-					unassignedProperties.put(propertyName, toTree(in));
 				}
+			} else if (result != null) {
+				assignProperty(result, propertyName, in);
+			} else {
+				if (unassignedProperties == null)
+					unassignedProperties = new HashMap<>();
+				unassignedProperties.put(propertyName, toTree(in));
 			}
-			in.endObject();
-			return result;
-		} catch (IllegalAccessException e) {
-			throw new RuntimeException(e);
 		}
+		in.endObject();
+		return result;
 	}
 	
 	protected abstract T createInstance(String parameter);
 	
-	protected void assignProperty(T instance, String propertyName, JsonReader in) throws IllegalAccessException {
-		try {
-			Field field = findField(instance.getClass(), propertyName);
-			Object value = gson.fromJson(in, field.getGenericType());
-			field.set(instance, value);
-		} catch (NoSuchFieldException e) {
+	protected void assignProperty(T instance, String propertyName, JsonReader in) throws IOException {
+		PropertyAccessors.Property property = PropertyAccessors.get(instance.getClass()).getProperty(propertyName);
+		if (property != null && property.isWritable()) {
+			Object value = getAdapter(property.getGenericType()).read(in);
+			property.set(instance, value);
+		} else {
 			// Ignore this property
+			in.skipValue();
 		}
 	}
 	
-	protected void assignProperty(T instance, String propertyName, JsonElement element) throws IllegalAccessException {
-		try {
-			Field field = findField(instance.getClass(), propertyName);
-			Object value = gson.fromJson(element, field.getGenericType());
-			field.set(instance, value);
-		} catch (NoSuchFieldException e) {
-			// Ignore this property
+	protected void assignProperty(T instance, String propertyName, JsonElement element) {
+		PropertyAccessors.Property property = PropertyAccessors.get(instance.getClass()).getProperty(propertyName);
+		if (property != null && property.isWritable()) {
+			Object value = getAdapter(property.getGenericType()).fromJsonTree(element);
+			property.set(instance, value);
 		}
 	}
 	
-	protected Field findField(Class<?> type, String propertyName) throws NoSuchFieldException {
-		try {
-			Field field = type.getDeclaredField(propertyName);
-			field.setAccessible(true);
-			return field;
-		} catch (NoSuchFieldException e) {
-			Class<?> superType = type.getSuperclass();
-			if (superType != null)
-				return findField(superType, propertyName);
-			else
-				throw e;
+	/**
+	 * Return the Gson type adapter for the given type. Adapters are cached by this instance in order to avoid
+	 * creating a type token for each property value.
+	 */
+	protected TypeAdapter<?> getAdapter(Type type) {
+		TypeAdapter<?> adapter = adapters.get(type);
+		if (adapter == null) {
+			adapter = gson.getAdapter(TypeToken.get(type));
+			adapters.put(type, adapter);
 		}
+		return adapter;
 	}
 	
 	protected JsonElement toTree(JsonReader in) throws IOException {
@@ -162,44 +157,31 @@ public abstract class PropertyBasedTypeAdapter<T> extends TypeAdapter<T> {
 		if (value == null) {
 			out.nullValue();
 		} else {
-			try {
-				out.beginObject();
-				Set<String> written = new HashSet<>();
-				writeProperties(out, value, value.getClass(), written);
-				if (!written.contains(discriminator))
-					throw new RuntimeException("Object does not contain a field '" + discriminator + "'.");
-				out.endObject();
-			} catch (IllegalAccessException e) {
-				throw new RuntimeException(e);
-			}
+			PropertyAccessors accessors = PropertyAccessors.get(value.getClass());
+			if (accessors.getProperty(discriminator) == null)
+				throw new RuntimeException("Object does not contain a field '" + discriminator + "'.");
+			out.beginObject();
+			writeProperties(out, value, accessors);
+			out.endObject();
 		}
 	}
 	
-	protected void writeProperties(JsonWriter out, T instance, Class<?> type, Set<String> written)
-			throws IOException, IllegalAccessException {
-		for (Field field : type.getDeclaredFields()) {
-			int modifiers = field.getModifiers();
-			if (!Modifier.isTransient(modifiers) && !Modifier.isStatic(modifiers)
-					&& written.add(field.getName())) {
-				writeProperty(out, instance, field);
-			}
-		}
-		Class<?> superType = type.getSuperclass();
-		if (superType != null) {
-			writeProperties(out, instance, superType, written);
+	protected void writeProperties(JsonWriter out, T instance, PropertyAccessors accessors) throws IOException {
+		for (PropertyAccessors.Property property : accessors.getProperties()) {
+			writeProperty(out, instance, property);
 		}
 	}
 	
-	protected void writeProperty(JsonWriter out, T instance, Field field) throws IOException, IllegalAccessException {
-		field.setAccessible(true);
-		out.name(field.getName());
-		Object value = field.get(instance);
+	@SuppressWarnings("unchecked")
+	protected void writeProperty(JsonWriter out, T instance, PropertyAccessors.Property property) throws IOException {
+		out.name(property.getName());
+		Object value = property.get(instance);
 		if (value == null)
 			out.nullValue();
 		else if (value == instance)
 			throw new RuntimeException("Object has a reference to itself.");
 		else
-			gson.toJson(value, value.getClass(), out);
+			((TypeAdapter<Object>) getAdapter(value.getClass())).write(out, value);
 	}
 
 }
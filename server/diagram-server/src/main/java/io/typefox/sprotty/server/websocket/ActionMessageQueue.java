@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2017 TypeFox and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.typefox.sprotty.server.websocket;
+
+import java.util.LinkedList;
+import java.util.ListIterator;
+import java.util.Objects;
+
+import io.typefox.sprotty.api.Action;
+import io.typefox.sprotty.api.ActionMessage;
+import io.typefox.sprotty.api.RequestBoundsAction;
+import io.typefox.sprotty.api.SetModelAction;
+import io.typefox.sprotty.api.UpdateModelAction;
+
+/**
+ * A bounded queue of messages to be sent to the client. At most one message is sent at a time.
+ * 
+ * <p>If a model is sent to a client while the last message waiting in the queue for the same client is
+ * a model, the queued message is replaced with the new one, so outdated model revisions are never
+ * transmitted. A queued model is not replaced if other messages for that client have been added after
+ * it, since the new model would then overtake these messages. Apart from this, all messages keep their
+ * order. If the queue is full, messages that cannot replace a queued model are rejected immediately;
+ * the thread adding a message is never blocked.</p>
+ */
+public class ActionMessageQueue {
+	
+	private final LinkedList<ActionMessage> queue = new LinkedList<>();
+	
+	private final int capacity;
+	
+	private boolean sending;
+	
+	private int maxDepth;
+	
+	private long sentMessages;
+	
+	private long coalescedMessages;
+	
+	private long rejectedMessages;
+	
+	/**
+	 * @param capacity the maximal number of messages waiting to be sent
+	 */
+	public ActionMessageQueue(int capacity) {
+		if (capacity <= 0)
+			throw new IllegalArgumentException("capacity must be positive");
+		this.capacity = capacity;
+	}
+	
+	/**
+	 * Add a message to the queue. Returns {@code false} if the queue is full and the message cannot
+	 * replace a queued model message, in which case the message is discarded.
+	 */
+	public synchronized boolean offer(ActionMessage message) {
+		if (coalesce(message))
+			return true;
+		if (queue.size() >= capacity) {
+			rejectedMessages++;
+			return false;
+		}
+		queue.addLast(message);
+		maxDepth = Math.max(maxDepth, queue.size());
+		return true;
+	}
+	
+	/**
+	 * Try to replace a queued model message for the same client with the given one. Only the most recent
+	 * queued message for that client is considered, so the order of the messages sent to a client is
+	 * preserved.
+	 */
+	protected boolean coalesce(ActionMessage message) {
+		if (!isModelAction(message.getAction()))
+			return false;
+		ListIterator<ActionMessage> iterator = queue.listIterator(queue.size());
+		while (iterator.hasPrevious()) {
+			ActionMessage queued = iterator.previous();
+			if (Objects.equals(queued.getClientId(), message.getClientId())) {
+				if (!isModelAction(queued.getAction()))
+					return false;
+				Action replacement = coalesce(queued.getAction(), message.getAction());
+				if (replacement == null)
+					return false;
+				iterator.set(new ActionMessage(message.getClientId(), replacement));
+				coalescedMessages++;
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Determine the action to send instead of the queued and the new action, or {@code null} if
+	 * both actions must be sent. A model update that contains only matches cannot replace another
+	 * model message, since the matches refer to the model of that message.
+	 */
+	protected Action coalesce(Action queued, Action next) {
+		if (next instanceof SetModelAction) {
+			if (queued instanceof SetModelAction || queued instanceof UpdateModelAction)
+				return next;
+		} else if (next instanceof UpdateModelAction) {
+			UpdateModelAction update = (UpdateModelAction) next;
+			if (update.getNewRoot() != null) {
+				if (queued instanceof SetModelAction)
+					// The client must still replace its model completely
+					return new SetModelAction(update.getNewRoot());
+				if (queued instanceof UpdateModelAction)
+					return next;
+			}
+		} else if (next instanceof RequestBoundsAction) {
+			if (queued instanceof RequestBoundsAction)
+				return next;
+		}
+		return null;
+	}
+	
+	protected boolean isModelAction(Action action) {
+		return action instanceof SetModelAction || action instanceof UpdateModelAction
+				|| action instanceof RequestBoundsAction;
+	}
+	
+	/**
+	 * Remove the next message from the queue in order to send it. Returns {@code null} if the queue is
+	 * empty or another message is currently being sent. {@link #endSend()} must be called when the
+	 * message has been sent.
+	 */
+	public synchronized ActionMessage beginSend() {
+		if (sending || queue.isEmpty())
+			return null;
+		sending = true;
+		return queue.removeFirst();
+	}
+	
+	/**
+	 * Mark the current message as sent.
+	 */
+	public synchronized void endSend() {
+		if (sending) {
+			sending = false;
+			sentMessages++;
+		}
+	}
+	
+	/**
+	 * Discard all waiting messages, e.g. when the connection to the client has been closed. A message that
+	 * is currently being sent is abandoned, so the next call to {@link #beginSend()} returns a message again
+	 * even if the completion of the abandoned message is never reported.
+	 */
+	public synchronized void clear() {
+		queue.clear();
+		sending = false;
+	}
+	
+	/**
+	 * The number of messages waiting to be sent.
+	 */
+	public synchronized int getDepth() {
+		return queue.size();
+	}
+	
+	/**
+	 * The maximal number of messages that have been waiting at the same time.
+	 */
+	public synchronized int getMaxDepth() {
+		return maxDepth;
+	}
+	
+	public synchronized long getSentMessages() {
+		return sentMessages;
+	}
+	
+	/**
+	 * The number of model messages that have been replaced by a newer revision before being sent.
+	 */
+	public synchronized long getCoalescedMessages() {
+		return coalescedMessages;
+	}
+	
+	/**
+	 * The number of messages that have been discarded because the queue was full.
+	 */
+	public synchronized long getRejectedMessages() {
+		return rejectedMessages;
+	}
+	
+	@Override
+	public synchronized String toString() {
+		return "ActionMessageQueue [depth=" + queue.size() + ", maxDepth=" + maxDepth + ", sentMessages=" + sentMessages
+				+ ", coalescedMessages=" + coalescedMessages + ", rejectedMessages=" + rejectedMessages + "]";
+	}
+
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2017 TypeFox and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.typefox.sprotty.server.websocket;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * An output stream that buffers the written data up to a threshold. When the threshold is exceeded,
+ * the target stream is opened and all data are compressed into it with the deflate algorithm (zlib format),
+ * so large messages are compressed while being written. If the data do not exceed the threshold, they
+ * remain uncompressed and can be obtained with {@link #getBufferedData()} after closing this stream.
+ */
+public class CompressingOutputStream extends OutputStream {
+	
+	private static final int DEFLATE_BUFFER_SIZE = 8192;
+	
+	private static final ThreadMXBean THREAD_MX_BEAN = ManagementFactory.getThreadMXBean();
+	
+	private static final boolean CPU_TIME_ENABLED = THREAD_MX_BEAN.isCurrentThreadCpuTimeSupported()
+			&& THREAD_MX_BEAN.isThreadCpuTimeEnabled();
+	
+	/**
+	 * Opens the stream to which compressed data are written.
+	 */
+	@FunctionalInterface
+	public interface TargetProvider {
+		OutputStream open() throws IOException;
+	}
+	
+	private final int threshold;
+	
+	private final int level;
+	
+	private final TargetProvider targetProvider;
+	
+	private final CompressionStatistics statistics;
+	
+	private ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+	
+	private Deflater deflater;
+	
+	private DeflaterOutputStream deflaterStream;
+	
+	private long compressionTime;
+	
+	private boolean closed;
+	
+	public CompressingOutputStream(int threshold, int level, TargetProvider targetProvider, CompressionStatistics statistics) {
+		this.threshold = threshold;
+		this.level = level;
+		this.targetProvider = targetProvider;
+		this.statistics = statistics;
+	}
+	
+	/**
+	 * Whether the threshold has been exceeded, so the data are written compressed to the target stream.
+	 */
+	public boolean isCompressed() {
+		return deflaterStream != null;
+	}
+	
+	/**
+	 * The uncompressed data, or {@code null} if the data have been compressed.
+	 */
+	public byte[] getBufferedData() {
+		return buffer != null ? buffer.toByteArray() : null;
+	}
+	
+	@Override
+	public void write(int b) throws IOException {
+		if (deflaterStream == null && buffer.size() + 1 > threshold)
+			startCompression();
+		if (deflaterStream != null)
+			deflaterStream.write(b);
+		else
+			buffer.write(b);
+	}
+	
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		if (deflaterStream == null && buffer.size() + len > threshold)
+			startCompression();
+		if (deflaterStream != null)
+			deflaterStream.write(b, off, len);
+		else
+			buffer.write(b, off, len);
+	}
+	
+	protected void startCompression() throws IOException {
+		deflater = new Deflater(level);
+		deflaterStream = new DeflaterOutputStream(targetProvider.open(), deflater, DEFLATE_BUFFER_SIZE) {
+			@Override
+			protected void deflate() throws IOException {
+				if (CPU_TIME_ENABLED) {
+					long start = THREAD_MX_BEAN.getCurrentThreadCpuTime();
+					super.deflate();
+					compressionTime += THREAD_MX_BEAN.getCurrentThreadCpuTime() - start;
+				} else {
+					super.deflate();
+				}
+			}
+		};
+		buffer.writeTo(deflaterStream);
+		buffer = null;
+	}
+	
+	@Override
+	public void flush() throws IOException {
+		if (deflaterStream != null)
+			deflaterStream.flush();
+	}
+	
+	@Override
+	public void close() throws IOException {
+		if (closed)
+			return;
+		closed = true;
+		if (deflaterStream != null) {
+			try {
+				deflaterStream.close();
+				if (statistics != null)
+					statistics.recordCompressed(deflater.getBytesRead(), deflater.getBytesWritten(),
+							CPU_TIME_ENABLED ? compressionTime : -1);
+			} finally {
+				deflater.end();
+			}
+		} else if (statistics != null) {
+			statistics.recordUncompressed();
+		}
+	}
+	
+	/**
+	 * Discard the message after an error while writing it. In contrast to {@link #close()}, the compressed
+	 * data are not completed and the target stream is not closed, so the receiver cannot mistake a truncated
+	 * message for a complete one. Returns whether the target stream has been opened, in which case part of
+	 * the message may have been written to it already.
+	 */
+	public boolean abort() {
+		if (closed)
+			return false;
+		closed = true;
+		buffer = null;
+		if (deflater != null) {
+			deflater.end();
+			return true;
+		}
+		return false;
+	}
+
+}
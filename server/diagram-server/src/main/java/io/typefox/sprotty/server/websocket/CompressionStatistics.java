@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2017 TypeFox and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.typefox.sprotty.server.websocket;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Statistics on the compression of outgoing messages, which can be used to judge whether compression
+ * pays off for the available network bandwidth.
+ */
+public class CompressionStatistics {
+	
+	private final AtomicLong compressedMessages = new AtomicLong();
+	
+	private final AtomicLong uncompressedMessages = new AtomicLong();
+	
+	private final AtomicLong bytesBeforeCompression = new AtomicLong();
+	
+	private final AtomicLong bytesAfterCompression = new AtomicLong();
+	
+	private final AtomicLong compressionTime = new AtomicLong();
+	
+	private volatile boolean compressionTimeAvailable = true;
+	
+	/**
+	 * Record a message that has been compressed.
+	 * 
+	 * @param inputBytes the size of the message before compression
+	 * @param outputBytes the size of the message after compression
+	 * @param cpuTime the CPU time spent for compression in nanoseconds, or -1 if it could not be measured
+	 */
+	public void recordCompressed(long inputBytes, long outputBytes, long cpuTime) {
+		compressedMessages.incrementAndGet();
+		bytesBeforeCompression.addAndGet(inputBytes);
+		bytesAfterCompression.addAndGet(outputBytes);
+		if (cpuTime >= 0)
+			compressionTime.addAndGet(cpuTime);
+		else
+			compressionTimeAvailable = false;
+	}
+	
+	/**
+	 * Record a message that has not been compressed because it was smaller than the threshold.
+	 */
+	public void recordUncompressed() {
+		uncompressedMessages.incrementAndGet();
+	}
+	
+	public long getCompressedMessages() {
+		return compressedMessages.get();
+	}
+	
+	public long getUncompressedMessages() {
+		return uncompressedMessages.get();
+	}
+	
+	public long getBytesBeforeCompression() {
+		return bytesBeforeCompression.get();
+	}
+	
+	public long getBytesAfterCompression() {
+		return bytesAfterCompression.get();
+	}
+	
+	/**
+	 * The ratio of the size of all compressed messages before compression to their size after compression.
+	 * Returns 1 if no message has been compressed yet.
+	 */
+	public double getCompressionRatio() {
+		long after = bytesAfterCompression.get();
+		if (after == 0)
+			return 1;
+		return (double) bytesBeforeCompression.get() / after;
+	}
+	
+	/**
+	 * The total CPU time spent for compression in nanoseconds, or -1 if the JVM does not support measuring
+	 * the CPU time of threads. The elapsed time is not reported instead because it would include the time
+	 * spent waiting for the network while streaming.
+	 */
+	public long getCompressionTime() {
+		if (!compressionTimeAvailable)
+			return -1;
+		return compressionTime.get();
+	}
+	
+	@Override
+	public String toString() {
+		return "CompressionStatistics [compressedMessages=" + getCompressedMessages()
+				+ ", uncompressedMessages=" + getUncompressedMessages()
+				+ ", bytesBeforeCompression=" + getBytesBeforeCompression()
+				+ ", bytesAfterCompression=" + getBytesAfterCompression()
+				+ ", compressionRatio=" + getCompressionRatio()
+				+ ", compressionTime=" + (compressionTimeAvailable ? getCompressionTime() + "ns" : "unavailable") + "]";
+	}
+
+}
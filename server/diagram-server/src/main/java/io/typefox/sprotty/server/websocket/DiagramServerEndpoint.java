@@ -6,25 +6,88 @@
  */
 package io.typefox.sprotty.server.websocket;
 
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PushbackInputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 import java.util.function.Consumer;
+import java.util.zip.Deflater;
+import java.util.zip.InflaterInputStream;
 
+import javax.websocket.CloseReason;
 import javax.websocket.Endpoint;
 import javax.websocket.EndpointConfig;
 import javax.websocket.MessageHandler;
+import javax.websocket.SendHandler;
+import javax.websocket.SendResult;
 import javax.websocket.Session;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.JsonIOException;
+import com.google.gson.stream.JsonWriter;
 
 import io.typefox.sprotty.api.ActionMessage;
 import io.typefox.sprotty.api.IDiagramServer;
+import io.typefox.sprotty.api.RequestModelAction;
+import io.typefox.sprotty.api.SerialExecutor;
 import io.typefox.sprotty.server.json.ActionTypeAdapter;
+import io.typefox.sprotty.server.json.BinaryJsonParser;
+import io.typefox.sprotty.server.json.BinaryJsonWriter;
 
 /**
  * A websocket endpoint to connect a diagram server with a sprotty client.
+ * 
+ * <p>Messages are exchanged as JSON text by default. A client can switch to the binary encoding of
+ * {@link BinaryJsonWriter} by sending a {@link RequestModelAction} with the option
+ * {@value #WIRE_FORMAT_OPTION} set to {@value #BINARY_FORMAT}. Binary messages received from the
+ * client are always accepted.</p>
+ * 
+ * <p>Compression of large messages can be enabled with the option {@value #COMPRESSION_OPTION} set to
+ * {@value #DEFLATE_COMPRESSION}. Messages that exceed the {@linkplain #setCompressionThreshold(int) compression
+ * threshold} are then sent as binary messages in zlib format. Compressed messages received from the client are
+ * always accepted.</p>
+ * 
+ * <p>Outgoing messages are sent one at a time through a bounded {@link ActionMessageQueue}, in which
+ * model revisions that have not been sent yet are replaced by newer ones.</p>
+ * 
+ * <p>Incoming messages are handled on the websocket read thread by default. If a
+ * {@linkplain #setDispatchExecutor(Executor) dispatch executor} is configured, they are handled on that
+ * executor instead, in order per client but in parallel for different clients.</p>
  */
 public class DiagramServerEndpoint extends Endpoint implements Consumer<ActionMessage> {
 	
+	/**
+	 * Option of {@link RequestModelAction} for selecting the format of messages sent to the client.
+	 */
+	public static final String WIRE_FORMAT_OPTION = "wireFormat";
+	
+	public static final String JSON_FORMAT = "json";
+	
+	public static final String BINARY_FORMAT = "binary";
+	
+	/**
+	 * Option of {@link RequestModelAction} for enabling the compression of large messages sent to the client.
+	 */
+	public static final String COMPRESSION_OPTION = "compression";
+	
+	public static final String DEFLATE_COMPRESSION = "deflate";
+	
+	public static final String NO_COMPRESSION = "none";
+	
+	public static final int DEFAULT_QUEUE_CAPACITY = 1000;
+	
 	private Session session;
 	
 	private Gson gson;
@@ -33,6 +96,28 @@ public class DiagramServerEndpoint extends Endpoint implements Consumer<ActionMe
 	
 	private Consumer<Exception> exceptionHandler;
 	
+	private boolean streamMessages = false;
+	
+	private final Object sendLock = new Object();
+	
+	private final Map<String, String> wireFormats = new ConcurrentHashMap<>();
+	
+	private final Set<String> compressionClients = ConcurrentHashMap.newKeySet();
+	
+	private int compressionThreshold = 32 * 1024;
+	
+	private int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+	
+	private final CompressionStatistics compressionStatistics = new CompressionStatistics();
+	
+	private ActionMessageQueue outboundQueue = new ActionMessageQueue(DEFAULT_QUEUE_CAPACITY);
+	
+	private Executor dispatchExecutor;
+	
+	private final Map<String, SerialExecutor> clientDispatchers = new ConcurrentHashMap<>();
+	
+	private final DispatchStatistics dispatchStatistics = new DispatchStatistics();
+	
 	protected Session getSession() {
 		return session;
 	}
@@ -49,19 +134,186 @@ public class DiagramServerEndpoint extends Endpoint implements Consumer<ActionMe
 		this.exceptionHandler = exceptionHandler;
 	}
 	
+	public boolean isStreamMessages() {
+		return streamMessages;
+	}
+	
+	/**
+	 * Enable or disable the streaming send mode. In this mode messages are serialized with a {@link JsonWriter}
+	 * directly into the send writer of the websocket session, so the JSON text of large models is never held
+	 * in memory as a whole. Messages are sent synchronously in this mode by the thread that drains the
+	 * outbound queue. The default is {@code false}.
+	 */
+	public void setStreamMessages(boolean streamMessages) {
+		this.streamMessages = streamMessages;
+	}
+	
+	public int getCompressionThreshold() {
+		return compressionThreshold;
+	}
+	
+	/**
+	 * Set the minimum size in bytes of messages that are compressed, if compression is enabled by the client.
+	 * The default is 32 KiB.
+	 */
+	public void setCompressionThreshold(int compressionThreshold) {
+		this.compressionThreshold = compressionThreshold;
+	}
+	
+	public int getCompressionLevel() {
+		return compressionLevel;
+	}
+	
+	/**
+	 * Set the compression level from 0 to 9, see {@link Deflater#setLevel(int)}.
+	 */
+	public void setCompressionLevel(int compressionLevel) {
+		this.compressionLevel = compressionLevel;
+	}
+	
+	/**
+	 * Statistics on the compression of the messages sent by this endpoint.
+	 */
+	public CompressionStatistics getCompressionStatistics() {
+		return compressionStatistics;
+	}
+	
+	/**
+	 * The queue of messages waiting to be sent to the client, which also provides statistics on the
+	 * queue depth and the number of model revisions that have been dropped.
+	 */
+	public ActionMessageQueue getOutboundQueue() {
+		return outboundQueue;
+	}
+	
+	/**
+	 * Replace the outbound queue, e.g. in order to change its capacity. This must be done before
+	 * any message is sent.
+	 */
+	public void setOutboundQueue(ActionMessageQueue outboundQueue) {
+		this.outboundQueue = outboundQueue;
+	}
+	
+	public Executor getDispatchExecutor() {
+		return dispatchExecutor;
+	}
+	
+	/**
+	 * Set the executor on which incoming messages are handled, or {@code null} to handle them on the websocket
+	 * read thread. Messages of the same client are handled one at a time and in the order they were received,
+	 * while messages of different clients may be handled in parallel. This must be done before any message
+	 * is received. The default is {@code null}.
+	 */
+	public void setDispatchExecutor(Executor dispatchExecutor) {
+		this.dispatchExecutor = dispatchExecutor;
+	}
+	
+	/**
+	 * Statistics on the queue time and handler time of the messages received by this endpoint and handled
+	 * by a diagram server.
+	 */
+	public DispatchStatistics getDispatchStatistics() {
+		return dispatchStatistics;
+	}
+	
 	@Override
 	public void onOpen(Session session, EndpointConfig config) {
 		this.session = session;
 		session.addMessageHandler(new ActionMessageHandler());
+		session.addMessageHandler(new BinaryActionMessageHandler());
+	}
+	
+	@Override
+	public void onClose(Session session, CloseReason closeReason) {
+		outboundQueue.clear();
+		clientDispatchers.clear();
+		wireFormats.clear();
+		compressionClients.clear();
+	}
+	
+	/**
+	 * The wire format used for sending messages to the given client, either {@value #JSON_FORMAT}
+	 * or {@value #BINARY_FORMAT}.
+	 */
+	protected String getWireFormat(String clientId) {
+		String format = clientId != null ? wireFormats.get(clientId) : null;
+		return format != null ? format : JSON_FORMAT;
+	}
+	
+	/**
+	 * Whether large messages sent to the given client are compressed.
+	 */
+	protected boolean isCompressionEnabled(String clientId) {
+		return clientId != null && compressionClients.contains(clientId);
+	}
+	
+	/**
+	 * Select the wire format and compression for the client that sent the given message, if the message
+	 * is a {@link RequestModelAction} with the options {@value #WIRE_FORMAT_OPTION} or {@value #COMPRESSION_OPTION}.
+	 */
+	protected void negotiateWireFormat(ActionMessage message) {
+		if (message.getAction() instanceof RequestModelAction && message.getClientId() != null) {
+			Map<String, String> options = ((RequestModelAction) message.getAction()).getOptions();
+			if (options != null) {
+				String format = options.get(WIRE_FORMAT_OPTION);
+				if (BINARY_FORMAT.equals(format) || JSON_FORMAT.equals(format))
+					wireFormats.put(message.getClientId(), format);
+				String compression = options.get(COMPRESSION_OPTION);
+				if (DEFLATE_COMPRESSION.equals(compression))
+					compressionClients.add(message.getClientId());
+				else if (NO_COMPRESSION.equals(compression))
+					compressionClients.remove(message.getClientId());
+			}
+		}
 	}
 	
 	protected void fireMessageReceived(ActionMessage message) {
+		fireMessageReceived(message, null);
+	}
+	
+	/**
+	 * Pass a received message to the diagram server of its client. The given callback, if not {@code null},
+	 * is notified when the diagram server has handled the message.
+	 */
+	protected void fireMessageReceived(ActionMessage message, IDiagramServer.HandlingCallback callback) {
+		negotiateWireFormat(message);
 		IDiagramServer diagramServer = diagramServerProvider.getDiagramServer(message.getClientId());
 		if (diagramServer != null) {
 			if (!this.equals(diagramServer.getRemoteEndpoint())) {
 				diagramServer.setRemoteEndpoint(this);
 			}
-			diagramServer.accept(message);
+			if (callback != null)
+				diagramServer.accept(message, callback);
+			else
+				diagramServer.accept(message);
+		}
+	}
+	
+	/**
+	 * Handle a decoded message with {@link #fireMessageReceived(ActionMessage, IDiagramServer.HandlingCallback)},
+	 * either directly or on the {@linkplain #setDispatchExecutor(Executor) dispatch executor}.
+	 */
+	protected void dispatchMessage(ActionMessage message) {
+		long receiveTime = System.nanoTime();
+		Executor executor = getDispatchExecutor();
+		if (executor == null) {
+			handleMessage(message, receiveTime);
+		} else {
+			String clientId = message.getClientId() != null ? message.getClientId() : "";
+			SerialExecutor dispatcher = clientDispatchers.computeIfAbsent(clientId, id -> new SerialExecutor(executor));
+			dispatcher.execute(() -> handleMessage(message, receiveTime));
+		}
+	}
+	
+	private void handleMessage(ActionMessage message, long receiveTime) {
+		String actionKind = String.valueOf(message.getAction().getKind());
+		try {
+			// Diagram servers usually handle messages on their own executor, so the statistics are recorded
+			// when the server reports the completion
+			fireMessageReceived(message, (startTime, endTime) ->
+					dispatchStatistics.record(actionKind, startTime - receiveTime, endTime - startTime));
+		} catch (Exception exception) {
+			fireError(exception);
 		}
 	}
 	
@@ -77,11 +329,242 @@ public class DiagramServerEndpoint extends Endpoint implements Consumer<ActionMe
 		}
 	}
 	
+	/**
+	 * Queue the given message for sending it to the client. Messages are sent one after another in the
+	 * order of this method's invocations, except that model messages waiting in the queue are replaced
+	 * when a newer model is sent to the same client, see {@link ActionMessageQueue}.
+	 */
 	@Override
 	public void accept(ActionMessage message) {
 		initializeGson();
-		String json = gson.toJson(message, ActionMessage.class);
-		session.getAsyncRemote().sendText(json);
+		if (!outboundQueue.offer(message)) {
+			fireError(new IllegalStateException("The outbound message queue is full, discarding message: " + message));
+			return;
+		}
+		sendNext();
+	}
+	
+	/**
+	 * Send queued messages until the queue is empty or a message is sent asynchronously, in which case
+	 * sending continues when that message has been transmitted.
+	 */
+	protected void sendNext() {
+		ActionMessage message;
+		while ((message = outboundQueue.beginSend()) != null) {
+			QueueSendHandler handler = new QueueSendHandler();
+			send(message, handler);
+			if (!handler.returned())
+				return;
+		}
+	}
+	
+	/**
+	 * Send the given message with the wire format and compression selected by its client. The handler is
+	 * notified when the message has been transmitted, which may happen before this method returns.
+	 */
+	protected void send(ActionMessage message, SendHandler handler) {
+		boolean binary = BINARY_FORMAT.equals(getWireFormat(message.getClientId()));
+		if (isCompressionEnabled(message.getClientId())) {
+			sendCompressed(message, binary, handler);
+		} else if (binary) {
+			sendBinary(message, handler);
+		} else if (isStreamMessages()) {
+			sendStreamed(message, handler);
+		} else {
+			try {
+				String json = gson.toJson(message, ActionMessage.class);
+				session.getAsyncRemote().sendText(json, handler);
+			} catch (JsonIOException exception) {
+				handler.onResult(new SendResult(exception));
+			}
+		}
+	}
+	
+	/**
+	 * Serialize the given message directly into the websocket. The container splits the text into
+	 * fragments according to its buffer size. Only one message can be written at a time.
+	 */
+	protected void sendStreamed(ActionMessage message, SendHandler handler) {
+		SendResult result;
+		synchronized (sendLock) {
+			try (Writer writer = session.getBasicRemote().getSendWriter()) {
+				JsonWriter jsonWriter = gson.newJsonWriter(writer);
+				gson.toJson(message, ActionMessage.class, jsonWriter);
+				jsonWriter.flush();
+				result = new SendResult();
+			} catch (IOException | JsonIOException exception) {
+				result = new SendResult(exception);
+			}
+		}
+		handler.onResult(result);
+	}
+	
+	/**
+	 * Send the given message in binary format. In streaming mode the message is encoded directly into
+	 * the websocket, otherwise it is encoded into a buffer and sent asynchronously.
+	 */
+	protected void sendBinary(ActionMessage message, SendHandler handler) {
+		if (isStreamMessages()) {
+			SendResult result;
+			synchronized (sendLock) {
+				try (OutputStream stream = session.getBasicRemote().getSendStream()) {
+					writeBinary(message, stream);
+					result = new SendResult();
+				} catch (IOException | JsonIOException exception) {
+					result = new SendResult(exception);
+				}
+			}
+			handler.onResult(result);
+		} else {
+			try {
+				ByteArrayOutputStream stream = new ByteArrayOutputStream();
+				writeBinary(message, stream);
+				session.getAsyncRemote().sendBinary(ByteBuffer.wrap(stream.toByteArray()), handler);
+			} catch (IOException | JsonIOException exception) {
+				handler.onResult(new SendResult(exception));
+			}
+		}
+	}
+	
+	/**
+	 * Send the given message compressed if its size exceeds the compression threshold. Compressed messages are
+	 * sent as binary messages in zlib format, and their content is either JSON text or the binary format.
+	 * Smaller messages are sent uncompressed. In streaming mode the message is compressed directly into the websocket.
+	 */
+	protected void sendCompressed(ActionMessage message, boolean binary, SendHandler handler) {
+		if (isStreamMessages()) {
+			SendResult result;
+			synchronized (sendLock) {
+				try {
+					CompressingOutputStream stream = new CompressingOutputStream(compressionThreshold, compressionLevel,
+							() -> session.getBasicRemote().getSendStream(), compressionStatistics);
+					try {
+						writeMessage(message, stream, binary);
+					} catch (IOException | RuntimeException exception) {
+						if (stream.abort())
+							abortSession(exception);
+						throw exception;
+					}
+					stream.close();
+					if (!stream.isCompressed()) {
+						byte[] data = stream.getBufferedData();
+						if (binary)
+							session.getBasicRemote().sendBinary(ByteBuffer.wrap(data));
+						else
+							session.getBasicRemote().sendText(new String(data, StandardCharsets.UTF_8));
+					}
+					result = new SendResult();
+				} catch (IOException | JsonIOException exception) {
+					result = new SendResult(exception);
+				}
+			}
+			handler.onResult(result);
+		} else {
+			try {
+				ByteArrayOutputStream target = new ByteArrayOutputStream();
+				CompressingOutputStream stream = new CompressingOutputStream(compressionThreshold, compressionLevel,
+						() -> target, compressionStatistics);
+				try {
+					writeMessage(message, stream, binary);
+				} catch (IOException | RuntimeException exception) {
+					stream.abort();
+					throw exception;
+				}
+				stream.close();
+				if (stream.isCompressed())
+					session.getAsyncRemote().sendBinary(ByteBuffer.wrap(target.toByteArray()), handler);
+				else if (binary)
+					session.getAsyncRemote().sendBinary(ByteBuffer.wrap(stream.getBufferedData()), handler);
+				else
+					session.getAsyncRemote().sendText(new String(stream.getBufferedData(), StandardCharsets.UTF_8), handler);
+			} catch (IOException | JsonIOException exception) {
+				handler.onResult(new SendResult(exception));
+			}
+		}
+	}
+	
+	/**
+	 * Close the session after a message could only be streamed partially. The websocket cannot complete
+	 * the message without sending a truncated one, so the client has to reconnect.
+	 */
+	protected void abortSession(Exception cause) {
+		try {
+			session.close(new CloseReason(CloseReason.CloseCodes.UNEXPECTED_CONDITION, "Failed to send message"));
+		} catch (IOException exception) {
+			cause.addSuppressed(exception);
+		}
+	}
+	
+	protected void writeMessage(ActionMessage message, OutputStream stream, boolean binary) throws IOException {
+		if (binary) {
+			writeBinary(message, stream);
+		} else {
+			JsonWriter jsonWriter = gson.newJsonWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8));
+			gson.toJson(message, ActionMessage.class, jsonWriter);
+			jsonWriter.flush();
+		}
+	}
+	
+	protected void writeBinary(ActionMessage message, OutputStream stream) throws IOException {
+		BinaryJsonWriter writer = new BinaryJsonWriter(stream);
+		gson.toJson(message, ActionMessage.class, writer);
+		writer.flush();
+	}
+	
+	/**
+	 * Read a binary message, which is either in the binary format, or compressed in zlib format.
+	 */
+	protected ActionMessage readBinary(InputStream stream) throws IOException {
+		PushbackInputStream input = new PushbackInputStream(stream, 1);
+		int first = input.read();
+		if (first < 0)
+			throw new EOFException();
+		input.unread(first);
+		if ((first & 0x8f) == 0x08) {
+			// The zlib header denotes the deflate compression method and a window size of up to 32K
+			return readBinary(new InflaterInputStream(input));
+		} else if ((first & 0xe0) == 0xc0) {
+			// The binary format starts with a CBOR tag
+			return gson.fromJson(new BinaryJsonParser(input).parse(), ActionMessage.class);
+		} else {
+			// Compressed JSON text
+			return gson.fromJson(new InputStreamReader(input, StandardCharsets.UTF_8), ActionMessage.class);
+		}
+	}
+	
+	/**
+	 * Completes the current message of the outbound queue. If the message was sent asynchronously, the next
+	 * message is sent from the completion callback, otherwise {@link #sendNext()} continues with its loop
+	 * in order to avoid a deep recursion.
+	 */
+	protected class QueueSendHandler implements SendHandler {
+		
+		private boolean completed;
+		
+		private boolean returned;
+		
+		@Override
+		public void onResult(SendResult result) {
+			if (!result.isOK())
+				fireError(result.getException() instanceof Exception
+						? (Exception) result.getException() : new RuntimeException(result.getException()));
+			outboundQueue.endSend();
+			synchronized (this) {
+				completed = true;
+				if (!returned)
+					return;
+			}
+			sendNext();
+		}
+		
+		/**
+		 * Called after the message has been handed over to the websocket. Returns whether the message
+		 * has already been transmitted.
+		 */
+		synchronized boolean returned() {
+			returned = true;
+			return completed;
+		}
 	}
 	
 	protected class ActionMessageHandler implements MessageHandler.Whole<String> {
@@ -93,7 +576,23 @@ public class DiagramServerEndpoint extends Endpoint implements Consumer<ActionMe
 				if (actionMessage.getAction() == null)
 					fireError(new IllegalArgumentException("Property 'action' must be set."));
 				else
-					fireMessageReceived(actionMessage);
+					dispatchMessage(actionMessage);
+			} catch (Exception exception) {
+				fireError(exception);
+			}
+		}
+	}
+	
+	protected class BinaryActionMessageHandler implements MessageHandler.Whole<InputStream> {
+		@Override
+		public void onMessage(InputStream message) {
+			try {
+				initializeGson();
+				ActionMessage actionMessage = readBinary(message);
+				if (actionMessage.getAction() == null)
+					fireError(new IllegalArgumentException("Property 'action' must be set."));
+				else
+					dispatchMessage(actionMessage);
 			} catch (Exception exception) {
 				fireError(exception);
 			}
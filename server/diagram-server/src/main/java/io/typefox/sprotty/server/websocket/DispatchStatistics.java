@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2017 TypeFox and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.typefox.sprotty.server.websocket;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Statistics on the dispatching of incoming messages, grouped by action kind. The queue time is the time
+ * from decoding a message until the diagram server starts handling it, including the time spent waiting for
+ * the dispatch executor and the executor of the diagram server. The handler time is the time the diagram
+ * server spends handling the message, as reported to
+ * {@link io.typefox.sprotty.api.IDiagramServer#accept(io.typefox.sprotty.api.ActionMessage, io.typefox.sprotty.api.IDiagramServer.HandlingCallback)
+ * IDiagramServer.accept}. Messages for which no diagram server is found are not recorded. All times are in
+ * nanoseconds.
+ */
+public class DispatchStatistics {
+	
+	private final Map<String, ActionKindStatistics> actionKinds = new ConcurrentHashMap<>();
+	
+	/**
+	 * Record a message that has been handled.
+	 */
+	public void record(String actionKind, long queueTime, long handlerTime) {
+		actionKinds.computeIfAbsent(actionKind, k -> new ActionKindStatistics()).record(queueTime, handlerTime);
+	}
+	
+	/**
+	 * The statistics of all action kinds received so far, indexed by kind.
+	 */
+	public Map<String, ActionKindStatistics> getActionKinds() {
+		return Collections.unmodifiableMap(actionKinds);
+	}
+	
+	/**
+	 * The statistics of the given action kind, or {@code null} if no such action has been received.
+	 */
+	public ActionKindStatistics get(String actionKind) {
+		return actionKinds.get(actionKind);
+	}
+	
+	@Override
+	public String toString() {
+		return "DispatchStatistics " + actionKinds;
+	}
+	
+	/**
+	 * Dispatch statistics of a single action kind.
+	 */
+	public static class ActionKindStatistics {
+		
+		private final AtomicLong messages = new AtomicLong();
+		
+		private final AtomicLong queueTime = new AtomicLong();
+		
+		private final AtomicLong maxQueueTime = new AtomicLong();
+		
+		private final AtomicLong handlerTime = new AtomicLong();
+		
+		private final AtomicLong maxHandlerTime = new AtomicLong();
+		
+		void record(long queueTime, long handlerTime) {
+			messages.incrementAndGet();
+			this.queueTime.addAndGet(queueTime);
+			this.maxQueueTime.accumulateAndGet(queueTime, Math::max);
+			this.handlerTime.addAndGet(handlerTime);
+			this.maxHandlerTime.accumulateAndGet(handlerTime, Math::max);
+		}
+		
+		public long getMessages() {
+			return messages.get();
+		}
+		
+		/**
+		 * The total time that messages of this kind waited for being handled.
+		 */
+		public long getQueueTime() {
+			return queueTime.get();
+		}
+		
+		public long getMaxQueueTime() {
+			return maxQueueTime.get();
+		}
+		
+		/**
+		 * The total time spent handling messages of this kind.
+		 */
+		public long getHandlerTime() {
+			return handlerTime.get();
+		}
+		
+		public long getMaxHandlerTime() {
+			return maxHandlerTime.get();
+		}
+		
+		@Override
+		public String toString() {
+			return "[messages=" + getMessages()
+					+ ", queueTime=" + getQueueTime() + "ns, maxQueueTime=" + getMaxQueueTime()
+					+ "ns, handlerTime=" + getHandlerTime() + "ns, maxHandlerTime=" + getMaxHandlerTime() + "ns]";
+		}
+	}
+
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2017 TypeFox and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.typefox.sprotty.server.test
+
+import io.typefox.sprotty.api.Action
+import io.typefox.sprotty.api.ActionMessage
+import io.typefox.sprotty.api.Match
+import io.typefox.sprotty.api.SGraph
+import io.typefox.sprotty.api.SNode
+import io.typefox.sprotty.api.SelectAction
+import io.typefox.sprotty.api.SetModelAction
+import io.typefox.sprotty.api.UpdateModelAction
+import io.typefox.sprotty.server.websocket.ActionMessageQueue
+import org.junit.Test
+
+import static org.junit.Assert.*
+
+class ActionMessageQueueTest {
+	
+	protected def createGraph(int revision) {
+		new SGraph [
+			id = 'graph'
+			it.revision = revision
+		]
+	}
+	
+	protected def offer(ActionMessageQueue queue, String clientId, Action action) {
+		queue.offer(new ActionMessage(clientId, action))
+	}
+	
+	@Test
+	def void testCoalesceLastRevision() {
+		val queue = new ActionMessageQueue(10)
+		queue.offer('client', new SetModelAction(createGraph(1)))
+		assertNotNull(queue.beginSend)
+		// The first model is being sent, so the following ones are coalesced
+		queue.offer('client', new UpdateModelAction(createGraph(2)))
+		val lastUpdate = new UpdateModelAction(createGraph(3))
+		queue.offer('client', lastUpdate)
+		assertEquals(1, queue.depth)
+		assertEquals(1, queue.coalescedMessages)
+		assertNull(queue.beginSend)
+		queue.endSend
+		assertSame(lastUpdate, queue.beginSend.action)
+	}
+	
+	@Test
+	def void testCoalesceUpdateWithQueuedSetModel() {
+		val queue = new ActionMessageQueue(10)
+		queue.offer('client', new SetModelAction(createGraph(1)))
+		val lastRoot = createGraph(2)
+		queue.offer('client', new UpdateModelAction(lastRoot))
+		assertEquals(1, queue.depth)
+		// The client has not received the first model, so it must still replace its model completely
+		val action = queue.beginSend.action
+		assertTrue(action instanceof SetModelAction)
+		assertSame(lastRoot, (action as SetModelAction).newRoot)
+	}
+	
+	@Test
+	def void testKeepOrderOfOtherMessages() {
+		val queue = new ActionMessageQueue(10)
+		queue.offer('client', new UpdateModelAction(createGraph(1)))
+		queue.offer('client', new SelectAction)
+		queue.offer('client', new UpdateModelAction(createGraph(2)))
+		queue.offer('other', new UpdateModelAction(createGraph(3)))
+		assertEquals(4, queue.depth)
+		assertEquals(0, queue.coalescedMessages)
+	}
+	
+	@Test
+	def void testMatchOnlyUpdateIsNotCoalesced() {
+		val queue = new ActionMessageQueue(10)
+		queue.offer('client', new UpdateModelAction(createGraph(1)))
+		val matches = #[
+			new Match [
+				right = new SNode [ id = 'node' ]
+				rightParentId = 'graph'
+			]
+		]
+		queue.offer('client', new UpdateModelAction(matches))
+		assertEquals(2, queue.depth)
+		assertEquals(0, queue.coalescedMessages)
+		// A complete model can replace the queued matches
+		queue.offer('client', new UpdateModelAction(createGraph(2)))
+		assertEquals(2, queue.depth)
+		assertEquals(1, queue.coalescedMessages)
+	}
+	
+	@Test
+	def void testFullQueue() {
+		val queue = new ActionMessageQueue(2)
+		assertTrue(queue.offer('client', new UpdateModelAction(createGraph(1))))
+		assertTrue(queue.offer('other', new SelectAction))
+		assertFalse(queue.offer('other', new SelectAction))
+		assertEquals(1, queue.rejectedMessages)
+		// Newer models replace queued ones even if the queue is full
+		assertTrue(queue.offer('client', new UpdateModelAction(createGraph(2))))
+		assertEquals(2, queue.depth)
+		assertEquals(1, queue.coalescedMessages)
+		assertEquals(2, queue.maxDepth)
+	}
+	
+	@Test
+	def void testClear() {
+		val queue = new ActionMessageQueue(10)
+		queue.offer('client', new SelectAction)
+		queue.offer('client', new SelectAction)
+		assertNotNull(queue.beginSend)
+		queue.clear
+		assertEquals(0, queue.depth)
+		// The abandoned message does not block the queue
+		queue.offer('client', new SelectAction)
+		assertNotNull(queue.beginSend)
+	}
+	
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2017 TypeFox and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.typefox.sprotty.server.test
+
+import com.google.gson.GsonBuilder
+import io.typefox.sprotty.api.Action
+import io.typefox.sprotty.api.Bounds
+import io.typefox.sprotty.api.ComputedBoundsAction
+import io.typefox.sprotty.api.Dimension
+import io.typefox.sprotty.api.ElementAndAlignment
+import io.typefox.sprotty.api.ElementAndBounds
+import io.typefox.sprotty.api.Match
+import io.typefox.sprotty.api.Point
+import io.typefox.sprotty.api.RequestModelAction
+import io.typefox.sprotty.api.SGraph
+import io.typefox.sprotty.api.SNode
+import io.typefox.sprotty.api.SelectAction
+import io.typefox.sprotty.api.UpdateModelAction
+import io.typefox.sprotty.server.json.ActionTypeAdapter
+import io.typefox.sprotty.server.json.EnumTypeAdapter
+import org.junit.Test
+
+import static org.junit.Assert.*
+
+class ActionTypeAdapterTest {
+	
+	val gson = ActionTypeAdapter.configureGson(new GsonBuilder).create
+	
+	/**
+	 * Serializes actions with Gson's reflective adapter, which writes the same fields in the same order as
+	 * the action type adapter did before it used precomputed property accessors.
+	 */
+	val reflectiveGson = new GsonBuilder().registerTypeAdapterFactory(new EnumTypeAdapter.Factory).create
+	
+	protected def void assertSerialization(Action action) {
+		assertEquals(reflectiveGson.toJson(action), gson.toJson(action, Action))
+	}
+	
+	protected def void assertRoundTrip(Action action) {
+		val json = gson.toJson(action, Action)
+		val result = gson.fromJson(json, Action)
+		assertEquals(action, result)
+		assertEquals(json, gson.toJson(result, Action))
+	}
+	
+	protected def createComputedBoundsAction() {
+		new ComputedBoundsAction [
+			revision = 3
+			bounds = #[
+				new ElementAndBounds [
+					elementId = 'node0'
+					newBounds = new Bounds(10, 20, 30.5, 40)
+				]
+			]
+			alignments = #[
+				new ElementAndAlignment [
+					elementId = 'label0'
+					newAlignment = new Point(0, 12)
+				]
+			]
+		]
+	}
+	
+	protected def createNode() {
+		new SNode [
+			id = 'node0'
+			type = 'node'
+			position = new Point(1, 2)
+			size = new Dimension(30, 40)
+		]
+	}
+	
+	@Test
+	def void testRequestModel() {
+		val action = new RequestModelAction [
+			options = newLinkedHashMap('needsClientLayout' -> 'true', 'sourceUri' -> 'file:///test.txt')
+		]
+		assertSerialization(action)
+		assertRoundTrip(action)
+	}
+	
+	@Test
+	def void testSelect() {
+		val action = new SelectAction [
+			selectedElementsIDs = #['node0', 'edge1']
+		]
+		assertSerialization(action)
+		assertRoundTrip(action)
+	}
+	
+	@Test
+	def void testComputedBounds() {
+		val action = createComputedBoundsAction
+		assertEquals('{"kind":"computedBounds","revision":3,'
+			+ '"bounds":[{"elementId":"node0","newBounds":{"x":10.0,"y":20.0,"width":30.5,"height":40.0}}],'
+			+ '"alignments":[{"elementId":"label0","newAlignment":{"x":0.0,"y":12.0}}]}',
+			gson.toJson(action, Action))
+		assertSerialization(action)
+		assertRoundTrip(action)
+	}
+	
+	@Test
+	def void testUpdateModel() {
+		val node = createNode
+		val action = new UpdateModelAction [
+			newRoot = new SGraph [
+				id = 'graph'
+				type = 'graph'
+				revision = 2
+				children = #[node]
+			]
+			animate = true
+		]
+		assertSerialization(action)
+	}
+	
+	@Test
+	def void testUpdateModelWithMatches() {
+		val node = createNode
+		val action = new UpdateModelAction [
+			matches = #[
+				new Match [
+					left = new SNode [
+						id = 'node0'
+						type = 'node'
+					]
+					leftParentId = 'graph'
+					right = node
+					rightParentId = 'graph'
+					rightIndex = 0
+				]
+			]
+		]
+		assertSerialization(action)
+	}
+	
+	@Test
+	def void testUnknownPropertiesSkipped() {
+		val json = '{"foo":{"bar":[1,2]},"kind":"computedBounds","revision":3,"baz":true}'
+		val result = gson.fromJson(json, Action) as ComputedBoundsAction
+		assertEquals(3, result.revision)
+	}
+	
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2017 TypeFox and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.typefox.sprotty.server.test
+
+import com.google.gson.GsonBuilder
+import com.google.gson.JsonElement
+import com.google.gson.JsonParser
+import com.google.gson.stream.JsonWriter
+import io.typefox.sprotty.server.json.BinaryJsonParser
+import io.typefox.sprotty.server.json.BinaryJsonWriter
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import org.junit.Test
+
+import static org.junit.Assert.*
+
+class BinaryJsonTest {
+	
+	protected def byte[] write((JsonWriter)=>void writes) {
+		val out = new ByteArrayOutputStream
+		val writer = new BinaryJsonWriter(out)
+		writes.apply(writer)
+		writer.flush
+		return out.toByteArray
+	}
+	
+	protected def JsonElement parse(byte[] data) {
+		new BinaryJsonParser(new ByteArrayInputStream(data)).parse
+	}
+	
+	@Test
+	def void testStringReferences() {
+		val data = write[
+			beginArray
+			for (i : 0 ..< 60)
+				value('node' + i % 30)
+			value('ab')
+			value('ab')
+			endArray
+		]
+		val array = parse(data).asJsonArray
+		assertEquals(62, array.size)
+		for (i : 0 ..< 60)
+			assertEquals('node' + i % 30, array.get(i).asString)
+		assertEquals('ab', array.get(61).asString)
+		// The second occurrences of the 30 ids are references of 3 or 4 bytes, "ab" is too short for a reference
+		assertEquals(5 + 10 * 6 + 20 * 7 + 24 * 3 + 6 * 4 + 2 * 3, data.length)
+	}
+	
+	@Test
+	def void testStringTablePerTopLevelValue() {
+		val data = write[
+			value('repeated')
+			value('repeated')
+		]
+		val parser = new BinaryJsonParser(new ByteArrayInputStream(data))
+		assertEquals('repeated', parser.parse.asString)
+		assertEquals('repeated', parser.parse.asString)
+	}
+	
+	@Test
+	def void testLargeIntegers() {
+		val array = parse(write[
+			beginArray
+			value(Long.MAX_VALUE)
+			value(Long.MIN_VALUE)
+			value(9007199254740993L)
+			value(-9007199254740993L)
+			endArray
+		]).asJsonArray
+		assertEquals(Long.MAX_VALUE, array.get(0).asLong)
+		assertEquals(Long.MIN_VALUE, array.get(1).asLong)
+		assertEquals(9007199254740993L, array.get(2).asLong)
+		assertEquals(-9007199254740993L, array.get(3).asLong)
+	}
+	
+	@Test
+	def void testNegativeZero() {
+		val value = parse(write[value(-0.0)]).asDouble
+		assertEquals(Double.doubleToRawLongBits(-0.0), Double.doubleToRawLongBits(value))
+	}
+	
+	@Test
+	def void testNaNInLenientMode() {
+		val value = parse(write[
+			lenient = true
+			value(Double.NaN)
+		]).asDouble
+		assertTrue(Double.isNaN(value))
+	}
+	
+	@Test(expected = IllegalArgumentException)
+	def void testNaNInStrictMode() {
+		write[value(Double.NaN)]
+	}
+	
+	@Test
+	def void testNestedContainers() {
+		val element = new JsonParser().parse('''
+			{"a":[1,2.5,[true,null],{}],"b":{"c":{"d":"text"}},"e":[],"f":null}
+		''')
+		val gson = new GsonBuilder().serializeNulls.create
+		assertEquals(element, parse(write[gson.toJson(element, it)]))
+	}
+	
+}
@@ -10,6 +10,7 @@ import io.typefox.sprotty.api.IDiagramExpansionListener
 import io.typefox.sprotty.api.IDiagramOpenListener
 import io.typefox.sprotty.api.IDiagramSelectionListener
 import io.typefox.sprotty.api.IDiagramServer
+import io.typefox.sprotty.api.ILabelMeasurer
 import io.typefox.sprotty.api.ILayoutEngine
 import io.typefox.sprotty.api.IModelUpdateListener
 import io.typefox.sprotty.api.IPopupModelFactory
@@ -60,6 +61,11 @@ class MulticoreAllocationWebModule extends AbstractMulticoreAllocationWebModule
 		MulticoreAllocationPopupModelFactory
 	}
 	
+	def Class<? extends ILabelMeasurer> bindILabelMeasurer() {
+		// The labels are arranged by client layouts, so they are measured by the client anyway
+		ILabelMeasurer.NullImpl
+	}
+	
 	def Class<? extends IDiagramSelectionListener> bindIDiagramSelectionListener() {
 		IDiagramSelectionListener.NullImpl
 	}
@@ -8,6 +8,7 @@ package io.typefox.sprotty.example.multicore.web
 
 import com.google.inject.Inject
 import io.typefox.sprotty.api.ActionMessage
+import io.typefox.sprotty.api.IDiagramServer
 import io.typefox.sprotty.example.multicore.web.diagram.DiagramService
 import io.typefox.sprotty.layout.ElkLayoutEngine
 import io.typefox.sprotty.server.websocket.DiagramServerEndpoint
@@ -57,9 +58,9 @@ class MulticoreServerLauncher {
 			super.accept(message)
 		}
 		
-		override protected fireMessageReceived(ActionMessage message) {
+		override protected fireMessageReceived(ActionMessage message, IDiagramServer.HandlingCallback callback) {
 			LOG.info('''CLIENT: «message»''')
-			super.fireMessageReceived(message)
+			super.fireMessageReceived(message, callback)
 		}
 	}
 	
@@ -9,6 +9,7 @@ package io.typefox.sprotty.server.xtext
 import io.typefox.sprotty.api.IDiagramExpansionListener
 import io.typefox.sprotty.api.IDiagramSelectionListener
 import io.typefox.sprotty.api.IDiagramServer
+import io.typefox.sprotty.api.ILabelMeasurer
 import io.typefox.sprotty.api.ILayoutEngine
 import io.typefox.sprotty.api.IModelUpdateListener
 import io.typefox.sprotty.api.IPopupModelFactory
@@ -36,6 +37,13 @@ class DefaultDiagramModule extends AbstractGenericModule {
 		LanguageAwareDiagramServer
 	}
 	
+	/**
+	 * In order to lay out a model shown by several clients only once, return a {@link com.google.inject.Singleton}
+	 * subclass of {@link io.typefox.sprotty.api.CachingLayoutEngine} that passes your layout engine to the
+	 * super constructor, and override
+	 * {@link DiagramLanguageServerExtension#getGenerationKey(io.typefox.sprotty.api.IDiagramState)}
+	 * so the servers receive identical models.
+	 */
 	def Class<? extends ILayoutEngine> bindILayoutEngine() {
 		ILayoutEngine.NullImpl
 	}
@@ -44,6 +52,14 @@ class DefaultDiagramModule extends AbstractGenericModule {
 		IPopupModelFactory.NullImpl
 	}
 	
+	/**
+	 * Labels are measured by the client by default. Bind a configured {@link io.typefox.sprotty.api.AwtLabelMeasurer}
+	 * in order to measure them on the server.
+	 */
+	def Class<? extends ILabelMeasurer> bindILabelMeasurer() {
+		ILabelMeasurer.NullImpl
+	}
+	
 	def Class<? extends IModelUpdateListener> bindIModelUpdateListener() {
 		IModelUpdateListener.NullImpl
 	}
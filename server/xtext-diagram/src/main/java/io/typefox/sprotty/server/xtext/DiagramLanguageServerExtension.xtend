@@ -9,12 +9,19 @@ package io.typefox.sprotty.server.xtext
 import com.google.inject.Inject
 import com.google.inject.Provider
 import io.typefox.sprotty.api.ActionMessage
+import io.typefox.sprotty.api.DefaultDiagramServer
+import io.typefox.sprotty.api.DiagramServerHibernator
 import io.typefox.sprotty.api.IDiagramServer
+import io.typefox.sprotty.api.IDiagramState
+import io.typefox.sprotty.api.LayoutUtil
+import io.typefox.sprotty.api.SModelRoot
 import io.typefox.sprotty.api.ServerStatus
 import java.util.Collection
 import java.util.List
 import java.util.Map
+import java.util.Set
 import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ConcurrentHashMap
 import org.apache.log4j.Logger
 import org.eclipse.emf.common.util.URI
 import org.eclipse.emf.ecore.resource.Resource
@@ -50,9 +57,22 @@ class DiagramLanguageServerExtension implements DiagramServerEndpoint, ILanguage
 	DeferredDiagramUpdater updater
 
 	@Accessors(PROTECTED_GETTER)
-	val Map<String, IDiagramServer> diagramServers = newLinkedHashMap
+	val Map<String, IDiagramServer> diagramServers = new ConcurrentHashMap
+
+	/** Index of the language-aware diagram servers by their source URI */
+	val Map<String, Set<ILanguageAwareDiagramServer>> diagramServersByUri = new ConcurrentHashMap
+	
+	/** The source URIs under which the language-aware diagram servers are indexed */
+	val Map<ILanguageAwareDiagramServer, String> indexedUris = new ConcurrentHashMap
 
 	DiagramEndpoint _client
+	
+	/** Hibernates idle diagram servers after diagram updates; no servers are hibernated if this is {@code null} */
+	@Accessors
+	DiagramServerHibernator hibernator
+	
+	/** The number of pending diagram updates of each server, guarded by itself */
+	val Map<IDiagramServer, Integer> pendingUpdates = newHashMap
 
 	protected extension ILanguageServerAccess languageServerAccess
 	
@@ -82,16 +102,18 @@ class DiagramLanguageServerExtension implements DiagramServerEndpoint, ILanguage
 	 * exist yet.
 	 */
 	override getDiagramServer(String clientId) {
-		synchronized (diagramServers) {
-			var server = diagramServers.get(clientId)
-			if (server === null) {
-				server = diagramServerProvider.get
-				server.clientId = clientId
-				initializeDiagramServer(server)
-				diagramServers.put(clientId, server)
-			}
+		val server = diagramServers.get(clientId)
+		if (server !== null)
 			return server
-		}
+		val newServer = diagramServers.computeIfAbsent(clientId) [
+			val result = diagramServerProvider.get
+			result.clientId = clientId
+			initializeDiagramServer(result)
+			return result
+		]
+		if (newServer instanceof ILanguageAwareDiagramServer)
+			updateIndex(newServer)
+		return newServer
 	}
 	
 	/**
@@ -105,10 +127,55 @@ class DiagramLanguageServerExtension implements DiagramServerEndpoint, ILanguage
 			server.languageServerExtension = this
 	}
 	
+	/**
+	 * Return the diagram servers whose source URI is the given one. This is a lookup in an index that is
+	 * updated from {@link ILanguageAwareDiagramServer#getSourceUri()} when a server is created, when
+	 * {@link #sourceUriChanged(ILanguageAwareDiagramServer, String, String)} is called, and when a server is closed.
+	 */
 	def List<? extends ILanguageAwareDiagramServer> findDiagramServersByUri(String uri) {
-		synchronized (diagramServers) {
-			diagramServers.values.filter(ILanguageAwareDiagramServer).filter[sourceUri == uri].toList
-		}
+		if (uri === null)
+			return emptyList
+		val servers = diagramServersByUri.get(uri)
+		if (servers === null)
+			return emptyList
+		return servers.toList
+	}
+	
+	/**
+	 * Notify this extension that the source URI of the given server has changed, so the server is found by
+	 * {@link #findDiagramServersByUri(String)}. Implementations of {@link ILanguageAwareDiagramServer}
+	 * must call this whenever their source URI changes, since the index is not updated otherwise.
+	 */
+	def void sourceUriChanged(ILanguageAwareDiagramServer server, String oldUri, String newUri) {
+		updateIndex(server)
+	}
+	
+	/**
+	 * Index the given server under its current source URI, or remove it from the index if it has been closed.
+	 */
+	protected def void updateIndex(ILanguageAwareDiagramServer server) {
+		// Updates for the same server are serialized by computing its entry, and updates of the same URI
+		// by computing the URI's entry, so no global lock is needed
+		indexedUris.compute(server) [ s, indexedUri |
+			// Servers that have been closed are not indexed again
+			val newUri = if (server.clientId !== null && diagramServers.get(server.clientId) === server) server.sourceUri
+			if (indexedUri != newUri) {
+				if (indexedUri !== null) {
+					diagramServersByUri.computeIfPresent(indexedUri) [ uri, servers |
+						servers.remove(server)
+						return if (servers.empty) null else servers
+					]
+				}
+				if (newUri !== null) {
+					diagramServersByUri.compute(newUri) [ uri, servers |
+						val result = servers ?: ConcurrentHashMap.<ILanguageAwareDiagramServer>newKeySet
+						result.add(server)
+						return result
+					]
+				}
+			}
+			return newUri
+		]
 	}
 	
 	/**
@@ -124,9 +191,9 @@ class DiagramLanguageServerExtension implements DiagramServerEndpoint, ILanguage
 	 * Remove the diagram server associated with the given client identifier.
 	 */
 	override didClose(String clientId) {
-		synchronized (diagramServers) {
-			diagramServers.remove(clientId)
-		}
+		val server = diagramServers.remove(clientId)
+		if (server instanceof ILanguageAwareDiagramServer)
+			updateIndex(server)
 	}
 	
 	/**
@@ -136,48 +203,114 @@ class DiagramLanguageServerExtension implements DiagramServerEndpoint, ILanguage
 		updater.updateLater(uris)
 	}
 
-	protected def doUpdateDiagrams(Collection<? extends URI> uris) {
-		for (uri : uris) {
+	protected def void doUpdateDiagrams(Collection<? extends URI> uris) {
+		// Hibernated servers stay hibernated; they regenerate their diagram when their client sends the next action
+		val futures = uris.map[ uri |
 			val path = uri.toUriString
-			val diagramServers = findDiagramServersByUri(path)
-			doUpdateDiagrams(path, diagramServers)
-		}		
+			doUpdateDiagrams(path, findDiagramServersByUri(path).filter[!isHibernated(it)].toList)
+		].toList
+		if (hibernator !== null) {
+			CompletableFuture.allOf(futures).thenRun [
+				hibernator?.enforceBudget(diagramServers.values.filter[!hasPendingUpdates].toList)
+			]
+		}
 	} 
 
 	/**
-	 * Update the diagram for the given diagram server using the configured diagram generator.
+	 * Update the diagram for the given diagram server using the configured diagram generator. The returned
+	 * future completes after the generated model has been set, or {@code null} is returned if the server
+	 * has no source URI.
 	 */
-	def void updateDiagram(LanguageAwareDiagramServer diagramServer) {
+	def CompletableFuture<Void> updateDiagram(LanguageAwareDiagramServer diagramServer) {
 		val path = diagramServer.sourceUri
 		if (path !== null) 
-			doUpdateDiagrams(path, #[diagramServer])
+			return doUpdateDiagrams(path, #[diagramServer])
+		return null
+	}
+	
+	/**
+	 * Whether the given server has dropped its model in order to free memory, see {@link DiagramServerHibernator}.
+	 */
+	protected def boolean isHibernated(IDiagramServer server) {
+		server instanceof DefaultDiagramServer && (server as DefaultDiagramServer).hibernated
+	}
+	
+	/**
+	 * Whether an update of the given server's diagram has been started and not completed yet.
+	 */
+	protected def boolean hasPendingUpdates(IDiagramServer server) {
+		synchronized (pendingUpdates) {
+			return pendingUpdates.containsKey(server)
+		}
+	}
+	
+	private def void countPendingUpdates(List<? extends IDiagramServer> servers, int delta) {
+		synchronized (pendingUpdates) {
+			for (server : servers) {
+				pendingUpdates.merge(server, delta) [ a, b | if (a + b == 0) null else a + b ]
+			}
+		}
 	}
 
+	/**
+	 * Generate the diagrams for the given servers. Servers with equal non-null {@linkplain #getGenerationKey(IDiagramState)
+	 * generation keys} share a single generation; each of them receives its own copy of the generated model,
+	 * since the model is modified by the server, e.g. when its revision is assigned or its layout is computed.
+	 * Sharing is disabled by default.
+	 */
 	protected def CompletableFuture<Void> doUpdateDiagrams(String path, List<? extends ILanguageAwareDiagramServer> diagramServers) {
 		if (diagramServers.empty) {
 			return CompletableFuture.completedFuture(null)
 		}
+		countPendingUpdates(diagramServers, 1)
 		return path.doRead [ context |
 			val status = context.resource.shouldGenerate(context.cancelChecker)
+			val generatedModels = <Object, SModelRoot>newHashMap
+			// The models are generated eagerly, so they are not modified by a server before they are copied
 			return diagramServers.map [ server |
 				server -> {
 					server.status = status
 					if (status.severity !== ERROR) {
-						val diagramGenerator = diagramGeneratorProvider.get
-						diagramGenerator.generate(context.resource, server.diagramState, context.cancelChecker)
+						val state = server.diagramState
+						val key = getGenerationKey(state)
+						if (key === null) {
+							val diagramGenerator = diagramGeneratorProvider.get
+							diagramGenerator.generate(context.resource, state, context.cancelChecker)
+						} else if (generatedModels.containsKey(key)) {
+							val model = generatedModels.get(key)
+							if (model !== null) LayoutUtil.copyModel(model)
+						} else {
+							val diagramGenerator = diagramGeneratorProvider.get
+							val model = diagramGenerator.generate(context.resource, state, context.cancelChecker)
+							generatedModels.put(key, model)
+							model
+						}
 					} else {
 						null
 					}
 				}
-			]
+			].toList
 		].thenAccept [ resultList |
 			resultList.filter[value !== null].forEach[key.updateModel(value)]
 		].exceptionally [ throwable |
 			LOG.error('Error while processing build results', throwable)
 			return null
+		].whenComplete [ result, throwable |
+			countPendingUpdates(diagramServers, -1)
 		]
 	}
 
+	/**
+	 * Return a key for sharing the diagram generation among servers with the same source URI, or {@code null}
+	 * to generate the diagram separately for the given state. The default is {@code null}, since the diagram
+	 * generator may depend on inputs that are not known here, e.g. the client identifier or the current model.
+	 * Override this in order to share the generation if your generator only depends on the resource and
+	 * the state, e.g. by returning {@code #[state.options, state.expandedElements, state.selectedElements]}.
+	 */
+	protected def Object getGenerationKey(IDiagramState state) {
+		null
+	}
+
 	protected def ServerStatus shouldGenerate(Resource resource, CancelIndicator cancelIndicator) {
 		if (resource === null)
 			return new ServerStatus(ERROR, 'Cannot update diagram: Model does not exist')
@@ -6,5 +6,9 @@ interface ILanguageAwareDiagramServer extends IDiagramServer {
 	
 	def DiagramLanguageServerExtension getLanguageServerExtension()
 	
+	/**
+	 * The URI of the resource shown by the diagram. When it changes, implementations should call
+	 * {@link DiagramLanguageServerExtension#sourceUriChanged(ILanguageAwareDiagramServer, String, String)}.
+	 */
 	def String getSourceUri()
 }
\ No newline at end of file
@@ -6,8 +6,10 @@
  */
 package io.typefox.sprotty.server.xtext
 
+import io.typefox.sprotty.api.Action
 import io.typefox.sprotty.api.DefaultDiagramServer
 import io.typefox.sprotty.api.RequestModelAction
+import java.util.Map
 import org.eclipse.xtend.lib.annotations.Accessors
 
 /**
@@ -32,8 +34,25 @@ class LanguageAwareDiagramServer extends DefaultDiagramServer implements ILangua
 		}
 	}
 	
+	/**
+	 * Regenerate the diagram when an action is received for a hibernated server. The action is handled
+	 * after the regenerated model has been set. A {@link RequestModelAction} is skipped here since it
+	 * regenerates the diagram anyway.
+	 */
+	override protected restoreModel(Action action) {
+		if (!(action instanceof RequestModelAction))
+			return languageServerExtension?.updateDiagram(this)
+		return null
+	}
+	
 	override getSourceUri() {
 		options.get(OPTION_SOURCE_URI)
 	}
 	
+	override protected setOptions(Map<String, String> options) {
+		val oldUri = sourceUri
+		super.setOptions(options)
+		languageServerExtension?.sourceUriChanged(this, oldUri, sourceUri)
+	}
+	
 }
\ No newline at end of file
@@ -10,7 +10,6 @@ import com.google.inject.Inject
 import io.typefox.sprotty.api.IDiagramOpenListener
 import io.typefox.sprotty.api.IDiagramServer
 import io.typefox.sprotty.api.OpenAction
-import io.typefox.sprotty.api.SModelIndex
 import io.typefox.sprotty.server.xtext.ILanguageAwareDiagramServer
 import io.typefox.sprotty.server.xtext.tracing.ITraceProvider
 import io.typefox.sprotty.server.xtext.tracing.TraceRegionProvider
@@ -31,7 +30,7 @@ class IdeDiagramOpenListener implements IDiagramOpenListener {
 		if (server instanceof ILanguageAwareDiagramServer) {
 			val languageServerExtension = server.languageServerExtension
 			if (languageServerExtension instanceof IdeLanguageServerExtension) {
-				val selectedElement = new SModelIndex(server.model).get(action.elementId)
+				val selectedElement = server.modelIndex.get(action.elementId)
 				if (selectedElement instanceof Traceable) {
 					selectedElement.withSource(server) [ element, context |
 						if (element !== null) {
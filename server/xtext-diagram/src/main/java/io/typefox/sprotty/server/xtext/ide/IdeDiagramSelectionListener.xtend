@@ -10,7 +10,6 @@ import com.google.inject.Inject
 import io.typefox.sprotty.api.Action
 import io.typefox.sprotty.api.IDiagramSelectionListener
 import io.typefox.sprotty.api.IDiagramServer
-import io.typefox.sprotty.api.SModelIndex
 import io.typefox.sprotty.api.SelectAction
 import io.typefox.sprotty.server.xtext.ILanguageAwareDiagramServer
 import io.typefox.sprotty.server.xtext.tracing.ITraceProvider
@@ -39,7 +38,7 @@ class IdeDiagramSelectionListener implements IDiagramSelectionListener {
 		if (languageServerExtension instanceof IdeLanguageServerExtension) {
 			if (action.selectedElementsIDs !== null && action.selectedElementsIDs.size === 1)  {
 				val id = action.selectedElementsIDs.head
-				val selectedElement = new SModelIndex(server.model).get(id)
+				val selectedElement = server.modelIndex.get(id)
 				if (selectedElement instanceof Traceable) {
 					selectedElement.withSource(server) [ element, context |
 						if (element !== null) {
@@ -6,8 +6,11 @@
  */
 package io.typefox.sprotty.server.xtext.test
 
+import io.typefox.sprotty.api.ActionMessage
 import io.typefox.sprotty.api.RequestModelAction
 import io.typefox.sprotty.server.xtext.LanguageAwareDiagramServer
+import io.typefox.sprotty.server.xtext.testlanguage.diagram.TestCachingLayoutEngine
+import io.typefox.sprotty.server.xtext.testlanguage.diagram.TestDiagramLanguageServerExtension
 import io.typefox.sprotty.server.xtext.testlanguage.diagram.TestLanguageDiagramGenerator
 import java.util.HashMap
 import org.eclipse.lsp4j.DidChangeTextDocumentParams
@@ -123,4 +126,47 @@ class DiagramGeneratorTest extends AbstractDiagramServerTest {
     	''')
     }
 	
+    @Test
+    def void testSharedGeneration() {
+    	val initialContent = '''
+            node foo
+            node bar
+        '''
+        val sourceUri = writeFile('graph.testlang', initialContent)
+    	initialize()
+    	languageServer.didOpen(new DidOpenTextDocumentParams(
+    		new TextDocumentItem(sourceUri, 'testlang', 0, initialContent)
+    	))
+    	val diagramExtension = getServiceProvider(sourceUri).get(TestDiagramLanguageServerExtension)
+    	for (clientId : #[CLIENT_ID, 'otherClient']) {
+    		val server = diagramExtension.getDiagramServer(clientId) as LanguageAwareDiagramServer
+    		// Lay out the models synchronously, so they are complete when the update is finished
+    		server.needsClientLayout = false
+    		server.needsServerLayout = true
+    		server.messageExecutor = null
+    		server.layoutExecutor = null
+    		languageServer.notify('diagram/accept', new ActionMessage(clientId, new RequestModelAction[
+    			options = new HashMap => [
+    				put(LanguageAwareDiagramServer.OPTION_SOURCE_URI, sourceUri)
+    			]
+    		]))
+    	}
+    	waitForUpdates(sourceUri, 2)
+    	languageServer.didChange(new DidChangeTextDocumentParams(
+    		new VersionedTextDocumentIdentifier => [uri = sourceUri],
+    		#[new TextDocumentContentChangeEvent(new Range(new Position(1, 5), new Position(1, 8)), 3, 'baz')]
+    	))
+    	waitForUpdates(sourceUri, 3)
+    	val diagramGenerator = getServiceProvider(sourceUri).get(TestLanguageDiagramGenerator)
+    	assertEquals(3, diagramGenerator.results.size)
+    	val layoutEngine = getServiceProvider(sourceUri).get(TestCachingLayoutEngine)
+    	// Each of the two revisions has been laid out once for both clients
+    	assertEquals(2, layoutEngine.missCount)
+    	assertEquals(2, layoutEngine.hitCount)
+    	val models = diagramExtension.diagramServers.values.map[model].toList
+    	assertEquals(2, models.size)
+    	assertNotSame(models.get(0), models.get(1))
+    	assertEquals(models.get(0).toString, models.get(1).toString)
+    }
+	
 }
\ No newline at end of file
@@ -0,0 +1,22 @@
+/*
+ * Copyright (C) 2017 TypeFox and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.typefox.sprotty.server.xtext.testlanguage.diagram
+
+import com.google.inject.Inject
+import com.google.inject.Singleton
+import io.typefox.sprotty.api.CachingLayoutEngine
+import io.typefox.sprotty.api.ILayoutEngine
+
+@Singleton
+class TestCachingLayoutEngine extends CachingLayoutEngine {
+	
+	@Inject
+	new() {
+		super(new ILayoutEngine.NullImpl)
+	}
+	
+}
@@ -7,6 +7,7 @@
 package io.typefox.sprotty.server.xtext.testlanguage.diagram
 
 import com.google.inject.Singleton
+import io.typefox.sprotty.api.IDiagramState
 import io.typefox.sprotty.server.xtext.DiagramLanguageServerExtension
 import io.typefox.sprotty.server.xtext.ILanguageAwareDiagramServer
 import java.util.HashMap
@@ -25,6 +26,10 @@ class TestDiagramLanguageServerExtension extends DiagramLanguageServerExtension
 		super.getDiagramServers()
 	}
 	
+	override protected getGenerationKey(IDiagramState state) {
+		#[state.options, state.expandedElements, state.selectedElements]
+	}
+	
 	override protected doUpdateDiagrams(String path, List<? extends ILanguageAwareDiagramServer> diagramServers) {
 		val result = super.doUpdateDiagrams(path, diagramServers)
 		synchronized (updateFutures) {
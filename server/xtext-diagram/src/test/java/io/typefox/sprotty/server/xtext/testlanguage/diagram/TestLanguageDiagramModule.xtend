@@ -19,4 +19,8 @@ class TestLanguageDiagramModule extends DefaultDiagramModule {
 		TestLanguageDiagramGenerator
 	}
 	
+	override bindILayoutEngine() {
+		TestCachingLayoutEngine
+	}
+	
 }
\ No newline at end of file